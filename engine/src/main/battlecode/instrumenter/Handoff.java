@@ -0,0 +1,202 @@
+package battlecode.instrumenter;
+
+import battlecode.server.Config;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Passes control back and forth between the engine and a robot's thread, so
+ * that only one of them runs at a time.
+ *
+ * The engine calls start, then resume, once per turn; the robot calls pause
+ * at the end of each turn, and finish when it stops running for good.
+ */
+abstract class Handoff {
+
+    /**
+     * @return a handoff of the kind set by bc.engine.thread-handoff: monitor,
+     *         park, or spin (then park)
+     */
+    static Handoff fromConfig() {
+        switch (Config.getGlobalConfig().get("bc.engine.thread-handoff")) {
+            case "spin":
+                return new Park(Park.SPINS);
+            case "park":
+                return new Park(0);
+            default:
+                return new Monitor();
+        }
+    }
+
+    /**
+     * Called by the engine to start the robot's thread, and wait for it to
+     * pause or finish.
+     */
+    abstract void start(Thread robot) throws InterruptedException;
+
+    /**
+     * Called by the engine to let the robot run, and wait for it to pause or
+     * finish.
+     */
+    abstract void resume() throws InterruptedException;
+
+    /**
+     * Called by the robot to let the engine run, and wait to be resumed.
+     */
+    abstract void pause() throws InterruptedException;
+
+    /**
+     * Called by the robot when it has stopped running, to let the engine run.
+     */
+    abstract void finish();
+
+    /**
+     * Hands off with a monitor.
+     */
+    static final class Monitor extends Handoff {
+        private final Object notifier = new Object();
+
+        @Override
+        void start(Thread robot) throws InterruptedException {
+            synchronized (notifier) {
+                robot.start();
+                notifier.wait();
+            }
+        }
+
+        @Override
+        void resume() throws InterruptedException {
+            synchronized (notifier) {
+                notifier.notifyAll();
+                notifier.wait();
+            }
+        }
+
+        @Override
+        void pause() throws InterruptedException {
+            synchronized (notifier) {
+                notifier.notifyAll();
+                notifier.wait();
+            }
+        }
+
+        @Override
+        void finish() {
+            synchronized (notifier) {
+                notifier.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Hands off by parking and unparking threads.
+     *
+     * Each side may spin for a while before parking, so that a turn that
+     * ends quickly is handed back without either thread going to sleep; and
+     * only unparks the other if it has parked.
+     */
+    static final class Park extends Handoff {
+        /**
+         * How many times a thread spins before parking, when asked to; not at
+         * all with a single processor, where the other thread can't run
+         * while we spin.
+         */
+        static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 1 << 12 : 0;
+
+        private final int spins;
+
+        /**
+         * Whether it's the robot's turn to run, rather than the engine's.
+         */
+        private volatile boolean robotTurn;
+
+        /**
+         * Whether the engine or the robot is parked, or about to, and has to
+         * be unparked.
+         */
+        private volatile boolean engineParked, robotParked;
+
+        /**
+         * The engine thread waiting for the robot, which may be a different
+         * one each turn.
+         */
+        private volatile Thread engine;
+
+        private Thread robot;
+
+        /**
+         * @param spins how many times to spin before parking
+         */
+        Park(int spins) {
+            this.spins = spins;
+        }
+
+        @Override
+        void start(Thread robot) throws InterruptedException {
+            this.robot = robot;
+            engine = Thread.currentThread();
+            robotTurn = true;
+            robot.start();
+            awaitTurn(false);
+        }
+
+        @Override
+        void resume() throws InterruptedException {
+            engine = Thread.currentThread();
+            robotTurn = true;
+            if (robotParked) {
+                LockSupport.unpark(robot);
+            }
+            awaitTurn(false);
+        }
+
+        @Override
+        void pause() throws InterruptedException {
+            passToEngine();
+            awaitTurn(true);
+        }
+
+        @Override
+        void finish() {
+            passToEngine();
+        }
+
+        private void passToEngine() {
+            robotTurn = false;
+            if (engineParked) {
+                LockSupport.unpark(engine);
+            }
+        }
+
+        private void awaitTurn(boolean robot) throws InterruptedException {
+            for (int i = 0; i < spins; i++) {
+                if (robotTurn == robot) {
+                    return;
+                }
+            }
+
+            // Say we're parking before checking our turn one last time, so
+            // that whoever passes it to us either sees we're parked, or is
+            // seen to have passed it
+            setParked(robot, true);
+            try {
+                while (robotTurn != robot) {
+                    LockSupport.park(this);
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException();
+                    }
+                }
+            } finally {
+                setParked(robot, false);
+            }
+        }
+
+        private void setParked(boolean robot, boolean parked) {
+            if (robot) {
+                robotParked = parked;
+            } else {
+                engineParked = parked;
+            }
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package battlecode.instrumenter;
+
+import battlecode.common.GameConstants;
+import battlecode.instrumenter.bytecode.MethodCostUtil;
+import battlecode.server.Config;
+import battlecode.server.Server;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.CodeSource;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * An on-disk cache of instrumented classes, shared by every server that uses
+ * the same directory, so that a class is only instrumented the first time
+ * any of them loads it.
+ *
+ * Classes are stored under a hash of everything their instrumentation
+ * depends on: the bytes of the class, the team it's instrumented for, the
+ * instrumentation flags, and the instrumenter itself. A class is never
+ * stored under a key that could produce different bytes, so entries are
+ * never invalidated; stale ones are simply no longer looked up.
+ *
+ * Entries are written to a temporary file and moved into place, so several
+ * processes can share a cache, and a crash never leaves a partial entry.
+ */
+final class InstrumentedClassCache {
+
+    /**
+     * The engine's classes that instrument classes, or are copied into the
+     * cache as they are, so that classes instrumented by an engine with
+     * different ones are no longer used.
+     */
+    private static final String[] INSTRUMENTER_CLASSES = {
+            "battlecode/instrumenter/",
+            "battlecode/common/Clock.class"
+    };
+
+    /**
+     * The resources of the instrumenter that affect its output.
+     */
+    private static final String[] INSTRUMENTER_RESOURCES = {
+            "resources/MethodCosts.txt",
+            "resources/AllowedPackages.txt",
+            "resources/DisallowedClasses.txt"
+    };
+
+    /**
+     * A hash of the instrumenter and the JVM whose classes it copies.
+     */
+    private static final byte[] instrumenterHash = hashInstrumenter();
+
+    /**
+     * The hash of a container with no files to hash.
+     */
+    static final byte[] EMPTY_HASH = newDigest().digest();
+
+    /**
+     * The directory entries are stored in.
+     */
+    private final Path directory;
+
+    /**
+     * Whether we've already warned that the cache can't be written to.
+     */
+    private volatile boolean warned;
+
+    private InstrumentedClassCache(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @return the cache in the directory set by
+     *         bc.engine.instrumented-class-cache, or null if it isn't set
+     */
+    static InstrumentedClassCache fromConfig() {
+        final String directory = Config.getGlobalConfig().get("bc.engine.instrumented-class-cache");
+        if (directory == null || directory.isEmpty()) {
+            return null;
+        }
+        return new InstrumentedClassCache(Paths.get(directory));
+    }
+
+    /**
+     * Computes the key of a class.
+     *
+     * @param className the name of the class
+     * @param classBytes the bytes of the class before instrumentation
+     * @param context a hash of whatever else, outside the class, its
+     *                instrumentation depends on
+     * @param checkDisallowed whether disallowed classes are checked
+     * @param debugMethodsEnabled whether debug methods are kept
+     * @param profilerEnabled whether profiler calls are added
+     * @return the key of the instrumented class
+     */
+    static String key(String className, byte[] classBytes, byte[] context,
+                      boolean checkDisallowed, boolean debugMethodsEnabled, boolean profilerEnabled) {
+        final MessageDigest digest = newDigest();
+        digest.update(instrumenterHash);
+        digest.update(context);
+        digest.update(className.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(classBytes);
+        digest.update((byte) ((checkDisallowed ? 1 : 0) | (debugMethodsEnabled ? 2 : 0) | (profilerEnabled ? 4 : 0)));
+        return toHex(digest.digest());
+    }
+
+    /**
+     * @param key the key of a class
+     * @return the instrumented bytes of the class, or null if they aren't
+     *         cached
+     */
+    byte[] get(String key) {
+        try {
+            return Files.readAllBytes(path(key));
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            warn(e);
+            return null;
+        }
+    }
+
+    /**
+     * Stores an instrumented class. Failing to is only a warning; the class
+     * will just be instrumented again next time.
+     *
+     * @param key the key of the class
+     * @param classBytes the instrumented bytes of the class
+     */
+    void put(String key, byte[] classBytes) {
+        final Path path = path(key);
+        try {
+            Files.createDirectories(path.getParent());
+            final Path temp = Files.createTempFile(path.getParent(), key, ".tmp");
+            try {
+                Files.write(temp, classBytes);
+                Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException e) {
+            warn(e);
+        }
+    }
+
+    /**
+     * @return a stamp of the instrumenter and the JVM whose classes it copies,
+     *         which classes instrumented ahead of time are only used with
+     */
+    static String instrumenterStamp() {
+        return toHex(instrumenterHash);
+    }
+
+    /**
+     * Hashes the files of a team's jar or directory whose names start with
+     * one of some prefixes, with their names; but for the classes it has
+     * already instrumented (see InstrumentedTeam), which are never
+     * instrumented themselves.
+     *
+     * @param container the team's jar or directory
+     * @param prefixes the prefixes of the files to hash, or none to hash
+     *                 every file
+     * @return the hash
+     * @throws IOException if the container can't be read
+     */
+    static byte[] hashContainer(Path container, String... prefixes) throws IOException {
+        final MessageDigest digest = newDigest();
+        try (DataOutputStream out = new DataOutputStream(new DigestOutputStream(nullOutputStream(), digest))) {
+            if (Files.isDirectory(container)) {
+                final List<Path> files = new ArrayList<>();
+                try (Stream<Path> walk = Files.walk(container)) {
+                    walk.filter(Files::isRegularFile).sorted().forEach(files::add);
+                }
+                for (Path file : files) {
+                    final String name = container.relativize(file).toString().replace(File.separatorChar, '/');
+                    if (hasPrefix(name, prefixes) && !name.startsWith(InstrumentedTeam.DIRECTORY)) {
+                        out.writeUTF(name);
+                        out.writeLong(Files.size(file));
+                        Files.copy(file, out);
+                    }
+                }
+            } else {
+                try (ZipFile zip = new ZipFile(container.toFile())) {
+                    final List<ZipEntry> entries = new ArrayList<>();
+                    for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements(); ) {
+                        final ZipEntry entry = e.nextElement();
+                        if (!entry.isDirectory() && hasPrefix(entry.getName(), prefixes)
+                                && !entry.getName().startsWith(InstrumentedTeam.DIRECTORY)) {
+                            entries.add(entry);
+                        }
+                    }
+                    entries.sort(Comparator.comparing(ZipEntry::getName));
+                    for (ZipEntry entry : entries) {
+                        out.writeUTF(entry.getName());
+                        out.writeLong(entry.getSize());
+                        try (InputStream in = zip.getInputStream(entry)) {
+                            copy(in, out);
+                        }
+                    }
+                }
+            }
+        }
+        return digest.digest();
+    }
+
+    private static boolean hasPrefix(String name, String[] prefixes) {
+        if (prefixes.length == 0) {
+            return true;
+        }
+        for (String prefix : prefixes) {
+            if (name.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Path path(String key) {
+        return directory.resolve(key.substring(0, 2)).resolve(key + ".class");
+    }
+
+    private void warn(IOException e) {
+        if (!warned) {
+            warned = true;
+            Server.warn("Can't use instrumented class cache " + directory + ": " + e);
+        }
+    }
+
+    private static byte[] hashInstrumenter() {
+        final MessageDigest digest = newDigest();
+        try (DataOutputStream out = new DataOutputStream(new DigestOutputStream(nullOutputStream(), digest))) {
+            out.write(hashInstrumenterClasses());
+            out.writeUTF(GameConstants.SPEC_VERSION);
+            out.writeUTF(System.getProperty("java.vendor") + " " + System.getProperty("java.version"));
+            for (String resource : INSTRUMENTER_RESOURCES) {
+                try (InputStream in = MethodCostUtil.class.getResourceAsStream(resource)) {
+                    if (in == null) {
+                        throw new IOException("Missing " + resource);
+                    }
+                    copy(in, out);
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Can't hash the instrumenter", e);
+        }
+        return digest.digest();
+    }
+
+    /**
+     * @return a hash of the engine's INSTRUMENTER_CLASSES, or if they can't
+     *         be found, a random one, so that only classes instrumented by
+     *         this very engine are used
+     */
+    private static byte[] hashInstrumenterClasses() {
+        try {
+            final CodeSource engine = InstrumentedClassCache.class.getProtectionDomain().getCodeSource();
+            if (engine != null) {
+                return hashContainer(Paths.get(engine.getLocation().toURI()), INSTRUMENTER_CLASSES);
+            }
+        } catch (IOException | URISyntaxException | RuntimeException e) {
+            // Fall through
+        }
+        return UUID.randomUUID().toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        final byte[] buffer = new byte[8192];
+        for (int n; (n = in.read(buffer)) > 0; ) {
+            out.write(buffer, 0, n);
+        }
+    }
+
+    private static OutputStream nullOutputStream() {
+        return new OutputStream() {
+            @Override
+            public void write(int b) {}
+
+            @Override
+            public void write(byte[] b, int off, int len) {}
+        };
+    }
+
+    private static String toHex(byte[] bytes) {
+        final StringBuilder hex = new StringBuilder(2 * bytes.length);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+            hex.append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,237 @@
+package battlecode.instrumenter;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.JarURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * The java.util and java.math classes, instrumented when the engine is built
+ * instead of when a robot first uses them, and packed into the engine's jar;
+ * see the instrumentJdk task of the engine's build.
+ *
+ * The bundle is stamped with the instrumenter and JVM that built it, and only
+ * used by the same ones, since the classes in it are copies of that JVM's.
+ * Loaders also only use it for teams without classes of their own in system
+ * packages, which would change how system classes are instrumented.
+ */
+public final class InstrumentedJdkBundle {
+
+    /**
+     * The directory the bundle is kept in, on the classpath.
+     */
+    static final String DIRECTORY = "instrumented-jdk";
+
+    /**
+     * The file in the bundle's directory that holds its stamp.
+     */
+    private static final String STAMP = "STAMP";
+
+    /**
+     * The packages whose classes are bundled.
+     */
+    private static final String[] PACKAGES = {"java/util/", "java/math/"};
+
+    /**
+     * The bundle packed into the engine, or null if there's none we can use.
+     */
+    private static final InstrumentedJdkBundle engineBundle =
+            open(InstrumentedJdkBundle.class.getClassLoader());
+
+    /**
+     * Where the bundle's classes are looked up.
+     */
+    private final ClassLoader resources;
+
+    private InstrumentedJdkBundle(ClassLoader resources) {
+        this.resources = resources;
+    }
+
+    /**
+     * @return the bundle packed into the engine, or null if there isn't one
+     *         built by this instrumenter and JVM
+     */
+    static InstrumentedJdkBundle fromEngine() {
+        return engineBundle;
+    }
+
+    /**
+     * @param resources where to look for the bundle
+     * @return the bundle, or null if there isn't one built by this
+     *         instrumenter and JVM
+     */
+    static InstrumentedJdkBundle open(ClassLoader resources) {
+        try (InputStream in = resources.getResourceAsStream(DIRECTORY + "/" + STAMP)) {
+            if (in == null) {
+                return null;
+            }
+            final String stamp = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)).readLine();
+            return InstrumentedClassCache.instrumenterStamp().equals(stamp)
+                    ? new InstrumentedJdkBundle(resources)
+                    : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param className the name of an instrumented class, e.g.
+     *                  instrumented.java.util.ArrayList
+     * @param profilerEnabled whether the class should call the profiler
+     * @return the instrumented bytes of the class, or null if it isn't in
+     *         the bundle
+     */
+    byte[] get(String className, boolean profilerEnabled) {
+        final URL url = resources.getResource(path(className.replace('.', '/'), profilerEnabled));
+        if (url == null) {
+            return null;
+        }
+        try {
+            return TeamClassLoaderFactory.readBytes(url);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static String path(String instrumentedName, boolean profilerEnabled) {
+        return DIRECTORY + "/" + (profilerEnabled ? "profiled" : "plain") + "/" + instrumentedName + ".class";
+    }
+
+    /**
+     * Instruments the classes of some packages of this JVM that robots get
+     * instrumented copies of, without and with the profiler, into a bundle.
+     * Classes that can't be instrumented are left out, and fail when robots
+     * load them, as they would have anyway.
+     *
+     * @param directory the directory to write the bundle to, which is
+     *                  put on the classpath as DIRECTORY
+     * @param packages the packages to bundle, as prefixes like java/util/
+     * @return how many classes were bundled, each without and with the
+     *         profiler
+     * @throws IOException if the JVM's classes can't be listed, or the
+     *                     bundle can't be written
+     */
+    static int write(Path directory, String... packages) throws IOException {
+        final List<String> classes = jdkClasses(packages);
+
+        // A team with no classes, to instrument system classes for
+        final Path emptyTeam = Files.createTempDirectory("instrumented-jdk");
+        final AtomicInteger count = new AtomicInteger();
+        try {
+            final TeamClassLoaderFactory factory = new TeamClassLoaderFactory(emptyTeam.toString());
+            for (boolean profilerEnabled : new boolean[] {false, true}) {
+                final TeamClassLoaderFactory.Loader loader = factory.createLoader(profilerEnabled);
+                classes.parallelStream().forEach(className -> {
+                    final String name = loader.getRefUtil().classReference(className, false);
+                    if (!name.startsWith("instrumented/")) {
+                        return;
+                    }
+                    final byte[] classBytes;
+                    try {
+                        classBytes = loader.instrument(
+                                TeamClassLoaderFactory.normalReader(className), false, false);
+                    } catch (RuntimeException e) {
+                        // Including whatever ASM throws for classes it can't read
+                        return;
+                    }
+                    final Path path = directory.resolve(path(name, profilerEnabled).substring(DIRECTORY.length() + 1));
+                    try {
+                        Files.createDirectories(path.getParent());
+                        Files.write(path, classBytes);
+                    } catch (IOException e) {
+                        throw new RuntimeException("Can't write " + path, e);
+                    }
+                    if (!profilerEnabled) {
+                        count.incrementAndGet();
+                    }
+                });
+            }
+        } finally {
+            Files.delete(emptyTeam);
+        }
+
+        // Stamped last, so a bundle that wasn't finished is never used
+        Files.write(directory.resolve(STAMP),
+                Collections.singletonList(InstrumentedClassCache.instrumenterStamp()),
+                StandardCharsets.UTF_8);
+        return count.get();
+    }
+
+    /**
+     * @param packages prefixes like java/util/
+     * @return the names of this JVM's classes in the packages, like
+     *         java/util/ArrayList
+     */
+    private static List<String> jdkClasses(String[] packages) throws IOException {
+        final List<String> resources = new ArrayList<>();
+        final URL object = TeamClassLoaderFactory.getNormalURL("java/lang/Object.class");
+        if (object.getProtocol().equals("jar")) {
+            // Java 8 keeps its classes in rt.jar
+            final Path jar;
+            try {
+                jar = Paths.get(((JarURLConnection) object.openConnection()).getJarFileURL().toURI());
+            } catch (URISyntaxException e) {
+                throw new IOException("Can't find the JVM's classes at " + object, e);
+            }
+            try (ZipFile zip = new ZipFile(jar.toFile())) {
+                for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements(); ) {
+                    resources.add(e.nextElement().getName());
+                }
+            }
+        } else {
+            // Later ones keep them in modules
+            final Path base = FileSystems.getFileSystem(URI.create("jrt:/")).getPath("/modules/java.base");
+            try (Stream<Path> walk = Files.walk(base)) {
+                walk.filter(Files::isRegularFile).forEach(path -> resources.add(base.relativize(path).toString()));
+            }
+        }
+
+        final List<String> classes = new ArrayList<>();
+        for (String resource : resources) {
+            if (!resource.endsWith(".class")) {
+                continue;
+            }
+            for (String prefix : packages) {
+                if (resource.startsWith(prefix)) {
+                    classes.add(resource.substring(0, resource.length() - ".class".length()));
+                    break;
+                }
+            }
+        }
+        Collections.sort(classes);
+        return classes;
+    }
+
+    /**
+     * Builds the bundle; run by the engine's build.
+     *
+     * @param args the directory to write the bundle to
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: battlecode.instrumenter.InstrumentedJdkBundle ${directory}, where the " +
+                    "bundle is written to ${directory}/" + DIRECTORY + ", to be put on the engine's classpath");
+            System.exit(1);
+        }
+        final Path directory = Paths.get(args[0]).resolve(DIRECTORY);
+        final int count = write(directory, PACKAGES);
+        System.out.println("Instrumented " + count + " JDK classes into " + directory);
+    }
+}
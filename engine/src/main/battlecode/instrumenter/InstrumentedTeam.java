@@ -0,0 +1,238 @@
+package battlecode.instrumenter;
+
+import battlecode.server.Config;
+import battlecode.server.Server;
+import org.objectweb.asm.ClassReader;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static battlecode.instrumenter.InstrumentationException.Type.MISSING;
+
+/**
+ * A team's jar with its classes already instrumented, so that a tournament
+ * can instrument each submission once, when it's uploaded, instead of in
+ * every match; written by battlecode.server.InstrumentTeam.
+ *
+ * The jar holds the team's own files, as they were, and the instrumented
+ * classes under DIRECTORY, stored by their keys in the disk cache (see
+ * InstrumentedClassCache), so that they're only used for the same class,
+ * team, instrumenter and flags. Each instrumented class is signed with the
+ * key set by bc.engine.instrumented-team-key, since a team could otherwise
+ * put whatever bytecode it likes there; loaders only use classes whose
+ * signature checks out, and instrument the rest as usual.
+ */
+public final class InstrumentedTeam {
+
+    /**
+     * The directory of the jar the instrumented classes are kept in.
+     */
+    static final String DIRECTORY = "META-INF/instrumented/";
+
+    private static final String CLASS_SUFFIX = ".instrumented";
+    private static final String SIGNATURE_SUFFIX = ".sig";
+    private static final String ALGORITHM = "HmacSHA256";
+
+    /**
+     * Where the team's files are looked up.
+     */
+    private final ClassLoader teamResources;
+
+    /**
+     * The team's jar, for warnings.
+     */
+    private final Path container;
+
+    private final SecretKeySpec key;
+
+    /**
+     * Whether we've already warned about a class with a bad signature.
+     */
+    private volatile boolean warned;
+
+    private InstrumentedTeam(ClassLoader teamResources, Path container, SecretKeySpec key) {
+        this.teamResources = teamResources;
+        this.container = container;
+        this.key = key;
+    }
+
+    /**
+     * @param teamResources where to look up the team's files
+     * @param container the team's jar or directory
+     * @return the instrumented classes of the team, checked with the key set
+     *         by bc.engine.instrumented-team-key, or null if it isn't set
+     */
+    static InstrumentedTeam fromConfig(ClassLoader teamResources, Path container) {
+        final SecretKeySpec key = keyFromConfig();
+        return key != null ? new InstrumentedTeam(teamResources, container, key) : null;
+    }
+
+    private static SecretKeySpec keyFromConfig() {
+        final String key = Config.getGlobalConfig().get("bc.engine.instrumented-team-key");
+        if (key == null || key.isEmpty()) {
+            return null;
+        }
+        return new SecretKeySpec(key.getBytes(StandardCharsets.UTF_8), ALGORITHM);
+    }
+
+    /**
+     * @param classKey the key of a class, as in the disk cache
+     * @return the instrumented bytes of the class, or null if the team
+     *         doesn't have them, or they aren't signed with our key
+     */
+    byte[] get(String classKey) {
+        final URL classURL = teamResources.getResource(DIRECTORY + classKey + CLASS_SUFFIX);
+        final URL signatureURL = teamResources.getResource(DIRECTORY + classKey + SIGNATURE_SUFFIX);
+        if (classURL == null || signatureURL == null) {
+            return null;
+        }
+        try {
+            final byte[] classBytes = TeamClassLoaderFactory.readBytes(classURL);
+            if (MessageDigest.isEqual(sign(key, classKey, classBytes), TeamClassLoaderFactory.readBytes(signatureURL))) {
+                return classBytes;
+            }
+            if (!warned) {
+                warned = true;
+                Server.warn("Instrumenting classes of " + container + " again, because their signatures " +
+                        "don't match bc.engine.instrumented-team-key");
+            }
+        } catch (IOException e) {
+            // Instrument it instead
+        }
+        return null;
+    }
+
+    private static byte[] sign(SecretKeySpec key, String classKey, byte[] classBytes) {
+        try {
+            final Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            mac.update(classKey.getBytes(StandardCharsets.UTF_8));
+            mac.update(classBytes);
+            return mac.doFinal();
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("Can't sign instrumented classes", e);
+        }
+    }
+
+    /**
+     * Instruments every class of a team, checking for disallowed classes, and
+     * writes them to a jar with the team's files, signed with the key set by
+     * bc.engine.instrumented-team-key. Classes are instrumented with
+     * bc.engine.debug-methods as it's set, and both without and with the
+     * profiler.
+     *
+     * @param teamURL the team's jar or directory
+     * @param output the jar to write
+     * @return how many classes were instrumented
+     * @throws InstrumentationException if the team's classes can't be
+     *                                  loaded, or aren't allowed
+     * @throws IOException if the team can't be read, or the jar written
+     */
+    public static int write(String teamURL, Path output) throws IOException {
+        final SecretKeySpec key = keyFromConfig();
+        if (key == null) {
+            throw new IllegalStateException("Can't sign instrumented classes without bc.engine.instrumented-team-key");
+        }
+        final Path container;
+        try {
+            container = Paths.get(TeamClassLoaderFactory.getFilesystemURL(teamURL).toURI());
+        } catch (URISyntaxException e) {
+            throw new InstrumentationException(MISSING, "Can't find team at " + teamURL, e);
+        }
+        final boolean debugMethodsEnabled = Config.getGlobalConfig().getBoolean("bc.engine.debug-methods");
+        final byte[] context = InstrumentedClassCache.hashContainer(container);
+        final TeamClassLoaderFactory factory = new TeamClassLoaderFactory(teamURL);
+        final TeamClassLoaderFactory.Loader[] loaders = {
+                factory.createLoader(false), factory.createLoader(true)
+        };
+
+        int count = 0;
+        boolean written = false;
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(output))) {
+            copyFiles(container, out);
+            for (byte[] original : SharedStatics.readClasses(container)) {
+                final String name = new ClassReader(original).getClassName().replace('/', '.');
+                TeamClassLoaderFactory.assertAllowedPackage(name);
+                for (TeamClassLoaderFactory.Loader loader : loaders) {
+                    final byte[] classBytes = loader.instrument(new ClassReader(original), true, debugMethodsEnabled);
+                    final String classKey = InstrumentedClassCache.key(name, original, context,
+                            true, debugMethodsEnabled, loader == loaders[1]);
+                    writeEntry(out, DIRECTORY + classKey + CLASS_SUFFIX, classBytes);
+                    writeEntry(out, DIRECTORY + classKey + SIGNATURE_SUFFIX, sign(key, classKey, classBytes));
+                }
+                count++;
+            }
+            written = true;
+        } finally {
+            // Don't leave half a jar behind for a team that was rejected
+            if (!written) {
+                Files.deleteIfExists(output);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Copies the files of a team's jar or directory, but for any classes it
+     * already has instrumented.
+     */
+    private static void copyFiles(Path container, ZipOutputStream out) throws IOException {
+        if (Files.isDirectory(container)) {
+            final List<Path> files = new ArrayList<>();
+            try (Stream<Path> walk = Files.walk(container)) {
+                walk.filter(Files::isRegularFile).sorted().forEach(files::add);
+            }
+            for (Path file : files) {
+                final String name = container.relativize(file).toString().replace(File.separatorChar, '/');
+                if (!name.startsWith(DIRECTORY)) {
+                    writeEntry(out, name, Files.readAllBytes(file));
+                }
+            }
+        } else {
+            try (ZipFile zip = new ZipFile(container.toFile())) {
+                for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements(); ) {
+                    final ZipEntry entry = e.nextElement();
+                    if (!entry.isDirectory() && !entry.getName().startsWith(DIRECTORY)) {
+                        out.putNextEntry(new ZipEntry(entry.getName()));
+                        try (InputStream in = zip.getInputStream(entry)) {
+                            copy(in, out);
+                        }
+                        out.closeEntry();
+                    }
+                }
+            }
+        }
+    }
+
+    private static void writeEntry(ZipOutputStream out, String name, byte[] bytes) throws IOException {
+        out.putNextEntry(new ZipEntry(name));
+        out.write(bytes);
+        out.closeEntry();
+    }
+
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        final byte[] buffer = new byte[8192];
+        for (int n; (n = in.read(buffer)) > 0; ) {
+            out.write(buffer, 0, n);
+        }
+    }
+}
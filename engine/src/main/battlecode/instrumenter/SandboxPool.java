@@ -0,0 +1,122 @@
+package battlecode.instrumenter;
+
+import battlecode.common.Team;
+
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Keeps a few unbound SandboxedRobotPlayers of a team ready in the
+ * background, so that spawning a robot doesn't have to wait for a loader to
+ * be created, the monitor to be loaded, and a thread to start.
+ *
+ * Players are taken and closed by the engine's thread; the pool fills
+ * itself on its own thread.
+ */
+public class SandboxPool {
+
+    private final String teamName;
+    private final Team team;
+    private final TeamClassLoaderFactory factory;
+    private final boolean profilerEnabled;
+    private final OutputStream robotOut;
+
+    /**
+     * The players ready to be taken.
+     */
+    private final ConcurrentLinkedQueue<SandboxedRobotPlayer> ready;
+
+    /**
+     * How many more players the pool has room for.
+     */
+    private final Semaphore space;
+
+    /**
+     * The thread filling the pool.
+     */
+    private final Thread filler;
+
+    private volatile boolean closed;
+
+    /**
+     * Create a pool, and start filling it.
+     *
+     * @param teamName        the name of the team to create players for
+     * @param team            the team of the robots the players will control
+     * @param factory         the factory for the team's ClassLoaders
+     * @param profilerEnabled whether the players will be profiled
+     * @param robotOut        the output to write robot output to (with headers)
+     * @param size            how many players to keep ready
+     */
+    public SandboxPool(String teamName,
+                       Team team,
+                       TeamClassLoaderFactory factory,
+                       boolean profilerEnabled,
+                       OutputStream robotOut,
+                       int size) {
+        this.teamName = teamName;
+        this.team = team;
+        this.factory = factory;
+        this.profilerEnabled = profilerEnabled;
+        this.robotOut = robotOut;
+        this.ready = new ConcurrentLinkedQueue<>();
+        this.space = new Semaphore(size);
+
+        this.filler = new Thread(this::fill, "Sandbox pool for " + teamName);
+        this.filler.setDaemon(true);
+        this.filler.start();
+    }
+
+    private void fill() {
+        while (true) {
+            space.acquireUninterruptibly();
+            if (closed) {
+                return;
+            }
+            try {
+                ready.add(create());
+            } catch (RuntimeException e) {
+                // Leave it to take() to create players, and report what's
+                // wrong when it does
+                return;
+            }
+        }
+    }
+
+    private SandboxedRobotPlayer create() {
+        return new SandboxedRobotPlayer(teamName, team, factory.createLoader(profilerEnabled), robotOut);
+    }
+
+    /**
+     * @return an unbound player, from the pool if one is ready, or else
+     *         a new one
+     */
+    public SandboxedRobotPlayer take() {
+        final SandboxedRobotPlayer player = ready.poll();
+        if (player == null) {
+            return create();
+        }
+        space.release();
+        return player;
+    }
+
+    /**
+     * Stop filling the pool, and terminate the players left in it.
+     */
+    public void close() {
+        closed = true;
+        // Wakes the filler if it's waiting for room
+        space.release();
+        try {
+            filler.join();
+        } catch (InterruptedException e) {
+            throw new RuntimeException("Unexpected interruption closing sandbox pool", e);
+        }
+
+        SandboxedRobotPlayer player;
+        while ((player = ready.poll()) != null) {
+            player.terminate();
+        }
+    }
+}
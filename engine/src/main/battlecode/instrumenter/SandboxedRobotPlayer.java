@@ -2,6 +2,7 @@ package battlecode.instrumenter;
 
 import battlecode.common.RobotController;
 import battlecode.common.Team;
+import battlecode.instrumenter.inject.RobotContext;
 import battlecode.instrumenter.profiler.Profiler;
 import battlecode.instrumenter.stream.RoboPrintStream;
 import battlecode.instrumenter.stream.SilencedPrintStream;
@@ -40,14 +41,20 @@ public class SandboxedRobotPlayer {
     public static final String PLAYER_CLASS_NAME = "RobotPlayer";
 
     /**
-     * The controller for the robot we're controlling.
+     * The controller for the robot we're controlling; null until the player
+     * is bound to a robot.
      */
-    private final RobotController robotController;
+    private RobotController robotController;
 
     /**
      * The seed to use in all "random" operations.
      */
-    private final int seed;
+    private int seed;
+
+    /**
+     * The profiler of the robot, or null if profiling is disabled.
+     */
+    private Profiler profiler;
 
     /**
      * Whether the robot player is terminated.
@@ -60,29 +67,25 @@ public class SandboxedRobotPlayer {
     private final TeamClassLoaderFactory.Loader individualLoader;
 
     /**
-     * The main thread the player is running on.
-     */
-    private final Thread mainThread;
-
-    /**
-     * The cached 'killRobot' method of the monitor.
+     * The static state of the player, if its loader is shared with other
+     * robots; otherwise null.
      */
-    private final Method killMethod;
+    private final RobotContext context;
 
     /**
-     * The cached 'setBytecodeLimit' method of the monitor.
+     * The main thread the player is running on.
      */
-    private final Method setBytecodeLimitMethod;
+    private final Thread mainThread;
 
     /**
-     * The cached 'getBytecodeNum' method of the monitor.
+     * Used to call the monitor each turn.
      */
-    private final Method getBytecodeNumMethod;
+    private final MonitorBridge monitor;
 
     /**
-     * The object used to trade of control between threads.
+     * Used to trade off control between threads.
      */
-    private final Object notifier;
+    private final Handoff handoff;
 
     /**
      * Whether or not we are currently running, i.e. in "step".
@@ -113,13 +116,31 @@ public class SandboxedRobotPlayer {
                                 OutputStream robotOut,
                                 Profiler profiler)
             throws InstrumentationException {
-        this.robotController = robotController;
-        this.seed = seed;
+        this(teamName, robotController.getTeam(), loader, robotOut);
+        bind(robotController, seed, profiler);
+    }
+
+    /**
+     * Create a new sandboxed robot player that isn't controlling a robot
+     * yet: its classes are loaded and its thread started, but it waits to
+     * be bound to a robot before running anything of the player's.
+     *
+     * @param teamName          the name of the team to create a player for
+     * @param team              the team of the robots the player may control
+     * @param loader            the classloader to load classes with
+     * @param robotOut          the output to write robot output to (with headers)
+     * @throws RuntimeException if our code fails for some reason
+     */
+    public SandboxedRobotPlayer(String teamName,
+                                Team team,
+                                TeamClassLoaderFactory.Loader loader,
+                                OutputStream robotOut) {
         this.terminated = false;
-        this.notifier = new Object();
+        this.handoff = Handoff.fromConfig();
 
         // Create classloader sandbox
         individualLoader = loader;
+        context = loader.isShared() ? new RobotContext() : null;
 
         // Load monitor / monitor methods
         // Used to initialize the RobotMonitor for the player
@@ -128,22 +149,20 @@ public class SandboxedRobotPlayer {
         final Method pauseMethod;
         try {
             // The loaded, uninstrumented-but-individual RobotMonitor for this player.
-            Class<?> monitor = individualLoader
+            Class<?> monitorClass = individualLoader
                     .loadClass("battlecode.instrumenter.inject.RobotMonitor");
 
-            killMethod = monitor.getMethod("killRobot");
-            setBytecodeLimitMethod = monitor.getMethod("setBytecodeLimit", int.class);
-            getBytecodeNumMethod = monitor.getMethod("getBytecodeNum");
-            pauseMethod = monitor.getMethod("pause");
-            initMethod = monitor.getMethod("init", Pauser.class, Killer.class, int.class, Profiler.class);
+            monitor = (MonitorBridge) monitorClass.getMethod("bridge").invoke(null);
+            pauseMethod = monitorClass.getMethod("pause");
+            initMethod = monitorClass.getMethod("init", Pauser.class, Killer.class, int.class, Profiler.class);
 
             // Note: loading this here also keeps any initialization we do in System
             // from inflicting its bytecode cost on the player.
             Class<?> system = individualLoader
                     .loadClass("battlecode.instrumenter.inject.System");
 
-            this.systemOut = getOut(robotOut);
-            system.getMethod("setSystemOut", PrintStream.class).invoke(null, this.systemOut);
+            this.systemOut = getOut(robotOut, team);
+            invokeMonitor(system.getMethod("setSystemOut", PrintStream.class), this.systemOut);
 
         } catch (ReflectiveOperationException e) {
             throw new RuntimeException("Couldn't load RobotMonitor", e);
@@ -152,13 +171,9 @@ public class SandboxedRobotPlayer {
         // Used to pause the RobotPlayer main thread.
         final Pauser pauser = () -> {
             try {
-                synchronized (notifier) {
-                    // Unpause the main thread, which is waiting on the player thread
-                    notifier.notifyAll();
-
-                    // Wait for the main thread to restart us
-                    notifier.wait();
-                }
+                // Unpause the main thread, which is waiting on the player
+                // thread, and wait for it to restart us
+                handoff.pause();
             } catch (InterruptedException e) {
                 ErrorReporter.report("RobotPlayer thread interrupted while paused");
                 throw new RobotDeathException();
@@ -172,8 +187,13 @@ public class SandboxedRobotPlayer {
             throw new RobotDeathException();
         };
 
-        mainThread = new Thread(() -> {
+        final Runnable main = () -> {
             try {
+                // Wait to be bound to a robot, or discarded
+                handoff.pause();
+                if (robotController == null) {
+                    return;
+                }
                 // Init RobotMonitor
                 initMethod.invoke(null, pauser, killer, this.seed, profiler);
                 // Pause immediately
@@ -201,6 +221,8 @@ public class SandboxedRobotPlayer {
 
             } catch (final RobotDeathException e) {
                 return;
+            } catch (final InterruptedException e) {
+                ErrorReporter.report("RobotPlayer thread interrupted before being bound");
             } finally {
                 // Ensure that we know we're terminated.
                 this.terminated = true;
@@ -212,21 +234,45 @@ public class SandboxedRobotPlayer {
                 }
 
                 // Unpause the main thread, which is waiting on the player thread.
-                synchronized (notifier) {
-                    notifier.notifyAll();
-                }
+                handoff.finish();
             }
-        }, teamName + "." + PLAYER_CLASS_NAME + " #"+ robotController.getID());
+        };
+        final String threadName = teamName + "." + PLAYER_CLASS_NAME + " (unbound)";
+        if (context != null) {
+            mainThread = new RobotContext.RobotThread(context, main, threadName);
+        } else {
+            mainThread = new Thread(main, threadName);
+        }
 
 
         // Wait for thread to tell us it's ready
         try {
-            synchronized (notifier) {
-                // Doesn't do anything besides initialize the sandbox, since thread pauses immediately
-                mainThread.start();
+            // Doesn't do anything besides start the thread, since it waits to be bound
+            handoff.start(mainThread);
+        } catch (InterruptedException e) {
+            throw new RuntimeException("Unexpected interruption initializing sandbox", e);
+        }
+    }
 
-                notifier.wait();
-            }
+    /**
+     * Bind the player to the robot it will control, and initialize its
+     * monitor. Must be called exactly once, before the player steps.
+     *
+     * @param robotController   the robot the player controls
+     * @param seed              the seed the robot should use for random operations
+     * @param profiler          the profiler of the robot, or null if profiling is disabled
+     */
+    public void bind(RobotController robotController, int seed, Profiler profiler) {
+        assert this.robotController == null;
+
+        this.robotController = robotController;
+        this.seed = seed;
+        this.profiler = profiler;
+        mainThread.setName(mainThread.getName().replace("(unbound)", "#" + robotController.getID()));
+
+        try {
+            // Initializes the monitor, which pauses immediately
+            handoff.resume();
         } catch (InterruptedException e) {
             throw new RuntimeException("Unexpected interruption initializing sandbox", e);
         }
@@ -273,10 +319,56 @@ public class SandboxedRobotPlayer {
      * @param limit the new limit
      */
     public void setBytecodeLimit(int limit) {
+        final RobotContext previous = enterContext();
         try {
-            setBytecodeLimitMethod.invoke(null, limit);
-        } catch (ReflectiveOperationException e) {
-            ErrorReporter.report(e, true);
+            monitor.setBytecodeLimit(limit);
+        } finally {
+            exitContext(previous);
+        }
+    }
+
+    /**
+     * Call a static method of the player's monitor from outside its thread.
+     *
+     * @param method the method to call
+     * @param args the arguments of the method
+     * @return what the method returns
+     */
+    private Object invokeMonitor(Method method, Object... args) throws ReflectiveOperationException {
+        final RobotContext previous = enterContext();
+        try {
+            return method.invoke(null, args);
+        } finally {
+            exitContext(previous);
+        }
+    }
+
+    /**
+     * Lets the player's monitor be called from outside its thread: if the
+     * player shares its classes, the monitor has to find the player's static
+     * state.
+     *
+     * @return the context to pass to exitContext
+     */
+    private RobotContext enterContext() {
+        return context == null ? null : RobotContext.enter(context);
+    }
+
+    private void exitContext(RobotContext previous) {
+        if (context != null) {
+            RobotContext.exit(previous);
+        }
+    }
+
+    /**
+     * Tells the player's monitor to kill it.
+     */
+    private void killRobot() {
+        final RobotContext previous = enterContext();
+        try {
+            monitor.killRobot();
+        } finally {
+            exitContext(previous);
         }
     }
 
@@ -294,19 +386,15 @@ public class SandboxedRobotPlayer {
         updateOut();
 
         try {
-            synchronized (notifier) {
-                // We are now running the robot!
-                running = true;
-
-                // Unpause the robot's thread
-                notifier.notifyAll();
+            // We are now running the robot!
+            running = true;
 
-                // Pause this thread until the robot ends turn or dies
-                notifier.wait();
+            // Unpause the robot's thread, and pause this thread until the
+            // robot ends turn or dies
+            handoff.resume();
 
-                // Main thread reactivated: no longer running.
-                running = false;
-            }
+            // Main thread reactivated: no longer running.
+            running = false;
         } catch (InterruptedException e) {
             throw new RuntimeException("Unexpected interruption", e);
         }
@@ -321,6 +409,17 @@ public class SandboxedRobotPlayer {
             return;
         }
 
+        if (robotController == null) {
+            // Never bound, so there's no monitor to kill; let the thread
+            // see that and stop.
+            try {
+                handoff.resume();
+            } catch (InterruptedException e) {
+                throw new RuntimeException("Unexpected interruption", e);
+            }
+            return;
+        }
+
         if (running) {
             // We're currently running, which means that terminate() has been
             // called from *inside* the running robot thread (because nobody
@@ -334,20 +433,12 @@ public class SandboxedRobotPlayer {
             // execute zero-cost actions after "dying", like (maybe?) returning
             // from run(), which could issue nonsensical warnings. However, it's
             // the best solution I can think of.
-            try {
-                killMethod.invoke(null);
-            } catch (ReflectiveOperationException e) {
-                ErrorReporter.report(e, true);
-            }
+            killRobot();
         } else {
             // We're not running.
             // Set the "shouldDie" flag and then step to finish the job.
 
-            try {
-                killMethod.invoke(null);
-            } catch (ReflectiveOperationException e) {
-                ErrorReporter.report(e, true);
-            }
+            killRobot();
 
             // Step to make the robot die.
             step();
@@ -358,11 +449,11 @@ public class SandboxedRobotPlayer {
      * @return the bytecodes used by the player during the most recent step() call.
      */
     public int getBytecodesUsed() {
+        final RobotContext previous = enterContext();
         try {
-            return (Integer) getBytecodeNumMethod.invoke(null);
-        } catch (ReflectiveOperationException e) {
-            ErrorReporter.report(e, true);
-            return 0;
+            return monitor.getBytecodeNum();
+        } finally {
+            exitContext(previous);
         }
     }
 
@@ -393,12 +484,33 @@ public class SandboxedRobotPlayer {
         void kill();
     }
 
-    public PrintStream getOut(OutputStream wrapped) {
+    /**
+     * Implemented by RobotMonitor; used to call it each turn without
+     * reflection.
+     */
+    public interface MonitorBridge {
+        /**
+         * @see battlecode.instrumenter.inject.RobotMonitor#setBytecodeLimit
+         */
+        void setBytecodeLimit(int limit);
+
+        /**
+         * @see battlecode.instrumenter.inject.RobotMonitor#getBytecodeNum
+         */
+        int getBytecodeNum();
+
+        /**
+         * @see battlecode.instrumenter.inject.RobotMonitor#killRobot
+         */
+        void killRobot();
+    }
+
+    public PrintStream getOut(OutputStream wrapped, Team team) {
         Config options = Config.getGlobalConfig();
 
-        if (robotController.getTeam() == Team.A
+        if (team == Team.A
                 && options.getBoolean("bc.engine.silence-a")
-                || robotController.getTeam() == Team.B
+                || team == Team.B
                 && options.getBoolean("bc.engine.silence-b")) {
             return SilencedPrintStream.theInstance();
             // Modifying Systems specific to this robot.
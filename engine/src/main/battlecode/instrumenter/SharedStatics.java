@@ -0,0 +1,565 @@
+package battlecode.instrumenter;
+
+import battlecode.instrumenter.bytecode.ClassReferenceUtil;
+import org.objectweb.asm.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.objectweb.asm.ClassWriter.COMPUTE_FRAMES;
+import static org.objectweb.asm.ClassWriter.COMPUTE_MAXS;
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Lets all the robots of a team share one definition of each of its
+ * classes, while each robot keeps static state of its own.
+ *
+ * The static fields of a shared class C are moved into a generated class,
+ * C$$Statics, with one instance per robot, kept in the robot's RobotContext.
+ * Every GETSTATIC and PUTSTATIC of one of the fields is rewritten to get the
+ * current robot's instance, and read or write the field on it. C's static
+ * initializer is renamed, and called by C$$Statics when a robot first uses
+ * C; so each robot still initializes its classes itself, and is charged for
+ * it like before.
+ *
+ * Enums are the exception: the JVM caches their constants per class, so they
+ * keep their static fields, and are initialized once per loader. A team whose
+ * enums have state that a robot could change can't share its classes.
+ *
+ * Classes are rewritten as they're defined, after they're instrumented, so
+ * the bytecodes they're charged for don't change, and the factory's caches
+ * hold the same classes whether or not they're shared.
+ *
+ * Only used by one loader, while it holds its own lock.
+ */
+final class SharedStatics {
+
+    /**
+     * Appended to the name of a class to get the name of its holder.
+     */
+    static final String HOLDER_SUFFIX = "$$Statics";
+
+    /**
+     * What the static initializers of shared classes are renamed to.
+     */
+    static final String CLINIT = "$$clinit";
+
+    private static final String CONTEXT = "battlecode/instrumenter/inject/RobotContext";
+
+    /**
+     * A static field, as declared in its class.
+     */
+    private static final class StaticField {
+        final String name;
+        final String desc;
+        final Object value;
+
+        StaticField(String name, String desc, Object value) {
+            this.name = name;
+            this.desc = desc;
+            this.value = value;
+        }
+    }
+
+    /**
+     * What we need to know about a class a loader defines, with the names
+     * it has once instrumented.
+     */
+    private static final class ClassInfo {
+        String name;
+        boolean isInterface;
+        boolean isEnum;
+        String superName;
+        String[] interfaces;
+        final List<StaticField> staticFields = new ArrayList<>();
+        boolean hasClinit;
+
+        /**
+         * The nearest superclass with a holder, if it's been looked for.
+         */
+        ClassInfo holderAncestor;
+        boolean foundHolderAncestor;
+
+        boolean declares(String name, String desc) {
+            for (StaticField field : staticFields) {
+                if (field.name.equals(name) && field.desc.equals(desc)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private final TeamClassLoaderFactory factory;
+    private final ClassReferenceUtil refUtil;
+
+    /**
+     * The classes we've read, by name; null for classes the loader doesn't
+     * define.
+     */
+    private final Map<String, ClassInfo> classes = new HashMap<>();
+
+    /**
+     * The id of the next holder, its index into RobotContext.statics.
+     */
+    private int nextId;
+
+    SharedStatics(TeamClassLoaderFactory factory, ClassReferenceUtil refUtil) {
+        this.factory = factory;
+        this.refUtil = refUtil;
+    }
+
+    /**
+     * @param className the name of a class, with .s
+     * @return whether the class could be the holder of another
+     */
+    static boolean isHolder(String className) {
+        return className.endsWith(HOLDER_SUFFIX);
+    }
+
+    /**
+     * @param className the name of a class the loader defines, with .s
+     * @return whether the class is an enum, which has to be initialized once
+     *         for all robots
+     */
+    boolean isEnum(String className) {
+        final ClassInfo info = info(className.replace('.', '/'));
+        return info != null && info.isEnum;
+    }
+
+    /**
+     * Rewrites a class about to be defined so that it keeps its static state,
+     * and finds the static state of other classes, in the current robot's
+     * context.
+     *
+     * @param classBytes the instrumented class
+     * @return the class to define
+     */
+    byte[] transform(byte[] classBytes) {
+        final ClassReader reader = new ClassReader(classBytes);
+        final ClassInfo self = info(reader.getClassName());
+        final boolean redirected = self != null && isRedirected(self);
+        final boolean triggers = redirected && hasHolder(self)
+                && (self.hasClinit || holderAncestor(self) != null);
+
+        final ClassWriter writer = new ClassWriter(COMPUTE_MAXS);
+        reader.accept(new ClassVisitor(ASM5, writer) {
+            @Override
+            public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+                if (redirected && (access & ACC_STATIC) != 0) {
+                    return null;
+                }
+                return super.visitField(access, name, desc, signature, value);
+            }
+
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String desc, String signature,
+                                             String[] exceptions) {
+                final boolean clinit = name.equals("<clinit>");
+                if (clinit && redirected) {
+                    access = ACC_PUBLIC | ACC_STATIC | ACC_SYNTHETIC;
+                    name = CLINIT;
+                }
+                // Using a class the JVM would initialize initializes the
+                // robot's copy of its statics instead
+                final boolean initializes = triggers && !clinit
+                        && ((access & ACC_STATIC) != 0 || name.equals("<init>"));
+
+                final MethodVisitor mv = super.visitMethod(access, name, desc, signature, exceptions);
+                return mv == null ? null : new MethodVisitor(ASM5, mv) {
+                    @Override
+                    public void visitCode() {
+                        super.visitCode();
+                        if (initializes) {
+                            getHolder(mv, self.name);
+                            super.visitInsn(POP);
+                        }
+                    }
+
+                    @Override
+                    public void visitFieldInsn(int opcode, String owner, String name, String desc) {
+                        if (opcode == GETSTATIC || opcode == PUTSTATIC) {
+                            final ClassInfo declaring = resolve(owner, name, desc);
+                            if (declaring != null && isRedirected(declaring)) {
+                                final String holder = getHolder(mv, declaring.name);
+                                if (opcode == GETSTATIC) {
+                                    super.visitFieldInsn(GETFIELD, holder, name, desc);
+                                } else {
+                                    // Put the holder under the value
+                                    if (Type.getType(desc).getSize() == 2) {
+                                        super.visitInsn(DUP_X2);
+                                        super.visitInsn(POP);
+                                    } else {
+                                        super.visitInsn(SWAP);
+                                    }
+                                    super.visitFieldInsn(PUTFIELD, holder, name, desc);
+                                }
+                                return;
+                            }
+                        }
+                        super.visitFieldInsn(opcode, owner, name, desc);
+                    }
+                };
+            }
+        }, 0);
+        return writer.toByteArray();
+    }
+
+    /**
+     * Generates the holder of a class's static fields.
+     *
+     * Its instances have a field for each of the class's static fields, and
+     * its static get() method returns the current robot's instance, creating
+     * it and running the class's static initializer the first time.
+     *
+     * @param holderName the name of the holder, with .s
+     * @return the holder, or null if there's no such class to hold the
+     *         static fields of
+     */
+    byte[] generateHolder(String holderName) {
+        final String holder = holderName.replace('.', '/');
+        final ClassInfo owner = info(holder.substring(0, holder.length() - HOLDER_SUFFIX.length()));
+        if (owner == null || !isRedirected(owner) || !hasHolder(owner)) {
+            return null;
+        }
+        final int id = nextId++;
+        final String desc = "L" + holder + ";";
+
+        final ClassWriter cw = new ClassWriter(COMPUTE_MAXS | COMPUTE_FRAMES) {
+            @Override
+            protected String getCommonSuperClass(String type1, String type2) {
+                // Don't load anything; everything we merge is an Object
+                return "java/lang/Object";
+            }
+        };
+        cw.visit(V1_8, ACC_PUBLIC | ACC_FINAL | ACC_SUPER | ACC_SYNTHETIC, holder, null, "java/lang/Object", null);
+
+        for (StaticField field : owner.staticFields) {
+            cw.visitField(ACC_PUBLIC, field.name, field.desc, null, null).visitEnd();
+        }
+
+        // Constant fields don't get set by the static initializer
+        MethodVisitor mv = cw.visitMethod(ACC_PRIVATE, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        for (StaticField field : owner.staticFields) {
+            if (field.value != null) {
+                mv.visitVarInsn(ALOAD, 0);
+                mv.visitLdcInsn(field.value);
+                mv.visitFieldInsn(PUTFIELD, holder, field.name, field.desc);
+            }
+        }
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        mv = cw.visitMethod(ACC_PUBLIC | ACC_STATIC, "get", "()" + desc, null, null);
+        mv.visitCode();
+        mv.visitLdcInsn(id);
+        mv.visitMethodInsn(INVOKESTATIC, CONTEXT, "statics", "(I)[Ljava/lang/Object;", false);
+        mv.visitLdcInsn(id);
+        mv.visitInsn(AALOAD);
+        mv.visitInsn(DUP);
+        final Label uninitialized = new Label();
+        mv.visitJumpInsn(IFNULL, uninitialized);
+        mv.visitTypeInsn(CHECKCAST, holder);
+        mv.visitInsn(ARETURN);
+        mv.visitLabel(uninitialized);
+        mv.visitInsn(POP);
+        mv.visitMethodInsn(INVOKESTATIC, holder, "init", "()" + desc, false);
+        mv.visitInsn(ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        // Like the JVM, initialize the superclass first, and store the
+        // instance before running the initializer, so that the initializer
+        // and anything it calls can use it
+        mv = cw.visitMethod(ACC_PRIVATE | ACC_STATIC, "init", "()" + desc, null, null);
+        mv.visitCode();
+        final ClassInfo ancestor = holderAncestor(owner);
+        if (ancestor != null) {
+            getHolder(mv, ancestor.name);
+            mv.visitInsn(POP);
+        }
+        mv.visitTypeInsn(NEW, holder);
+        mv.visitInsn(DUP);
+        mv.visitMethodInsn(INVOKESPECIAL, holder, "<init>", "()V", false);
+        mv.visitVarInsn(ASTORE, 0);
+        mv.visitLdcInsn(id);
+        mv.visitMethodInsn(INVOKESTATIC, CONTEXT, "statics", "(I)[Ljava/lang/Object;", false);
+        mv.visitLdcInsn(id);
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitInsn(AASTORE);
+        if (owner.hasClinit) {
+            mv.visitMethodInsn(INVOKESTATIC, owner.name, CLINIT, "()V", owner.isInterface);
+        }
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitInsn(ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    /**
+     * Emits a call to the holder of a class's static fields.
+     *
+     * @return the name of the holder
+     */
+    private static String getHolder(MethodVisitor mv, String className) {
+        final String holder = className + HOLDER_SUFFIX;
+        mv.visitMethodInsn(INVOKESTATIC, holder, "get", "()L" + holder + ";", false);
+        return holder;
+    }
+
+    /**
+     * Finds the class that declares a static field, the way the JVM would:
+     * in the class, then its interfaces, then its superclass.
+     *
+     * @return the declaring class, or null if it isn't one the loader defines
+     */
+    private ClassInfo resolve(String owner, String name, String desc) {
+        final ClassInfo info = info(owner);
+        if (info == null) {
+            return null;
+        }
+        if (info.declares(name, desc)) {
+            return info;
+        }
+        for (String itf : info.interfaces) {
+            final ClassInfo declaring = resolve(itf, name, desc);
+            if (declaring != null) {
+                return declaring;
+            }
+        }
+        return info.superName == null ? null : resolve(info.superName, name, desc);
+    }
+
+    private static boolean isRedirected(ClassInfo info) {
+        return !info.isEnum;
+    }
+
+    private boolean hasHolder(ClassInfo info) {
+        return !info.staticFields.isEmpty() || info.hasClinit || holderAncestor(info) != null;
+    }
+
+    /**
+     * @return the nearest superclass of a class whose holder has to be
+     *         initialized before the class's, or null if there isn't one
+     */
+    private ClassInfo holderAncestor(ClassInfo info) {
+        if (!info.foundHolderAncestor) {
+            final ClassInfo parent = info.superName == null ? null : info(info.superName);
+            if (parent != null && isRedirected(parent)) {
+                info.holderAncestor = hasHolder(parent) ? parent : holderAncestor(parent);
+            }
+            info.foundHolderAncestor = true;
+        }
+        return info.holderAncestor;
+    }
+
+    /**
+     * @param className the instrumented name of a class, with /s
+     * @return what we need to know about the class, or null if it isn't one
+     *         the loader defines
+     */
+    private ClassInfo info(String className) {
+        if (!classes.containsKey(className)) {
+            classes.put(className, readInfo(className));
+        }
+        return classes.get(className);
+    }
+
+    private ClassInfo readInfo(String className) {
+        // Find the class the way the loader does
+        final boolean instrumented;
+        final ClassReader reader;
+        try {
+            if (TeamClassLoaderFactory.alwaysRedefine.contains(className.replace('/', '.'))) {
+                instrumented = false;
+                reader = TeamClassLoaderFactory.normalReader(className);
+            } else if (factory.hasTeamClass(className)) {
+                instrumented = true;
+                reader = factory.teamReader(className);
+            } else if (className.startsWith("instrumented/")) {
+                instrumented = true;
+                reader = TeamClassLoaderFactory.normalReader(className);
+            } else {
+                return null;
+            }
+        } catch (InstrumentationException e) {
+            return null;
+        }
+
+        final ClassInfo info = new ClassInfo();
+        reader.accept(new ClassVisitor(ASM5) {
+            @Override
+            public void visit(int version, int access, String name, String signature, String superName,
+                              String[] interfaces) {
+                info.name = className;
+                info.isInterface = (access & ACC_INTERFACE) != 0;
+                info.isEnum = (access & ACC_ENUM) != 0;
+                info.superName = instrumented ? refUtil.classReference(superName, false) : superName;
+                info.interfaces = new String[interfaces.length];
+                for (int i = 0; i < interfaces.length; i++) {
+                    info.interfaces[i] = instrumented ? refUtil.classReference(interfaces[i], false) : interfaces[i];
+                }
+            }
+
+            @Override
+            public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+                if ((access & ACC_STATIC) != 0) {
+                    info.staticFields.add(new StaticField(name,
+                            instrumented ? refUtil.classDescReference(desc, false) : desc,
+                            value));
+                }
+                return null;
+            }
+
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String desc, String signature,
+                                             String[] exceptions) {
+                if (name.equals("<clinit>")) {
+                    info.hasClinit = true;
+                }
+                return null;
+            }
+        }, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        return info;
+    }
+
+    /**
+     * Looks for an enum in a team that robots couldn't share: one with a field
+     * that isn't final, or could refer to something mutable, or whose
+     * initializers use the static fields of the team's other classes.
+     *
+     * The JDK's enums are trusted.
+     *
+     * @param container the team's jar or directory
+     * @return why the team's classes can't be shared, or null if they can
+     * @throws IOException if the team's classes can't be read
+     */
+    static String findUnshareableEnum(Path container) throws IOException {
+        final SortedMap<String, ClassReader> teamClasses = new TreeMap<>();
+        for (byte[] classBytes : readClasses(container)) {
+            final ClassReader reader = new ClassReader(classBytes);
+            teamClasses.put(reader.getClassName(), reader);
+        }
+        final Set<String> enums = new HashSet<>();
+        for (ClassReader reader : teamClasses.values()) {
+            if ((reader.getAccess() & ACC_ENUM) != 0) {
+                enums.add(reader.getClassName());
+            }
+        }
+
+        final List<String> problems = new ArrayList<>();
+        for (ClassReader reader : teamClasses.values()) {
+            if (!enums.contains(reader.getClassName())) {
+                continue;
+            }
+            final String enumName = reader.getClassName().replace('/', '.');
+            reader.accept(new ClassVisitor(ASM5) {
+                @Override
+                public FieldVisitor visitField(int access, String name, String desc, String signature,
+                                               Object value) {
+                    if ((access & ACC_FINAL) == 0) {
+                        problems.add("enum " + enumName + " has a field that isn't final, " + name);
+                    } else if (!isImmutable(desc, enums)
+                            && !((access & ACC_SYNTHETIC) != 0 && desc.startsWith("[") && isImmutable(desc.substring(1), enums))) {
+                        problems.add("enum " + enumName + " has a field that may be mutable, " + name);
+                    }
+                    return null;
+                }
+
+                @Override
+                public MethodVisitor visitMethod(int access, String name, String desc, String signature,
+                                                 String[] exceptions) {
+                    if (!name.equals("<clinit>") && !name.equals("<init>")) {
+                        return null;
+                    }
+                    return new MethodVisitor(ASM5) {
+                        @Override
+                        public void visitFieldInsn(int opcode, String owner, String name, String desc) {
+                            if ((opcode == GETSTATIC || opcode == PUTSTATIC)
+                                    && teamClasses.containsKey(owner) && !enums.contains(owner)) {
+                                problems.add("enum " + enumName + " is initialized with the static fields of "
+                                        + owner.replace('/', '.'));
+                            }
+                        }
+                    };
+                }
+            }, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+            if (!problems.isEmpty()) {
+                return problems.get(0);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return whether the values of a field type can't be changed
+     */
+    private static boolean isImmutable(String desc, Set<String> teamEnums) {
+        if (desc.length() == 1 || desc.equals("Ljava/lang/String;")) {
+            return true;
+        }
+        if (!desc.startsWith("L")) {
+            return false;
+        }
+        final String className = desc.substring(1, desc.length() - 1);
+        if (teamEnums.contains(className)) {
+            return true;
+        }
+        if (className.startsWith("battlecode/common/")) {
+            try {
+                return Class.forName(className.replace('/', '.'), false,
+                        SharedStatics.class.getClassLoader()).isEnum();
+            } catch (ClassNotFoundException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the bytes of every class file in a team's jar or directory
+     */
+    static List<byte[]> readClasses(Path container) throws IOException {
+        final List<byte[]> classes = new ArrayList<>();
+        if (Files.isDirectory(container)) {
+            try (Stream<Path> walk = Files.walk(container)) {
+                for (Path file : (Iterable<Path>) walk.filter(Files::isRegularFile)::iterator) {
+                    if (file.getFileName().toString().endsWith(".class")) {
+                        classes.add(Files.readAllBytes(file));
+                    }
+                }
+            }
+        } else {
+            try (ZipFile zip = new ZipFile(container.toFile())) {
+                for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements(); ) {
+                    final ZipEntry entry = e.nextElement();
+                    if (!entry.isDirectory() && entry.getName().endsWith(".class")) {
+                        try (InputStream in = zip.getInputStream(entry)) {
+                            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                            final byte[] buffer = new byte[8192];
+                            for (int n; (n = in.read(buffer)) > 0; ) {
+                                bytes.write(buffer, 0, n);
+                            }
+                            classes.add(bytes.toByteArray());
+                        }
+                    }
+                }
+            }
+        }
+        return classes;
+    }
+}
@@ -2,20 +2,32 @@ package battlecode.instrumenter;
 
 import battlecode.instrumenter.bytecode.ClassReferenceUtil;
 import battlecode.instrumenter.bytecode.InstrumentingClassVisitor;
+import battlecode.instrumenter.inject.RobotContext;
+import battlecode.instrumenter.profiler.Profiler;
+import battlecode.instrumenter.profiler.ProfilerFrames;
+import battlecode.instrumenter.stream.SilencedPrintStream;
 import battlecode.server.Config;
+import battlecode.server.Server;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
 import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static battlecode.instrumenter.InstrumentationException.Type.ILLEGAL;
 import static battlecode.instrumenter.InstrumentationException.Type.MISSING;
@@ -30,6 +42,15 @@ import static org.objectweb.asm.ClassWriter.COMPUTE_MAXS;
  * This is a bit of a god object. A demigod object, anyway.
  *
  * We all know what happens to demigods.
+ *
+ * Games running at the same time may each take a factory from forGame(),
+ * so that a team's classes are instrumented once for a whole tournament;
+ * the caches they share are safe to use from several threads, while each
+ * keeps track of its own game's errors and shared loaders.
+ *
+ * With bc.engine.shared-player-classes set, all the robots of a team share
+ * one Loader instead, and are isolated from each other by giving each its
+ * own copy of every static field; see SharedStatics.
  */
 public final class TeamClassLoaderFactory {
 
@@ -38,7 +59,7 @@ public final class TeamClassLoaderFactory {
      *
      * Class name should be in binary form, i.e. with .s and not /s
      */
-    private static void assertAllowedPackage(String packageName) throws InstrumentationException {
+    static void assertAllowedPackage(String packageName) throws InstrumentationException {
         if (packageName.startsWith("battlecode.")) {
             throw new InstrumentationException(
                     ILLEGAL,
@@ -77,13 +98,15 @@ public final class TeamClassLoaderFactory {
 
     /**
      * Classes that don't need to be instrumented but do need to be reloaded
-     * for every individual player.
+     * for every individual player (or, if players share classes, to have
+     * their static fields moved into each player's context).
      */
     protected final static Set<String> alwaysRedefine = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
             "battlecode.instrumenter.inject.ObjectMethods",
             "battlecode.instrumenter.inject.InstrumentableFunctions",
             "battlecode.instrumenter.inject.System",
             "battlecode.instrumenter.inject.RobotMonitor",
+            "battlecode.instrumenter.inject.RobotMonitor$Bridge",
             "battlecode.common.Clock"
     )));
 
@@ -105,14 +128,95 @@ public final class TeamClassLoaderFactory {
 
     /**
      * If this team has an error, don't bother trying to cache again.
+     * Kept for this game alone, if the factory came from forGame().
      */
-    private boolean hasError;
+    private volatile boolean hasError;
+
+    /**
+     * The factory whose caches this one uses: itself, unless it came from
+     * forGame().
+     */
+    private final TeamClassLoaderFactory shared;
 
     /**
      * The ClassReferenceUtil used by this cache.
      */
     private final ClassReferenceUtil refUtil;
 
+    /**
+     * The on-disk cache of instrumented classes, or null if there is none.
+     */
+    private final InstrumentedClassCache diskCache;
+
+    /**
+     * The team's jar or directory.
+     */
+    private final Path container;
+
+    /**
+     * The classes the team's jar has already instrumented, or null if they
+     * can't be checked; see InstrumentedTeam.
+     */
+    private final InstrumentedTeam instrumentedTeam;
+
+    /**
+     * Hashes of the team's classes, which the instrumentation of its own
+     * classes and of system classes depend on; for keys into the disk cache.
+     * Computed the first time they're needed, and null if they can't be.
+     */
+    private byte[] teamClassesHash, shadowedClassesHash;
+    private boolean hashedClasses;
+
+    /**
+     * The bundle of system classes instrumented when the engine was built,
+     * or null if it can't be used for this team; looked up the first time
+     * it's needed.
+     */
+    private InstrumentedJdkBundle jdkBundle;
+    private boolean checkedJdkBundle;
+
+    /**
+     * The packages of system classes which, if a team has classes in them,
+     * change how the system classes are instrumented for the team.
+     */
+    private static final String[] SYSTEM_PACKAGES = {
+            "java/", "javax/", "jdk/", "sun/", "com/sun/", "kotlin/", "battlecode/"
+    };
+
+    /**
+     * The tag of a class in the constant pool.
+     */
+    private static final int CONSTANT_CLASS = 7;
+
+    /**
+     * Whether the team's robots share their classes; decided the first time
+     * a loader is created.
+     */
+    private Boolean sharesClasses;
+
+    /**
+     * The loaders shared by the team's robots, without and with the
+     * profiler, if they share classes.
+     */
+    private final Loader[] sharedLoaders = new Loader[2];
+
+    /**
+     * Whether the team's classes have been instrumented ahead of time,
+     * without and with the profiler.
+     */
+    private final boolean[] preinstrumented;
+
+    /**
+     * The frame ids of the team's methods, for the profiler; assigned the
+     * first time they're needed.
+     */
+    private ProfilerFrames profilerFrames;
+
+    /**
+     * Which classes the team has, as far as we've looked.
+     */
+    private final Map<String, Boolean> teamClasses;
+
     /**
      * Create a cache for classes loaded from a URL (or local file).
      * The URL can point to a jar file or a directory containing class
@@ -123,6 +227,10 @@ public final class TeamClassLoaderFactory {
      * @param classURL the URL to load clases from
      */
     public TeamClassLoaderFactory(final String classURL) {
+        this.shared = this;
+        this.preinstrumented = new boolean[2];
+        this.teamClasses = new ConcurrentHashMap<>();
+
         URL url;
         try {
             url = getFilesystemURL(classURL);
@@ -131,9 +239,21 @@ public final class TeamClassLoaderFactory {
             this.hasError = true;
             this.instrumentedClasses = null;
             this.refUtil = null;
+            this.diskCache = null;
+            this.container = null;
+            this.instrumentedTeam = null;
             return;
         }
 
+        Path container;
+        try {
+            container = Paths.get(url.toURI());
+        } catch (URISyntaxException e) {
+            container = null;
+        }
+        this.container = container;
+        this.diskCache = container != null ? InstrumentedClassCache.fromConfig() : null;
+
         this.teamResourceLookup = new URLClassLoader(
                 new URL[] { url }
         ) {
@@ -147,17 +267,191 @@ public final class TeamClassLoaderFactory {
                 return findResource(name);
             }
         };
-        this.instrumentedClasses = new HashMap<>();
+        this.instrumentedTeam = container != null
+                ? InstrumentedTeam.fromConfig(teamResourceLookup, container)
+                : null;
+        this.instrumentedClasses = new ConcurrentHashMap<>();
         this.hasError = false;
         this.refUtil = new ClassReferenceUtil(this);
     }
 
+    private TeamClassLoaderFactory(TeamClassLoaderFactory shared) {
+        this.shared = shared;
+        this.preinstrumented = shared.preinstrumented;
+        this.teamClasses = shared.teamClasses;
+        this.teamResourceLookup = shared.teamResourceLookup;
+        this.hasError = shared.hasError;
+        this.instrumentedClasses = shared.instrumentedClasses;
+        this.refUtil = shared.refUtil;
+        this.diskCache = shared.diskCache;
+        this.container = shared.container;
+        this.instrumentedTeam = shared.instrumentedTeam;
+    }
+
+    /**
+     * Create a factory for one game, which shares this factory's caches of
+     * instrumented classes, but not its errors: a team that fails to load
+     * in one game is still loaded afresh in the others.
+     *
+     * @return the factory for the game
+     */
+    public TeamClassLoaderFactory forGame() {
+        return new TeamClassLoaderFactory(shared);
+    }
+
     /**
      * Create a loader for a new robot.
+     * If the team's robots share classes, this is the loader they all share.
      * @return
      */
     public Loader createLoader(boolean profilerEnabled) {
-        return new Loader(profilerEnabled);
+        if (sharesClasses()) {
+            synchronized (sharedLoaders) {
+                final int index = profilerEnabled ? 1 : 0;
+                if (sharedLoaders[index] == null) {
+                    sharedLoaders[index] = new Loader(profilerEnabled, true);
+                }
+                return sharedLoaders[index];
+            }
+        }
+        return new Loader(profilerEnabled, false);
+    }
+
+    /**
+     * Instruments the team's classes, and the system classes they refer to,
+     * ahead of time and in parallel, so that loaders find them already
+     * instrumented. Does nothing if bc.engine.eager-instrumentation isn't
+     * set, or after the first time.
+     *
+     * Classes that can't be instrumented are skipped here, and fail when
+     * they're loaded, as they would have anyway.
+     *
+     * @param profilerEnabled whether the classes should call the profiler
+     */
+    public void preinstrument(boolean profilerEnabled) {
+        if (container == null || hasError || !Config.getGlobalConfig().getBoolean("bc.engine.eager-instrumentation")) {
+            return;
+        }
+        synchronized (preinstrumented) {
+            final int index = profilerEnabled ? 1 : 0;
+            if (preinstrumented[index]) {
+                return;
+            }
+            preinstrumented[index] = true;
+        }
+
+        final Loader loader = new Loader(profilerEnabled, false);
+        final boolean debugMethodsEnabled = Config.getGlobalConfig().getBoolean("bc.engine.debug-methods");
+        final Set<String> seen = ConcurrentHashMap.newKeySet();
+        Collection<String> wave = new ArrayList<>();
+        try {
+            for (byte[] classBytes : SharedStatics.readClasses(container)) {
+                wave.add(new ClassReader(classBytes).getClassName().replace('/', '.'));
+            }
+        } catch (IOException e) {
+            // They'll be instrumented as they're loaded
+            return;
+        }
+        seen.addAll(wave);
+
+        // Each wave instruments the classes the last one referred to
+        while (!wave.isEmpty()) {
+            final Set<String> next = ConcurrentHashMap.newKeySet();
+            wave.parallelStream().forEach(name -> {
+                final byte[] classBytes = preinstrument(loader, name, debugMethodsEnabled);
+                if (classBytes != null) {
+                    for (String reference : instrumentedReferences(classBytes)) {
+                        if (seen.add(reference)) {
+                            next.add(reference);
+                        }
+                    }
+                }
+            });
+            wave = next;
+        }
+    }
+
+    /**
+     * Instruments a class the way a loader would, and caches it.
+     *
+     * @return the instrumented bytes of the class, or null if it can't be
+     *         instrumented
+     */
+    private byte[] preinstrument(Loader loader, String name, boolean debugMethodsEnabled) {
+        final byte[] cached = getCached(name);
+        if (cached != null) {
+            return cached;
+        }
+        final byte[] classBytes;
+        try {
+            if (hasTeamClass(name)) {
+                assertAllowedPackage(name);
+                classBytes = loader.instrumentCached(name, teamBytes(name), true, true, debugMethodsEnabled);
+            } else {
+                classBytes = loader.instrumentSystemClass(name);
+            }
+        } catch (RuntimeException e) {
+            // Including whatever ASM throws for classes it can't read; if
+            // the class is ever loaded, it fails then
+            return null;
+        }
+        setCached(name, classBytes);
+        return classBytes;
+    }
+
+    /**
+     * @param classBytes an instrumented class
+     * @return the instrumented system classes it refers to
+     */
+    private static List<String> instrumentedReferences(byte[] classBytes) {
+        final ClassReader reader = new ClassReader(classBytes);
+        final char[] buffer = new char[reader.getMaxStringLength()];
+        final List<String> references = new ArrayList<>();
+        for (int i = 1; i < reader.getItemCount(); i++) {
+            final int offset = reader.getItem(i);
+            // The second slots of longs and doubles have no offset
+            if (offset == 0 || reader.readByte(offset - 1) != CONSTANT_CLASS) {
+                continue;
+            }
+            String name = reader.readUTF8(offset, buffer);
+            if (name.startsWith("[")) {
+                final int element = name.lastIndexOf('[') + 1;
+                if (name.charAt(element) != 'L') {
+                    continue;
+                }
+                name = name.substring(element + 1, name.length() - 1);
+            }
+            if (name.startsWith("instrumented/")) {
+                references.add(name.replace('/', '.'));
+            }
+        }
+        return references;
+    }
+
+    /**
+     * @return whether the team's robots share classes: whether
+     *         bc.engine.shared-player-classes is set, and the team's enums
+     *         allow it
+     */
+    private synchronized boolean sharesClasses() {
+        if (sharesClasses == null) {
+            sharesClasses = false;
+            if (container != null && Config.getGlobalConfig().getBoolean("bc.engine.shared-player-classes")) {
+                try {
+                    final String problem = SharedStatics.findUnshareableEnum(container);
+                    if (problem == null) {
+                        sharesClasses = true;
+                    } else {
+                        Server.warn("Loading classes separately for each robot of " + container
+                                + ", because " + problem);
+                    }
+                } catch (IOException e) {
+                    Server.warn("Loading classes separately for each robot of " + container
+                            + ", because they can't be read: " + e);
+                }
+            }
+        }
+        return sharesClasses;
     }
 
     /**
@@ -185,6 +479,87 @@ public final class TeamClassLoaderFactory {
         this.instrumentedClasses.put(className, classBytes);
     }
 
+    /**
+     * @param teamClass whether the class is one of the team's, rather than
+     *                  a system class
+     * @return what the class's instrumentation for this team depends on
+     *         outside the class, or null if the disk cache can't be used
+     */
+    private synchronized byte[] getCacheContext(boolean teamClass) {
+        if (shared != this) {
+            return shared.getCacheContext(teamClass);
+        }
+        if (!hashedClasses) {
+            hashedClasses = true;
+            try {
+                teamClassesHash = InstrumentedClassCache.hashContainer(container);
+                shadowedClassesHash = InstrumentedClassCache.hashContainer(container, SYSTEM_PACKAGES);
+            } catch (IOException e) {
+                // Instrument the team's classes without the disk cache
+            }
+        }
+        return teamClass ? teamClassesHash : shadowedClassesHash;
+    }
+
+    /**
+     * @return the engine's bundle of instrumented system classes, or null if
+     *         there isn't one, or the team has classes in system packages
+     *         that would change how they're instrumented
+     */
+    private synchronized InstrumentedJdkBundle getJdkBundle() {
+        if (shared != this) {
+            return shared.getJdkBundle();
+        }
+        if (!checkedJdkBundle) {
+            checkedJdkBundle = true;
+            final InstrumentedJdkBundle bundle = InstrumentedJdkBundle.fromEngine();
+            if (bundle != null && container != null
+                    && Arrays.equals(getCacheContext(false), InstrumentedClassCache.EMPTY_HASH)) {
+                jdkBundle = bundle;
+            }
+        }
+        return jdkBundle;
+    }
+
+    /**
+     * @return the frame ids of the team's methods, which are assigned to the
+     *         methods of its classes in order of their names, so that they
+     *         match those of any classes instrumented for the team before
+     */
+    public synchronized ProfilerFrames getProfilerFrames() {
+        if (shared != this) {
+            return shared.getProfilerFrames();
+        }
+        if (profilerFrames == null) {
+            profilerFrames = new ProfilerFrames();
+            if (container != null) {
+                try {
+                    final List<ClassReader> readers = new ArrayList<>();
+                    for (byte[] classBytes : SharedStatics.readClasses(container)) {
+                        readers.add(new ClassReader(classBytes));
+                    }
+                    readers.sort(Comparator.comparing(ClassReader::getClassName));
+                    for (ClassReader reader : readers) {
+                        final String className = reader.getClassName().replace('/', '.');
+                        reader.accept(new ClassVisitor(Opcodes.ASM5) {
+                            @Override
+                            public MethodVisitor visitMethod(int access, String name, String desc,
+                                                             String signature, String[] exceptions) {
+                                profilerFrames.getFrameId(className + "." + name);
+                                return null;
+                            }
+                        }, ClassReader.SKIP_CODE);
+                    }
+                } catch (IOException e) {
+                    // Methods are given ids as they're instrumented; classes
+                    // can't be read from the disk cache without their hashes
+                    // anyway
+                }
+            }
+        }
+        return profilerFrames;
+    }
+
     /**
      * @return whether the team is known to have errors
      */
@@ -197,7 +572,12 @@ public final class TeamClassLoaderFactory {
      * @return whether or not the team has the class
      */
     public boolean hasTeamClass(String className) {
-        return getTeamURL(toResourceName(className)) != null;
+        Boolean has = teamClasses.get(className);
+        if (has == null) {
+            has = getTeamURL(toResourceName(className)) != null;
+            teamClasses.put(className, has);
+        }
+        return has;
     }
 
     /**
@@ -227,10 +607,21 @@ public final class TeamClassLoaderFactory {
      * @return a Reader for the class
      */
     public static ClassReader normalReader(String className) throws InstrumentationException {
+        return new ClassReader(normalBytes(className));
+    }
+
+    /**
+     * Attempt to read the bytes of a class from the system classloader
+     *
+     * @param className the name of the class
+     * @return the bytes of the class file
+     * @throws InstrumentationException if the class cannot be read
+     */
+    public static byte[] normalBytes(String className) throws InstrumentationException {
         URL resURL = getNormalURL(toResourceName(className));
         if (resURL != null) {
             try {
-                return new ClassReader(resURL.openStream());
+                return readBytes(resURL);
             } catch (IOException e) {
                 throw new InstrumentationException(MISSING, "Can't load class "+className+" on the system classpath", e);
             }
@@ -246,10 +637,21 @@ public final class TeamClassLoaderFactory {
      * @throws InstrumentationException if the class cannot be read
      */
     public ClassReader teamReader(String className) throws InstrumentationException {
+        return new ClassReader(teamBytes(className));
+    }
+
+    /**
+     * Attempt to read the bytes of a class from the team classloader
+     *
+     * @param className the name of the class
+     * @return the bytes of the class file
+     * @throws InstrumentationException if the class cannot be read
+     */
+    public byte[] teamBytes(String className) throws InstrumentationException {
         URL resURL = getTeamURL(toResourceName(className));
         if (resURL != null) {
             try {
-                return new ClassReader(resURL.openStream());
+                return readBytes(resURL);
             } catch (IOException e) {
                 throw new InstrumentationException(MISSING, "Can't load class "+className+" from player classpath", e);
             }
@@ -257,6 +659,17 @@ public final class TeamClassLoaderFactory {
         throw new InstrumentationException(MISSING, "Can't load class "+className+" from player classpath");
     }
 
+    static byte[] readBytes(URL url) throws IOException {
+        try (InputStream in = url.openStream()) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            for (int n; (n = in.read(buffer)) > 0; ) {
+                bytes.write(buffer, 0, n);
+            }
+            return bytes.toByteArray();
+        }
+    }
+
     /**
      * @param maybeFactory a factory to look in, or null to only look at the system.
      * @param className the class to read.
@@ -356,9 +769,18 @@ public final class TeamClassLoaderFactory {
      *
      * This algorithm is performed lazily and recursively as the player runs.
      * When this Loader is GC'd, it's defined classes will also be GC'd.
+     *
+     * A Loader shared by several robots also rewrites every class it defines
+     * to keep static fields in the current robot's context, generates the
+     * classes that hold them, and initializes enums once, by itself.
      */
     public class Loader extends ClassLoader {
 
+        /**
+         * How many bytecodes a shared enum's initializer may use.
+         */
+        private static final int ENUM_BYTECODE_LIMIT = 1000000;
+
         /**
          * Classes this particular Loader has already loaded.
          */
@@ -369,12 +791,33 @@ public final class TeamClassLoaderFactory {
          */
         private final boolean profilerEnabled;
 
+        /**
+         * Rewrites classes to keep their static fields per robot, if this
+         * Loader is shared; otherwise null.
+         */
+        private final SharedStatics sharedStatics;
+
+        /**
+         * Enums that have been defined but not yet initialized, and how many
+         * calls to loadClass are in progress; enums are initialized once
+         * the outermost one is done, so that their initializers don't load
+         * classes that are being defined.
+         */
+        private final List<Class<?>> uninitializedEnums;
+        private int loadDepth;
+
+        /**
+         * The context shared enums are initialized in, which stands for a
+         * robot that has just been created.
+         */
+        private RobotContext enumContext;
+
         /**
          * Create a loader.
          *
          * @throws InstrumentationException if we fail to create a loader for some reason.
          */
-        private Loader(boolean profilerEnabled) throws InstrumentationException {
+        private Loader(boolean profilerEnabled, boolean shared) throws InstrumentationException {
 
             // use our classloader as a parent, rather than the default
             // system classloader
@@ -397,6 +840,16 @@ public final class TeamClassLoaderFactory {
 
             this.loadedCache = new HashMap<>();
             this.profilerEnabled = profilerEnabled;
+            this.sharedStatics = shared ? new SharedStatics(TeamClassLoaderFactory.this, refUtil) : null;
+            this.uninitializedEnums = new ArrayList<>();
+        }
+
+        /**
+         * @return whether this Loader is shared by several robots, which
+         *         have to act in their own RobotContexts
+         */
+        public boolean isShared() {
+            return sharedStatics != null;
         }
 
         public TeamClassLoaderFactory getFactory() {
@@ -408,7 +861,18 @@ public final class TeamClassLoaderFactory {
         }
 
         @Override
-        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            loadDepth++;
+            try {
+                return loadClassOnce(name, resolve);
+            } finally {
+                if (--loadDepth == 0 && !uninitializedEnums.isEmpty()) {
+                    initializeEnums();
+                }
+            }
+        }
+
+        private Class<?> loadClassOnce(String name, boolean resolve) throws ClassNotFoundException {
             if (TeamClassLoaderFactory.this.getError()) {
                 throw new InstrumentationException(ILLEGAL, "Team is known to have errors");
             }
@@ -422,9 +886,15 @@ public final class TeamClassLoaderFactory {
             // this is the class we'll return
             Class finishedClass;
 
-            if (TeamClassLoaderFactory.this.hasCached(name)) {
+            final byte[] holderBytes = sharedStatics != null && SharedStatics.isHolder(name)
+                    ? sharedStatics.generateHolder(name)
+                    : null;
+
+            if (holderBytes != null) {
+                finishedClass = defineClass(null, holderBytes, 0, holderBytes.length);
+            } else if (TeamClassLoaderFactory.this.hasCached(name)) {
                 byte[] classBytes = TeamClassLoaderFactory.this.getCached(name);
-                finishedClass = defineClass(null, classBytes, 0, classBytes.length);
+                finishedClass = define(name, classBytes);
             } else if (alwaysRedefine.contains(name)) {
                 // We want each robot to have its own copy of this class
                 // so that it isn't possible to send messages by calling
@@ -451,8 +921,10 @@ public final class TeamClassLoaderFactory {
 
                 final byte[] classBytes;
                 try {
-                    classBytes = instrument(
-                            TeamClassLoaderFactory.this.teamReader(name),
+                    classBytes = instrumentCached(
+                            name,
+                            TeamClassLoaderFactory.this.teamBytes(name),
+                            true,
                             true,
                             Config.getGlobalConfig().getBoolean("bc.engine.debug-methods")
                     );
@@ -470,9 +942,7 @@ public final class TeamClassLoaderFactory {
                 // we would need to modify ObjectHashCode.
                 byte[] classBytes;
                 try {
-                    classBytes = instrument(
-                            TeamClassLoaderFactory.normalReader(name),
-                            false, false);
+                    classBytes = instrumentSystemClass(name);
                 } catch (InstrumentationException ie) {
                     TeamClassLoaderFactory.this.hasError = true;
                     throw ie;
@@ -511,13 +981,134 @@ public final class TeamClassLoaderFactory {
                 throw new InstrumentationException(ILLEGAL, "Can't save class with null bytes: " + name);
             }
 
-            Class<?> theClass = defineClass(null, classBytes, 0, classBytes.length);
+            Class<?> theClass = define(name, classBytes);
             TeamClassLoaderFactory.this.setCached(name, classBytes);
 
             return theClass;
 
         }
 
+        private Class<?> define(String name, byte[] classBytes) {
+            if (sharedStatics == null) {
+                return defineClass(null, classBytes, 0, classBytes.length);
+            }
+            final byte[] sharedBytes = sharedStatics.transform(classBytes);
+            final Class<?> theClass = defineClass(null, sharedBytes, 0, sharedBytes.length);
+            if (sharedStatics.isEnum(name)) {
+                uninitializedEnums.add(theClass);
+            }
+            return theClass;
+        }
+
+        /**
+         * Initializes the enums this Loader has defined, in a context of
+         * their own, so that their constants are the same for every robot,
+         * and no robot is charged for them.
+         */
+        private void initializeEnums() {
+            // Classes the initializers load are initialized by this loop
+            loadDepth++;
+            try {
+                while (!uninitializedEnums.isEmpty()) {
+                    final Class<?> theEnum = uninitializedEnums.remove(0);
+                    final RobotContext previous = RobotContext.enter(getEnumContext());
+                    try {
+                        Class.forName(theEnum.getName(), true, this);
+                    } catch (ClassNotFoundException | LinkageError | RobotDeathException e) {
+                        // Like any class whose initializer fails, the enum
+                        // can't be used; robots find out when they try
+                    } finally {
+                        RobotContext.exit(previous);
+                    }
+                }
+            } finally {
+                loadDepth--;
+            }
+        }
+
+        private RobotContext getEnumContext() {
+            if (enumContext == null) {
+                final RobotContext context = new RobotContext();
+                final RobotContext previous = RobotContext.enter(context);
+                try {
+                    // Instead of pausing, fail if out of bytecodes
+                    final SandboxedRobotPlayer.Killer killer = () -> {
+                        throw new RobotDeathException();
+                    };
+                    final Class<?> monitor = loadClass("battlecode.instrumenter.inject.RobotMonitor");
+                    monitor.getMethod("init",
+                            SandboxedRobotPlayer.Pauser.class,
+                            SandboxedRobotPlayer.Killer.class,
+                            int.class,
+                            Profiler.class)
+                            .invoke(null, (SandboxedRobotPlayer.Pauser) killer::kill, killer, 0, null);
+                    monitor.getMethod("setBytecodeLimit", int.class).invoke(null, ENUM_BYTECODE_LIMIT);
+                    monitor.getMethod("reactivate").invoke(null);
+                    loadClass("battlecode.instrumenter.inject.System")
+                            .getMethod("setSystemOut", PrintStream.class)
+                            .invoke(null, SilencedPrintStream.theInstance());
+                } catch (ReflectiveOperationException e) {
+                    throw new RuntimeException("Couldn't set up the context to initialize enums in", e);
+                } finally {
+                    RobotContext.exit(previous);
+                }
+                enumContext = context;
+            }
+            return enumContext;
+        }
+
+        /**
+         * Instruments a class, or takes it from the team's jar or the disk
+         * cache if it has been instrumented the same way before.
+         *
+         * @param name the name of the class
+         * @param original the bytes of the class before instrumentation
+         * @param teamClass whether the class is one of the team's
+         */
+        private byte[] instrumentCached(String name,
+                                        byte[] original,
+                                        boolean teamClass,
+                                        boolean checkDisallowed,
+                                        boolean debugMethodsEnabled) throws InstrumentationException {
+            final InstrumentedClassCache diskCache = TeamClassLoaderFactory.this.diskCache;
+            final InstrumentedTeam instrumentedTeam = teamClass ? TeamClassLoaderFactory.this.instrumentedTeam : null;
+            final byte[] context = diskCache != null || instrumentedTeam != null ? getCacheContext(teamClass) : null;
+            if (context == null) {
+                return instrument(new ClassReader(original), checkDisallowed, debugMethodsEnabled);
+            }
+
+            final String key = InstrumentedClassCache.key(name, original, context,
+                    checkDisallowed, debugMethodsEnabled, profilerEnabled);
+            byte[] classBytes = instrumentedTeam != null ? instrumentedTeam.get(key) : null;
+            if (classBytes == null && diskCache != null) {
+                classBytes = diskCache.get(key);
+            }
+            if (classBytes == null) {
+                classBytes = instrument(new ClassReader(original), checkDisallowed, debugMethodsEnabled);
+                if (diskCache != null) {
+                    diskCache.put(key, classBytes);
+                }
+            }
+            return classBytes;
+        }
+
+        /**
+         * Instruments a system class, or takes it from the engine's bundle
+         * or the disk cache if it has been instrumented the same way before.
+         *
+         * @param name the instrumented name of the class
+         */
+        private byte[] instrumentSystemClass(String name) throws InstrumentationException {
+            final InstrumentedJdkBundle bundle = getJdkBundle();
+            if (bundle != null) {
+                final byte[] classBytes = bundle.get(name, profilerEnabled);
+                if (classBytes != null) {
+                    return classBytes;
+                }
+            }
+            return instrumentCached(name, TeamClassLoaderFactory.normalBytes(name), false, false, false);
+        }
+
         public byte[] instrument(ClassReader reader,
                                  boolean checkDisallowed,
                                  boolean debugMethodsEnabled) throws InstrumentationException {
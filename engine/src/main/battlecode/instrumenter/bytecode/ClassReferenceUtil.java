@@ -10,7 +10,9 @@ import org.objectweb.asm.signature.SignatureWriter;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static battlecode.instrumenter.InstrumentationException.Type.ILLEGAL;
 import static battlecode.instrumenter.InstrumentationException.Type.MISSING;
@@ -52,6 +54,14 @@ public class ClassReferenceUtil {
 
     private final TeamClassLoaderFactory factory;
 
+    /**
+     * What classReference has returned for classes that aren't arrays, when
+     * not checking for and when checking for disallowed classes. Filled in by
+     * however many threads are instrumenting the team's classes.
+     */
+    private final Map<String, String> references = new ConcurrentHashMap<>();
+    private final Map<String, String> checkedReferences = new ConcurrentHashMap<>();
+
     public ClassReferenceUtil(TeamClassLoaderFactory factory) {
         this.factory = factory;
     }
@@ -156,7 +166,20 @@ public class ClassReferenceUtil {
             } else {
                 return className;
             }
-        } else if (factory.hasTeamClass(className))
+        }
+
+        // Disallowed classes aren't cached, so they throw every time
+        final Map<String, String> cache = checkDisallowed ? checkedReferences : references;
+        String reference = cache.get(className);
+        if (reference == null) {
+            reference = resolveReference(className, checkDisallowed);
+            cache.put(className, reference);
+        }
+        return reference;
+    }
+
+    private String resolveReference(String className, boolean checkDisallowed) {
+        if (factory.hasTeamClass(className))
             return className;
         else if (className.equals("java/lang/System"))
             return "battlecode/instrumenter/inject/System";
@@ -53,6 +53,9 @@ public class InstrumentingMethodVisitor extends MethodNode implements Opcodes {
 
     private int bytecodeCtr = 0;
 
+    // the frame id of this method for the profiler, once it's been looked up
+    private int frameId = -1;
+
     private MethodVisitor methodWriter;
 
     public InstrumentingMethodVisitor(final MethodVisitor mv,
@@ -193,8 +196,28 @@ public class InstrumentingMethodVisitor extends MethodNode implements Opcodes {
         return n;
     }
 
+    /**
+     * @return whether the method reports to the profiler; only the team's
+     *         own methods are profiled, not those of instrumented library
+     *         classes
+     */
+    private boolean isProfiled() {
+        return profilerEnabled && !className.startsWith("instrumented/");
+    }
+
+    /**
+     * @return the frame id of the method, which is passed to the profiler
+     *         instead of its name
+     */
+    private int getFrameId() {
+        if (frameId < 0) {
+            frameId = loader.getFactory().getProfilerFrames().getFrameId(className.replace('/', '.') + "." + name);
+        }
+        return frameId;
+    }
+
     private void addEnterMethodHandler() {
-        if (!profilerEnabled) {
+        if (!isProfiled()) {
             return;
         }
 
@@ -205,28 +228,28 @@ public class InstrumentingMethodVisitor extends MethodNode implements Opcodes {
                 INVOKESTATIC,
                 "battlecode/instrumenter/inject/RobotMonitor",
                 "enterMethod",
-                "(" + Type.getDescriptor(String.class) + ")V",
+                "(I)V",
                 false
             )
         );
         instructions.insertBefore(
             nextInstruction(instructions.getFirst()),
-            new LdcInsnNode(className.replaceAll("/", ".") + "." + name)
+            new LdcInsnNode(getFrameId())
         );
     }
 
     private void addExitMethodHandler(AbstractInsnNode n) {
-        if (!profilerEnabled) {
+        if (!isProfiled()) {
             return;
         }
 
         // call "exitMethod" at every exit point of a method (return, implicit return and throw)
-        instructions.insertBefore(n, new LdcInsnNode(className.replaceAll("/", ".") + "." + name));
+        instructions.insertBefore(n, new LdcInsnNode(getFrameId()));
         instructions.insertBefore(n, new MethodInsnNode(
             INVOKESTATIC,
             "battlecode/instrumenter/inject/RobotMonitor",
             "exitMethod",
-            "(" + Type.getDescriptor(String.class) + ")V",
+            "(I)V",
             false
         ));
     }
@@ -9,6 +9,7 @@ import java.io.InputStreamReader;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static org.objectweb.asm.ClassReader.SKIP_DEBUG;
 
@@ -36,6 +37,7 @@ public class MethodCostUtil {
 
     /**
      * This is a map from binary class names, to all the classes/interfaces that the class transitively implements/extends.
+     * Filled in lazily, possibly by several games at once.
      */
     private final static Map<String, String[]> interfacesMap;
 
@@ -72,7 +74,7 @@ public class MethodCostUtil {
             ClassReferenceUtil.fileLoadError(RESOURCE_FILE);
         }
 
-        interfacesMap = new HashMap<>();
+        interfacesMap = new ConcurrentHashMap<>();
     }
 
     /**
@@ -89,16 +91,12 @@ public class MethodCostUtil {
         if (methodCosts.containsKey(key))
             return methodCosts.get(key);
 
-        String[] interfaces;
-        if (interfacesMap.containsKey(className))
-            interfaces = interfacesMap.get(className);
-        else {
-            ClassReader cr = TeamClassLoaderFactory.normalReader(className);
+        final String[] interfaces = interfacesMap.computeIfAbsent(className, name -> {
+            ClassReader cr = TeamClassLoaderFactory.normalReader(name);
             InterfaceReader ir = new InterfaceReader(null);
             cr.accept(ir, SKIP_DEBUG);
-            interfaces = ir.getInterfaces();
-            interfacesMap.put(className, interfaces);
-        }
+            return ir.getInterfaces();
+        });
 
         for (String anInterface : interfaces) {
             key = anInterface + "/" + methodName;
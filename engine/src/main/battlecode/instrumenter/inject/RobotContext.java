@@ -0,0 +1,109 @@
+package battlecode.instrumenter.inject;
+
+import java.util.Arrays;
+
+/**
+ * The static state of one robot, when its team's classes are shared by all
+ * of its robots.
+ *
+ * Shared classes don't have static fields of their own; the instrumenter
+ * moves them into a holder object per class and robot, and every access to
+ * a static field first asks the current robot's context for the holder.
+ *
+ * Unlike the classes it serves, this class is loaded once, by the system
+ * classloader.
+ *
+ * @see battlecode.instrumenter.SharedStatics
+ */
+public final class RobotContext {
+
+    /**
+     * The context of threads that aren't RobotThreads: engine threads, while
+     * they act on behalf of a robot.
+     */
+    private static final ThreadLocal<RobotContext> borrowed = new ThreadLocal<>();
+
+    /**
+     * The holders of the robot's classes, indexed by the ids their loader
+     * gave them.
+     */
+    private Object[] statics = new Object[16];
+
+    /**
+     * @return the context of the robot the current thread is acting for
+     * @throws IllegalStateException if it isn't acting for any
+     */
+    public static RobotContext current() {
+        final java.lang.Thread thread = java.lang.Thread.currentThread();
+        final RobotContext context = thread instanceof RobotThread
+                ? ((RobotThread) thread).context
+                : borrowed.get();
+        if (context == null) {
+            throw new IllegalStateException("Thread " + thread.getName() + " isn't acting for a robot");
+        }
+        return context;
+    }
+
+    /**
+     * Makes the current thread act for a robot, until exit is called.
+     *
+     * @param context the context of the robot
+     * @return the context the thread acted for before, to pass to exit
+     */
+    public static RobotContext enter(RobotContext context) {
+        final java.lang.Thread thread = java.lang.Thread.currentThread();
+        final RobotContext previous;
+        if (thread instanceof RobotThread) {
+            previous = ((RobotThread) thread).context;
+            ((RobotThread) thread).context = context;
+        } else {
+            previous = borrowed.get();
+            borrowed.set(context);
+        }
+        return previous;
+    }
+
+    /**
+     * Makes the current thread act for the robot it acted for before enter.
+     *
+     * @param previous the context returned by enter
+     */
+    public static void exit(RobotContext previous) {
+        final java.lang.Thread thread = java.lang.Thread.currentThread();
+        if (thread instanceof RobotThread) {
+            ((RobotThread) thread).context = previous;
+        } else {
+            // Rather than remove, so that entering again doesn't allocate
+            borrowed.set(previous);
+        }
+    }
+
+    /**
+     * Called by the holders of shared classes.
+     *
+     * @param id the id of a holder
+     * @return the holders of the current robot, long enough to hold the
+     *         holder with the given id
+     */
+    @SuppressWarnings("unused")
+    public static Object[] statics(int id) {
+        final RobotContext context = current();
+        if (id >= context.statics.length) {
+            context.statics = Arrays.copyOf(context.statics, Math.max(id + 1, 2 * context.statics.length));
+        }
+        return context.statics;
+    }
+
+    /**
+     * The main thread of a robot, which always acts for it; so the robot
+     * doesn't have to look its context up in a ThreadLocal.
+     */
+    public static final class RobotThread extends java.lang.Thread {
+        private RobotContext context;
+
+        public RobotThread(RobotContext context, Runnable target, String name) {
+            super(target, name);
+            this.context = context;
+        }
+    }
+}
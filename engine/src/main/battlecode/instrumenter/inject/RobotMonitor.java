@@ -73,6 +73,14 @@ public final class RobotMonitor {
         bytecodeLimit = limit;
     }
 
+    /**
+     * @return a bridge for SandboxedRobotPlayer to call this monitor through, without reflection
+     */
+    @SuppressWarnings("unused")
+    public static SandboxedRobotPlayer.MonitorBridge bridge() {
+        return new Bridge();
+    }
+
     /**
      * Set System.out for this robot.
      *
@@ -120,10 +128,26 @@ public final class RobotMonitor {
      *
      * THIS METHOD IS CALLED BY THE INSTRUMENTER.
      *
-     * @param numBytecodes the number of bytecodes the robot just executed
+     * @param numBytecodes the number of bytecodes the robot just executed, which is always positive
      */
     @SuppressWarnings("unused")
     public static void incrementBytecodes(int numBytecodes) {
+        // The usual case, kept small enough for the JIT to inline into every basic block: nothing
+        // needs doing but taking the bytecodes off, and the robot has more than enough left.
+        if (!shouldDie && debugLevel == 0 && bytecodesToRemove == 0 && profiler == null
+                && bytecodesLeft > numBytecodes) {
+            bytecodesLeft -= numBytecodes;
+            return;
+        }
+        spendBytecodes(numBytecodes);
+    }
+
+    /**
+     * Does everything incrementBytecodes does, for when it can't take its shortcut.
+     *
+     * @param numBytecodes the number of bytecodes the robot just executed
+     */
+    private static void spendBytecodes(int numBytecodes) {
         // If we should die, then... do that.
         if (shouldDie) {
             killer.kill();
@@ -255,12 +279,12 @@ public final class RobotMonitor {
      *
      * THIS METHOD IS CALLED BY THE INSTRUMENTER.
      *
-     * @param methodName the name of the method that is being entered
+     * @param frameId the frame id of the method that is being entered
      */
     @SuppressWarnings("unused")
-    public static void enterMethod(String methodName) {
+    public static void enterMethod(int frameId) {
         if (debugLevel == 0 && profiler != null) {
-            profiler.enterMethod(methodName);
+            profiler.enterMethod(frameId);
         }
     }
 
@@ -269,12 +293,12 @@ public final class RobotMonitor {
      *
      * THIS METHOD IS CALLED BY THE INSTRUMENTER.
      *
-     * @param methodName the name of the method that is being exited
+     * @param frameId the frame id of the method that is being exited
      */
     @SuppressWarnings("unused")
-    public static void exitMethod(String methodName) {
+    public static void exitMethod(int frameId) {
         if (debugLevel == 0 && profiler != null) {
-            profiler.exitMethod(methodName);
+            profiler.exitMethod(frameId);
         }
     }
 
@@ -289,6 +313,27 @@ public final class RobotMonitor {
         reactivate();
     }
 
+    /**
+     * Calls this monitor for SandboxedRobotPlayer; loaded alongside it, so that it calls this
+     * robot's copy.
+     */
+    static final class Bridge implements SandboxedRobotPlayer.MonitorBridge {
+        @Override
+        public void setBytecodeLimit(int limit) {
+            RobotMonitor.setBytecodeLimit(limit);
+        }
+
+        @Override
+        public int getBytecodeNum() {
+            return RobotMonitor.getBytecodeNum();
+        }
+
+        @Override
+        public void killRobot() {
+            RobotMonitor.killRobot();
+        }
+    }
+
     /**
      * Restarts a paused robot.
      *
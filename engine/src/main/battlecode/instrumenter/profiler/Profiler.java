@@ -1,9 +1,9 @@
 package battlecode.instrumenter.profiler;
 
-import java.util.ArrayDeque;
-import java.util.ArrayList;
-import java.util.Deque;
-import java.util.List;
+import battlecode.server.Server;
+
+import java.io.IOException;
+import java.util.Arrays;
 
 /**
  * The Profiler class profiles bytecode usage in a sandboxed robot player.
@@ -16,15 +16,46 @@ import java.util.List;
  * which is used in the client to show the profiling data. See
  * https://github.com/jlfwong/speedscope/wiki/Importing-from-custom-sources
  * for more information on speedscope's file format.
+ * <p>
+ * Events are packed into ints, two per event: the frame id shifted left
+ * by one, with the low bit set for an open event; and the bytecode counter.
+ * Once a robot has a chunk of them, the chunk is spilled to its collection's
+ * file, so that a whole match can be profiled without holding every event
+ * in memory.
  */
 public class Profiler {
+    /**
+     * How many ints of events a profiler holds before spilling them.
+     */
+    static final int CHUNK_SIZE = 1 << 14;
+
+    private static final int INITIAL_SIZE = 64;
+
     private final ProfilerCollection collection;
     private final String name;
 
     private int bytecodeCounter = 0;
 
-    private final List<ProfilerEvent> events = new ArrayList<>();
-    private final Deque<Integer> openFrameIds = new ArrayDeque<>();
+    /**
+     * The events not yet spilled, and how many ints of them there are.
+     */
+    private int[] events = new int[INITIAL_SIZE];
+    private int eventsSize = 0;
+
+    /**
+     * Where in the collection's file each chunk of spilled events is.
+     */
+    private long[] spilledChunks = new long[0];
+    private int spilledChunksSize = 0;
+
+    private int[] openFrameIds = new int[16];
+    private int openFramesSize = 0;
+
+    /**
+     * How many of the innermost methods the robot is in were entered after
+     * the collection stopped recording events, and so aren't open here.
+     */
+    private int unrecordedFrames = 0;
 
     public Profiler(ProfilerCollection collection, String name) {
         this.collection = collection;
@@ -39,47 +70,112 @@ public class Profiler {
         }
     }
 
-    public void enterMethod(String methodName) {
-        if (!collection.isRecordingEvents()) {
-            return;
-        }
-
-        if (methodName.startsWith("instrumented.")) {
+    /**
+     * @param teamFrameId the frame id the method was instrumented with
+     */
+    public void enterMethod(int teamFrameId) {
+        if (unrecordedFrames > 0 || !collection.isRecordingEvents()) {
+            unrecordedFrames++;
             return;
         }
 
         collection.recordEvent();
 
-        int frameId = collection.getFrameId(methodName);
+        int frameId = collection.getFrameId(teamFrameId);
 
-        events.add(new ProfilerEvent(ProfilerEventType.OPEN, bytecodeCounter, frameId));
-        openFrameIds.addFirst(frameId);
+        addEvent(frameId << 1 | 1);
+        if (openFramesSize == openFrameIds.length) {
+            openFrameIds = Arrays.copyOf(openFrameIds, 2 * openFrameIds.length);
+        }
+        openFrameIds[openFramesSize++] = frameId;
     }
 
-    public void exitMethod(String methodName) {
-        if (openFrameIds.isEmpty() && !collection.isRecordingEvents()) {
+    /**
+     * @param teamFrameId the frame id the method was instrumented with
+     */
+    public void exitMethod(int teamFrameId) {
+        if (unrecordedFrames > 0) {
+            unrecordedFrames--;
             return;
         }
-
-        if (methodName.startsWith("instrumented.")) {
+        if (openFramesSize == 0) {
             return;
         }
 
-        events.add(new ProfilerEvent(ProfilerEventType.CLOSE, bytecodeCounter, collection.getFrameId(methodName)));
-        openFrameIds.pop();
+        addEvent(collection.getFrameId(teamFrameId) << 1);
+        openFramesSize--;
     }
 
     public void exitOpenMethods() {
-        while (!openFrameIds.isEmpty()) {
-            events.add(new ProfilerEvent(ProfilerEventType.CLOSE, bytecodeCounter, openFrameIds.pop()));
+        unrecordedFrames = 0;
+        while (openFramesSize > 0) {
+            addEvent(openFrameIds[--openFramesSize] << 1);
         }
     }
 
-    public String getName() {
-        return name;
+    private void addEvent(int frame) {
+        if (eventsSize == events.length) {
+            makeRoom();
+        }
+        events[eventsSize++] = frame;
+        events[eventsSize++] = bytecodeCounter;
+    }
+
+    private void makeRoom() {
+        // Once spilling has failed, the events outgrow a chunk and stay here
+        if (events.length == CHUNK_SIZE) {
+            try {
+                final long offset = collection.spill(events, eventsSize);
+                if (spilledChunksSize == spilledChunks.length) {
+                    spilledChunks = Arrays.copyOf(spilledChunks, Math.max(4, 2 * spilledChunks.length));
+                }
+                spilledChunks[spilledChunksSize++] = offset;
+                eventsSize = 0;
+                return;
+            } catch (IOException e) {
+                // Keep the events in memory instead
+                Server.warn("Can't spill profiler events to disk, keeping them in memory: " + e);
+            }
+        }
+        events = Arrays.copyOf(events, 2 * events.length);
+    }
+
+    /**
+     * Receives a profiler's events.
+     */
+    public interface EventVisitor {
+        /**
+         * @param open whether the event opens its frame, rather than closing it
+         * @param at the bytecode counter when the event happened
+         * @param frameId the id of the frame in the profiler's collection
+         */
+        void visitEvent(boolean open, int at, int frameId);
+    }
+
+    /**
+     * Passes each of the profiler's events to a visitor, in order, reading
+     * back the ones that were spilled.
+     *
+     * @throws IOException if the spilled events can't be read
+     */
+    public void visitEvents(EventVisitor visitor) throws IOException {
+        if (spilledChunksSize > 0) {
+            final int[] chunk = new int[CHUNK_SIZE];
+            for (int i = 0; i < spilledChunksSize; i++) {
+                collection.readSpilled(spilledChunks[i], chunk);
+                visitEvents(chunk, chunk.length, visitor);
+            }
+        }
+        visitEvents(events, eventsSize, visitor);
     }
 
-    public List<ProfilerEvent> getEvents() {
-        return events;
+    private static void visitEvents(int[] events, int size, EventVisitor visitor) {
+        for (int i = 0; i < size; i += 2) {
+            visitor.visitEvent((events[i] & 1) != 0, events[i + 1], events[i] >>> 1);
+        }
+    }
+
+    public String getName() {
+        return name;
     }
 }
@@ -1,31 +1,63 @@
 package battlecode.instrumenter.profiler;
 
 import battlecode.common.RobotType;
+import battlecode.server.Config;
 
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
+
+import static java.nio.file.StandardOpenOption.*;
 
 /**
  * A ProfilerCollection is a collection of all Profiler instances for a team for a match.
+ *
+ * The events its profilers have spilled are kept in a temporary file, which
+ * is deleted once the collection is closed, or else when the JVM exits.
  */
 public class ProfilerCollection {
     /**
-     * We record a maximum of 2,000,000 events per team per match.
-     * This equals a rough maximum of 50MB of profiling data per match,
-     * which should prevent the client from hanging when opening a replay
-     * of a match in which profiling was enabled.
+     * The most methods the profiler records entering per team per match,
+     * from bc.engine.profiler-max-events; 0 (the default) means no limit.
+     * The recorded profile is still written into the in-memory replay, so
+     * without a limit its size is bounded only by the heap.
      */
-    private static final int MAX_EVENTS_TO_RECORD = 2_000_000;
+    private final int maxEventsToRecord;
 
     private List<Profiler> profilers = new ArrayList<>();
 
+    /**
+     * The team's methods, by the frame ids its classes were instrumented with.
+     */
+    private final ProfilerFrames teamFrames;
+
+    /**
+     * The frames of this match, in the order they were first entered, and
+     * their ids here plus one, by their ids in teamFrames.
+     */
     private List<String> frames = new ArrayList<>();
-    private Map<String, Integer> frameIds = new HashMap<>();
+    private int[] frameIds = new int[0];
+
+    /**
+     * The file spilled events are kept in, once there are any, and how many
+     * bytes of them there are.
+     */
+    private FileChannel spillFile;
+    private long spillSize;
 
     private int recordedEvents = 0;
 
+    public ProfilerCollection(ProfilerFrames teamFrames) {
+        this.teamFrames = teamFrames;
+        this.maxEventsToRecord = Config.getGlobalConfig().getInt("bc.engine.profiler-max-events");
+    }
+
     public Profiler createProfiler(int robotId, RobotType robotType) {
         // The name has to be display-friendly
         String name = String.format("#%s (%s)", robotId, robotType.toString());
@@ -44,13 +76,22 @@ public class ProfilerCollection {
         return profilers;
     }
 
-    public int getFrameId(String methodName) {
-        if (!frameIds.containsKey(methodName)) {
-            frames.add(methodName);
-            frameIds.put(methodName, frames.size() - 1);
+    /**
+     * @param teamFrameId the frame id a method was instrumented with
+     * @return the id of its frame in this collection
+     */
+    public int getFrameId(int teamFrameId) {
+        if (teamFrameId >= frameIds.length) {
+            frameIds = Arrays.copyOf(frameIds, Math.max(teamFrameId + 1, 2 * frameIds.length));
         }
 
-        return frameIds.get(methodName);
+        int frameId = frameIds[teamFrameId] - 1;
+        if (frameId < 0) {
+            frames.add(teamFrames.getMethodName(teamFrameId));
+            frameId = frames.size() - 1;
+            frameIds[teamFrameId] = frameId + 1;
+        }
+        return frameId;
     }
 
     public void recordEvent() {
@@ -58,6 +99,68 @@ public class ProfilerCollection {
     }
 
     public boolean isRecordingEvents() {
-        return recordedEvents < MAX_EVENTS_TO_RECORD;
+        return maxEventsToRecord <= 0 || recordedEvents < maxEventsToRecord;
+    }
+
+    /**
+     * Writes a chunk of a profiler's events to the collection's file.
+     *
+     * @param events the events
+     * @param size how many ints of events there are
+     * @return where in the file the chunk was written
+     * @throws IOException if the file can't be written
+     */
+    synchronized long spill(int[] events, int size) throws IOException {
+        if (spillFile == null) {
+            final Path path = Files.createTempFile("profiler", ".events");
+            path.toFile().deleteOnExit();
+            spillFile = FileChannel.open(path, READ, WRITE, DELETE_ON_CLOSE);
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate(4 * size);
+        buffer.asIntBuffer().put(events, 0, size);
+        final long offset = spillSize;
+        while (buffer.hasRemaining()) {
+            spillFile.write(buffer, offset + buffer.position());
+        }
+        spillSize += buffer.capacity();
+        return offset;
+    }
+
+    /**
+     * Reads back a chunk of events written by spill.
+     *
+     * @param offset where in the file the chunk was written
+     * @param events where to read the events into, which must be as long
+     *               as the chunk
+     * @throws IOException if the file can't be read
+     */
+    synchronized void readSpilled(long offset, int[] events) throws IOException {
+        if (spillFile == null) {
+            throw new IOException("Profiler events were already deleted");
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(4 * events.length);
+        while (buffer.hasRemaining()) {
+            if (spillFile.read(buffer, offset + buffer.position()) < 0) {
+                throw new EOFException("Profiler events were cut short");
+            }
+        }
+        buffer.flip();
+        buffer.asIntBuffer().get(events);
+    }
+
+    /**
+     * Deletes the events the collection's profilers have spilled; call once
+     * they've been read, or once they won't be. Closing twice does nothing.
+     */
+    public synchronized void close() {
+        if (spillFile != null) {
+            try {
+                spillFile.close();
+            } catch (IOException e) {
+                // It's deleted when the JVM exits, if not now
+            }
+            spillFile = null;
+        }
     }
 }
@@ -0,0 +1,42 @@
+package battlecode.instrumenter.profiler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The methods of a team's classes, by the frame ids the instrumenter passes
+ * the profiler instead of their names.
+ *
+ * A team's ids are assigned up front from its classes, when they can be
+ * read, so that every engine gives them the same ids, and classes
+ * instrumented by one can be profiled by another. Methods that weren't seen
+ * up front are given ids as they're instrumented.
+ */
+public final class ProfilerFrames {
+    private final List<String> names = new ArrayList<>();
+    private final Map<String, Integer> ids = new HashMap<>();
+
+    /**
+     * @param methodName the name of a method, like package.Class.method
+     * @return the frame id of the method
+     */
+    public synchronized int getFrameId(String methodName) {
+        Integer id = ids.get(methodName);
+        if (id == null) {
+            id = names.size();
+            names.add(methodName);
+            ids.put(methodName, id);
+        }
+        return id;
+    }
+
+    /**
+     * @param frameId the frame id of a method
+     * @return the name of the method
+     */
+    public synchronized String getMethodName(int frameId) {
+        return names.get(frameId);
+    }
+}
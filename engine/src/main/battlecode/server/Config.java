@@ -50,6 +50,24 @@ public class Config {
         defaults.setProperty("bc.server.throttle-count", "15");
         defaults.setProperty("bc.server.output-xml", "true");
 
+        // Save a checkpoint of the running game every this many rounds, next
+        // to its save file, and resume from it when the same game is run
+        // again. 0 disables checkpoints.
+        defaults.setProperty("bc.server.checkpoint-interval", "0");
+
+        // How many matches of a game to run at once. Above 1, every match
+        // is run up front, even those a best of three may not need. Matches
+        // can't be paused or checkpointed while running that way, so this
+        // is ignored when checkpoints are enabled or the client controls
+        // the game.
+        defaults.setProperty("bc.server.parallel-matches", "1");
+
+        // With bc.server.mode=batch, the games listed in
+        // bc.server.batch-manifest are run on this many servers at once, and
+        // their replays and results.tsv written to bc.server.batch-output.
+        defaults.setProperty("bc.server.batch-workers", "1");
+        defaults.setProperty("bc.server.batch-output", "matches");
+
         // Whether to write robot player output to match files / system out
         // if bc.server.robot-player-to-system-out is false then it will only write
         // to match files
@@ -59,8 +77,43 @@ public class Config {
         defaults.setProperty("bc.engine.silence-d", "false");
         defaults.setProperty("bc.engine.debug-methods", "false");
         defaults.setProperty("bc.engine.enable-profiler", "false");
+
+        // How many methods the profiler records entering, per team per match;
+        // 0 means no limit. The profile still ends up in the match footer,
+        // which is built in memory like the rest of the replay, so an
+        // unlimited profile is bounded only by the heap (and by what the
+        // client can open). 2000000 is roughly 50MB of profiling data.
+        defaults.setProperty("bc.engine.profiler-max-events", "0");
         defaults.setProperty("bc.engine.show-indicators", "true");
 
+        // A directory to keep instrumented player and library classes in,
+        // so later runs, in this process or others, don't instrument them
+        // again. Empty disables the cache.
+        defaults.setProperty("bc.engine.instrumented-class-cache", "");
+
+        // Whether a team's robots share its classes, each with its own copy
+        // of their static fields, instead of each loading them.
+        defaults.setProperty("bc.engine.shared-player-classes", "false");
+
+        // How the engine and robots hand control to each other each turn:
+        // monitor, park, or spin, which spins briefly before parking, for
+        // hosts with cores to spare.
+        defaults.setProperty("bc.engine.thread-handoff", "monitor");
+
+        // How many sandboxes per team to prepare in the background, so that
+        // spawning a robot doesn't wait for one; 0 to prepare them on spawn.
+        defaults.setProperty("bc.engine.sandbox-pool", "0");
+
+        // Whether to instrument each team's classes, and the system classes
+        // they use, in parallel when its first match starts, rather than as
+        // robots load them.
+        defaults.setProperty("bc.engine.eager-instrumentation", "false");
+
+        // The key team jars written by battlecode.server.InstrumentTeam are
+        // signed with; their instrumented classes are used only if it's set,
+        // and they're signed with it.
+        defaults.setProperty("bc.engine.instrumented-team-key", "");
+
         defaults.setProperty("bc.game.team-a", "team000");
         defaults.setProperty("bc.game.team-b", "team000");
         defaults.setProperty("bc.game.maps", "glass");
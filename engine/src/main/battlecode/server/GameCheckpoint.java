@@ -0,0 +1,208 @@
+package battlecode.server;
+
+import battlecode.world.GameWorld;
+import battlecode.world.control.RobotControlProvider;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A snapshot of a game in progress, which the server saves every few rounds
+ * so that a game interrupted by a crash can be resumed from the last
+ * snapshot instead of being run again from the start.
+ *
+ * A checkpoint holds the replay written so far, which match of the game is
+ * being run and the wins so far, and the state of the match's world if it
+ * was taken in the middle of a match. Player code can't be saved, so the
+ * players of a resumed match start afresh on the restored world.
+ *
+ * The replay is kept in a file of its own next to the checkpoint, which
+ * each checkpoint only appends the newly written part of the replay to,
+ * rather than saving the whole replay again every time.
+ */
+final class GameCheckpoint {
+
+    private static final int MAGIC = 0x62633232; // "bc22"
+    private static final int VERSION = 3;
+
+    private final int matchIndex;
+    private final int aWins;
+    private final int bWins;
+
+    /**
+     * The saved game maker, followed by the saved world if any. The world
+     * can only be restored once the game maker has been, and the control
+     * provider set up with it.
+     */
+    private final DataInputStream state;
+
+    private GameCheckpoint(int matchIndex, int aWins, int bWins, byte[] state) {
+        this.matchIndex = matchIndex;
+        this.aWins = aWins;
+        this.bWins = bWins;
+        this.state = new DataInputStream(new ByteArrayInputStream(state));
+    }
+
+    /**
+     * @param game a game
+     * @return the file the game's checkpoints are saved to
+     */
+    static File getFile(GameInfo game) {
+        return new File(game.getSaveFile().getPath() + ".checkpoint");
+    }
+
+    /**
+     * @param game a game
+     * @return the file the replay of the game's checkpoints is saved to
+     */
+    static File getReplayFile(GameInfo game) {
+        return new File(game.getSaveFile().getPath() + ".checkpoint.replay");
+    }
+
+    /**
+     * Saves a checkpoint of a game, replacing any earlier one. The file is
+     * replaced atomically, so a crash while saving leaves the earlier one;
+     * the replay file is only appended to, and a checkpoint only reads as
+     * much of it as was saved with it.
+     *
+     * @param game the game
+     * @param matchIndex the match being run, or to be run next if world is null
+     * @param aWins the matches won by team A so far
+     * @param bWins the matches won by team B so far
+     * @param gameMaker the game maker writing the game
+     * @param world the world of the match being run, or null if between matches
+     * @throws IOException if the checkpoint can't be written
+     */
+    static void write(GameInfo game, int matchIndex, int aWins, int bWins,
+                      GameMaker gameMaker, GameWorld world) throws IOException {
+        File file = getFile(game);
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(new FileOutputStream(temp))))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeGameIdentity(out, game);
+            out.writeInt(matchIndex);
+            out.writeInt(aWins);
+            out.writeInt(bWins);
+            gameMaker.writeCheckpoint(out, getReplayFile(game));
+            out.writeBoolean(world != null);
+            if (world != null) {
+                world.writeCheckpoint(out);
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Loads the checkpoint of a game, if one was saved.
+     *
+     * @param game the game
+     * @return the checkpoint, or null if there is none for this game
+     * @throws IOException if the checkpoint exists but can't be read
+     */
+    static GameCheckpoint read(GameInfo game) throws IOException {
+        File file = getFile(game);
+        if (!file.isFile()) {
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(file))))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a checkpoint of this version: " + file);
+            }
+
+            ByteArrayOutputStream identity = new ByteArrayOutputStream();
+            writeGameIdentity(new DataOutputStream(identity), game);
+            byte[] savedIdentity = new byte[identity.size()];
+            in.readFully(savedIdentity);
+            if (!Arrays.equals(savedIdentity, identity.toByteArray())) {
+                return null;
+            }
+
+            int matchIndex = in.readInt();
+            int aWins = in.readInt();
+            int bWins = in.readInt();
+
+            ByteArrayOutputStream rest = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            for (int n; (n = in.read(buffer)) > 0; ) {
+                rest.write(buffer, 0, n);
+            }
+            return new GameCheckpoint(matchIndex, aWins, bWins, rest.toByteArray());
+        }
+    }
+
+    /**
+     * Deletes the checkpoint of a game, once the game has been written.
+     *
+     * @param game the game
+     */
+    static void delete(GameInfo game) {
+        getFile(game).delete();
+        getReplayFile(game).delete();
+    }
+
+    int getMatchIndex() {
+        return matchIndex;
+    }
+
+    int getAWins() {
+        return aWins;
+    }
+
+    int getBWins() {
+        return bWins;
+    }
+
+    /**
+     * Restores the game maker, to carry on writing the game.
+     *
+     * @param game the game
+     * @param packetSink the NetServer to send packets to
+     * @param showIndicators whether to write indicator dots and lines to replay
+     * @return the restored game maker
+     * @throws IOException if the checkpoint can't be read
+     */
+    GameMaker restoreGameMaker(GameInfo game, NetServer packetSink, boolean showIndicators) throws IOException {
+        return new GameMaker(game, packetSink, showIndicators, state, getReplayFile(game));
+    }
+
+    /**
+     * Restores the world of the match in progress. Must be called after
+     * restoreGameMaker().
+     *
+     * @param prov the control provider for the restored robots
+     * @param matchMaker the restored game maker's match maker
+     * @return the restored world, or null if the checkpoint was taken
+     *         between matches
+     * @throws IOException if the checkpoint can't be read
+     */
+    GameWorld restoreWorld(RobotControlProvider prov, GameMaker.MatchMaker matchMaker) throws IOException {
+        if (!state.readBoolean()) {
+            return null;
+        }
+        return GameWorld.readCheckpoint(state, prov, matchMaker);
+    }
+
+    private static void writeGameIdentity(DataOutputStream out, GameInfo game) throws IOException {
+        out.writeUTF(game.getTeamAPackage());
+        out.writeUTF(game.getTeamBPackage());
+        out.writeBoolean(game.isBestOfThree());
+        out.writeBoolean(game.getSeed() != null);
+        if (game.getSeed() != null) {
+            out.writeInt(game.getSeed());
+        }
+        out.writeInt(game.getMaps().length);
+        for (String map : game.getMaps()) {
+            out.writeUTF(map);
+        }
+        out.flush();
+    }
+}
@@ -62,6 +62,11 @@ public class GameInfo implements Serializable {
      */
     private final File saveFile;
 
+    /**
+     * The random seed to run every map with, or null to use the seed of
+     * each map.
+     */
+    private final Integer seed;
 
     /**
      * Create a GameInfo.
@@ -81,6 +86,24 @@ public class GameInfo implements Serializable {
                     String[] maps,
                     File saveFile,
                     boolean bestOfThree) {
+        this(teamAName, teamAPackage, teamAURL, teamBName, teamBPackage, teamBURL,
+                maps, saveFile, bestOfThree, null);
+    }
+
+    /**
+     * Create a GameInfo whose maps are all run with the same random seed,
+     * instead of the seed in each map file.
+     *
+     * @param seed the seed to run the maps with, or null to use the seed
+     *             of each map
+     * @see #GameInfo(String, String, String, String, String, String, String[], File, boolean)
+     */
+    public GameInfo(String teamAName, String teamAPackage, String teamAURL,
+                    String teamBName, String teamBPackage, String teamBURL,
+                    String[] maps,
+                    File saveFile,
+                    boolean bestOfThree,
+                    Integer seed) {
         this.teamAName = teamAName;
         this.teamAPackage = teamAPackage;
         this.teamAURL = teamAURL;
@@ -90,6 +113,7 @@ public class GameInfo implements Serializable {
         this.maps = maps;
         this.saveFile = saveFile;
         this.bestOfThree = bestOfThree;
+        this.seed = seed;
     }
 
     /**
@@ -141,6 +165,14 @@ public class GameInfo implements Serializable {
         return bestOfThree;
     }
 
+    /**
+     * @return the random seed to run every map with, or null to use the
+     *         seed of each map
+     */
+    public Integer getSeed() {
+        return seed;
+    }
+
     @Override
     public String toString() {
         StringBuilder b = new StringBuilder();
@@ -169,6 +201,11 @@ public class GameInfo implements Serializable {
             b.append(" (best of three)");
         }
 
+        if (seed != null) {
+            b.append(" with seed ");
+            b.append(seed);
+        }
+
         return b.toString();
     }
 
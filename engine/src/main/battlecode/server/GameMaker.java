@@ -6,7 +6,6 @@ import battlecode.common.RobotType;
 import battlecode.common.Team;
 import battlecode.instrumenter.profiler.Profiler;
 import battlecode.instrumenter.profiler.ProfilerCollection;
-import battlecode.instrumenter.profiler.ProfilerEventType;
 import battlecode.schema.*;
 import battlecode.util.FlatHelpers;
 import battlecode.util.TeamMapping;
@@ -23,6 +22,7 @@ import org.apache.commons.io.IOUtils;
 
 import java.io.*;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Arrays;
 import java.util.function.ToIntFunction;
 import java.util.zip.GZIPOutputStream;
@@ -63,7 +63,13 @@ public strictfp class GameMaker {
     /**
      * We write the whole match to this builder, then write it to a file.
      */
-    private final FlatBufferBuilder fileBuilder;
+    private final CheckpointBuilder fileBuilder;
+
+    /**
+     * How many bytes of the file builder the last checkpoint saved; later
+     * checkpoints only append what has been written since.
+     */
+    private int checkpointedSize;
 
     /**
      * Null until the end of the match.
@@ -71,11 +77,13 @@ public strictfp class GameMaker {
     private byte[] finishedGame;
 
     /**
-     * We have a separate byte[] for each packet sent to the client.
+     * Events that are sent to the client, or kept by a detached GameMaker,
+     * are finished in a buffer of their own, which is copied into the file
+     * builder as it is.
      * This is necessary because flatbuffers shares metadata between structures, so we
      * can't just cut out chunks of the larger buffer :/
      */
-    private FlatBufferBuilder packetBuilder;
+    private final FlatBufferBuilder eventBuilder;
 
     /**
      * The server we're sending packets on.
@@ -108,22 +116,33 @@ public strictfp class GameMaker {
      */
     private final boolean showIndicators;
 
+    /**
+     * Only for a detached GameMaker, which records matches apart from any
+     * game: each event, finished in a buffer of its own, to be appended to
+     * a game later. Null otherwise.
+     */
+    private final List<byte[]> detachedEvents;
+
     /**
      * @param gameInfo the mapping of teams to bytes
      * @param packetSink the NetServer to send packets to
      * @param showIndicators whether to write indicator dots and lines to replay
      */
     public GameMaker(final GameInfo gameInfo, final NetServer packetSink, final boolean showIndicators) {
-        this.state = State.GAME_HEADER;
+        this(gameInfo, packetSink, showIndicators, false);
+    }
+
+    private GameMaker(final GameInfo gameInfo, final NetServer packetSink, final boolean showIndicators,
+                      final boolean detached) {
+        this.state = detached ? State.IN_GAME : State.GAME_HEADER;
+        this.detachedEvents = detached ? new ArrayList<>() : null;
 
         this.gameInfo = gameInfo;
 
         this.packetSink = packetSink;
-        if (packetSink != null) {
-            this.packetBuilder = new FlatBufferBuilder();
-        }
+        this.eventBuilder = new FlatBufferBuilder();
 
-        this.fileBuilder = new FlatBufferBuilder();
+        this.fileBuilder = new CheckpointBuilder();
 
         this.events = new TIntArrayList();
         this.matchHeaders = new TIntArrayList();
@@ -134,6 +153,225 @@ public strictfp class GameMaker {
         this.showIndicators = showIndicators;
     }
 
+    /**
+     * Creates a detached GameMaker, which records matches apart from any
+     * game, so that matches of a game can be run concurrently and then
+     * appended to it in order with appendMatches().
+     *
+     * @param gameInfo the mapping of teams to bytes
+     * @param showIndicators whether to write indicator dots and lines to replay
+     * @return the detached GameMaker
+     */
+    public static GameMaker createDetached(final GameInfo gameInfo, final boolean showIndicators) {
+        return new GameMaker(gameInfo, null, showIndicators, true);
+    }
+
+    /**
+     * Restores a GameMaker from a checkpoint written by writeCheckpoint(),
+     * to carry on writing the same game. Events written before the
+     * checkpoint are not sent to the packet sink.
+     *
+     * @param gameInfo the mapping of teams to bytes
+     * @param packetSink the NetServer to send packets to
+     * @param showIndicators whether to write indicator dots and lines to replay
+     * @param in the checkpoint
+     * @param replayFile the file the checkpoint's replay was saved to
+     * @throws IOException if the checkpoint can't be read
+     */
+    public GameMaker(final GameInfo gameInfo, final NetServer packetSink, final boolean showIndicators,
+                     DataInputStream in, File replayFile) throws IOException {
+        this(gameInfo, packetSink, showIndicators);
+
+        this.state = State.values()[in.readByte()];
+        this.events = readIntList(in);
+        this.matchHeaders = readIntList(in);
+        this.matchFooters = readIntList(in);
+        int minAlign = in.readInt();
+        int size = in.readInt();
+
+        // The replay file may run on past the checkpoint, if we crashed
+        // while saving the next one
+        byte[] written = new byte[size];
+        try (RandomAccessFile replay = new RandomAccessFile(replayFile, "r")) {
+            replay.readFully(written);
+        }
+
+        // Offsets in a flatbuffer count back from the end of the buffer, so
+        // writing the saved bytes back to front leaves them all valid. The
+        // builder is aligned as it was, so that it pads the rest of the
+        // replay the same way.
+        fileBuilder.prep(minAlign, 0);
+        fileBuilder.prep(1, size);
+        for (byte b : written) {
+            fileBuilder.putByte(b);
+        }
+        this.checkpointedSize = size;
+    }
+
+    /**
+     * Appends the matches recorded by a detached GameMaker to this game, as
+     * if they had been recorded here, and sends them to the packet sink.
+     *
+     * @param detached a detached GameMaker, not in the middle of a match
+     */
+    public void appendMatches(GameMaker detached) {
+        assertState(State.IN_GAME);
+        if (detached.detachedEvents == null) {
+            throw new IllegalArgumentException("Can only append matches from a detached GameMaker");
+        }
+        detached.assertState(State.IN_GAME);
+
+        int firstEvent = events.size();
+        for (byte[] event : detached.detachedEvents) {
+            addEvent(event);
+        }
+        for (int i = 0; i < detached.matchHeaders.size(); i++) {
+            matchHeaders.add(firstEvent + detached.matchHeaders.get(i));
+        }
+        for (int i = 0; i < detached.matchFooters.size(); i++) {
+            matchFooters.add(firstEvent + detached.matchFooters.get(i));
+        }
+    }
+
+    /**
+     * Adds a finished event to the game and sends it to the packet sink.
+     */
+    private void addEvent(byte[] event) {
+        // A finished buffer only refers to itself, by relative offsets,
+        // so it stays valid copied whole; the event is its root table
+        int start = putBytes(event);
+        int root = ByteBuffer.wrap(event).order(ByteOrder.LITTLE_ENDIAN).getInt(0);
+        events.add(start - root);
+
+        if (packetSink != null) {
+            packetSink.addEvent(event);
+        }
+    }
+
+    /**
+     * Writes bytes to the front of the file builder as they are, aligned
+     * for the ints and offsets our tables hold. They're written in one go,
+     * as a byte vector, whose length is left in front of them unused.
+     *
+     * @return the offset of the first of the bytes
+     */
+    private int putBytes(byte[] bytes) {
+        return fileBuilder.createByteVector(bytes) - Integer.BYTES;
+    }
+
+    /**
+     * Writes the game written so far to a checkpoint. Must be called between
+     * rounds.
+     *
+     * The replay is saved to a file of its own, which only grows by what
+     * has been written since the last checkpoint. Its bytes are saved back
+     * to front, in the order the builder wrote them, so that they can be
+     * appended to.
+     *
+     * @param out the checkpoint
+     * @param replayFile the file to save the replay to, the same for every
+     *                   checkpoint of the game
+     * @throws IOException if the checkpoint can't be written
+     */
+    public void writeCheckpoint(DataOutputStream out, File replayFile) throws IOException {
+        if (state != State.IN_GAME && state != State.IN_MATCH) {
+            throw new RuntimeException("Can't checkpoint GameMaker in state: " + state);
+        }
+        if (detachedEvents != null) {
+            throw new RuntimeException("Can't checkpoint a detached GameMaker");
+        }
+
+        out.writeByte(state.ordinal());
+        writeIntList(out, events);
+        writeIntList(out, matchHeaders);
+        writeIntList(out, matchFooters);
+
+        int size = fileBuilder.offset();
+        ByteBuffer data = fileBuilder.buffer();
+        byte[] written = new byte[size - checkpointedSize];
+        for (int i = 0, at = data.capacity() - checkpointedSize - 1; i < written.length; i++, at--) {
+            written[i] = data.get(at);
+        }
+        try (RandomAccessFile replay = new RandomAccessFile(replayFile, "rw")) {
+            // Drop anything saved after the last checkpoint we know of
+            replay.setLength(checkpointedSize);
+            replay.seek(checkpointedSize);
+            replay.write(written);
+            replay.getFD().sync();
+        }
+        checkpointedSize = size;
+
+        out.writeInt(fileBuilder.minAlign);
+        out.writeInt(size);
+    }
+
+    /**
+     * A FlatBufferBuilder that a checkpoint can save before it's finished:
+     * it keeps the buffer it writes to, and the largest alignment it has
+     * been asked for, which it pads the finished buffer to.
+     */
+    private static final class CheckpointBuilder extends FlatBufferBuilder {
+        private final BufferFactory buffers;
+        private int minAlign = 1;
+
+        CheckpointBuilder() {
+            this(new BufferFactory());
+        }
+
+        private CheckpointBuilder(BufferFactory buffers) {
+            super(buffers.newByteBuffer(1024), buffers);
+            this.buffers = buffers;
+        }
+
+        /**
+         * @return the buffer written so far, which is written back to front
+         */
+        ByteBuffer buffer() {
+            return buffers.current;
+        }
+
+        @Override
+        public void prep(int size, int additionalBytes) {
+            minAlign = Math.max(minAlign, size);
+            super.prep(size, additionalBytes);
+        }
+
+        @Override
+        public void clear() {
+            super.clear();
+            minAlign = 1;
+        }
+    }
+
+    /**
+     * Allocates a builder's buffers, remembering the one it's writing to.
+     */
+    private static final class BufferFactory extends FlatBufferBuilder.ByteBufferFactory {
+        private ByteBuffer current;
+
+        @Override
+        public ByteBuffer newByteBuffer(int capacity) {
+            current = ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+            return current;
+        }
+    }
+
+    private static void writeIntList(DataOutputStream out, TIntArrayList list) throws IOException {
+        out.writeInt(list.size());
+        for (int i = 0; i < list.size(); i++) {
+            out.writeInt(list.get(i));
+        }
+    }
+
+    private static TIntArrayList readIntList(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        TIntArrayList list = new TIntArrayList(size);
+        for (int i = 0; i < size; i++) {
+            list.add(in.readInt());
+        }
+        return list;
+    }
+
     /**
      * Assert we're in a particular state.
      *
@@ -210,26 +448,33 @@ public strictfp class GameMaker {
     }
 
     /**
-     * Run the same logic for both builders.
+     * Make an event and add it to the game, or keep it to append later if
+     * this GameMaker is detached.
      *
-     * @param perBuilder called with each builder; return event id. Should not mutate state.
+     * @param perBuilder called with the builder to make the event in; return event id. Should not mutate state.
      */
     private void createEvent(ToIntFunction<FlatBufferBuilder> perBuilder) {
-        // make file event and add its offset to the list
-        int eventAP = perBuilder.applyAsInt(fileBuilder);
-        events.add(eventAP);
+        if (detachedEvents == null && packetSink == null) {
+            // Nothing needs the event on its own, so make it in place
+            events.add(perBuilder.applyAsInt(fileBuilder));
+            return;
+        }
 
-        if (packetSink != null) {
-            // make packet event and package it up
-            int eventBP = perBuilder.applyAsInt(packetBuilder);
-            packetBuilder.finish(eventBP);
-            packetSink.addEvent(packetBuilder.sizedByteArray());
+        eventBuilder.finish(perBuilder.applyAsInt(eventBuilder));
+        byte[] event = eventBuilder.sizedByteArray();
+        eventBuilder.clear();
 
-            // reset packet builder
-            packetBuilder = new FlatBufferBuilder(packetBuilder.dataBuffer());
+        if (detachedEvents != null) {
+            detachedEvents.add(event);
+        } else {
+            addEvent(event);
         }
     }
 
+    private int eventCount() {
+        return detachedEvents != null ? detachedEvents.size() : events.size();
+    }
+
     /**
      * Get the MatchMaker associated with this GameMaker.
      */
@@ -450,7 +695,7 @@ public strictfp class GameMaker {
                         MatchHeader.createMatchHeader(builder, map, gameMap.getRounds()));
             });
 
-            matchHeaders.add(events.size() - 1);
+            matchHeaders.add(eventCount() - 1);
 
             clearData();
         }
@@ -458,6 +703,18 @@ public strictfp class GameMaker {
         public void makeMatchFooter(Team winTeam, int totalRounds, List<ProfilerCollection> profilerCollections) {
             changeState(State.IN_MATCH, State.IN_GAME);
 
+            try {
+                createMatchFooter(winTeam, totalRounds, profilerCollections);
+            } finally {
+                for (ProfilerCollection profilerCollection : profilerCollections) {
+                    profilerCollection.close();
+                }
+            }
+
+            matchFooters.add(eventCount() - 1);
+        }
+
+        private void createMatchFooter(Team winTeam, int totalRounds, List<ProfilerCollection> profilerCollections) {
             createEvent((builder) -> {
                 TIntArrayList profilerFiles = new TIntArrayList();
 
@@ -472,12 +729,18 @@ public strictfp class GameMaker {
                     for (Profiler profiler : profilerCollection.getProfilers()) {
                         TIntArrayList events = new TIntArrayList();
 
-                        for (battlecode.instrumenter.profiler.ProfilerEvent event : profiler.getEvents()) {
-                            ProfilerEvent.startProfilerEvent(builder);
-                            ProfilerEvent.addIsOpen(builder, event.getType() == ProfilerEventType.OPEN);
-                            ProfilerEvent.addAt(builder, event.getAt());
-                            ProfilerEvent.addFrame(builder, event.getFrameId());
-                            events.add(ProfilerEvent.endProfilerEvent(builder));
+                        try {
+                            profiler.visitEvents((open, at, frameId) -> {
+                                ProfilerEvent.startProfilerEvent(builder);
+                                ProfilerEvent.addIsOpen(builder, open);
+                                ProfilerEvent.addAt(builder, at);
+                                ProfilerEvent.addFrame(builder, frameId);
+                                events.add(ProfilerEvent.endProfilerEvent(builder));
+                            });
+                        } catch (IOException e) {
+                            Server.warn("Can't read the profiler events of " + profiler.getName()
+                                    + ", leaving them out of the replay: " + e);
+                            continue;
                         }
 
                         int nameOffset = builder.createString(profiler.getName());
@@ -500,8 +763,6 @@ public strictfp class GameMaker {
                 return EventWrapper.createEventWrapper(builder, Event.MatchFooter,
                     MatchFooter.createMatchFooter(builder, TeamMapping.id(winTeam), totalRounds, profilerFilesOffset));
             });
-
-            matchFooters.add(events.size() - 1);
         }
 
         public void makeRound(int roundNum) {
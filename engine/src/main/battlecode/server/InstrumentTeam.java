@@ -0,0 +1,53 @@
+package battlecode.server;
+
+import battlecode.instrumenter.InstrumentationException;
+import battlecode.instrumenter.InstrumentedTeam;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * Instruments a team's classes ahead of time, into a jar that servers with
+ * the same bc.engine.instrumented-team-key load without instrumenting them
+ * again; see InstrumentedTeam. Meant to be run when a team is submitted, so
+ * that teams which can't be instrumented are rejected then, rather than in
+ * their first match.
+ * <p/>
+ * Usage:<br>
+ * <code>java battlecode.server.InstrumentTeam -c=- -Dbc.game.team-a.url=${team.url}
+ * -Dbc.server.instrumented-team=${output.jar} -Dbc.engine.instrumented-team-key=${key}</code><br>
+ * The process returns 0 if the team was instrumented, 1 if it was rejected,
+ * with the reason on stderr, and 64 if it was run without the options it
+ * needs.
+ */
+public class InstrumentTeam {
+
+    public static void main(String[] args) {
+        final Config options = Main.setupConfig(args);
+
+        final String teamURL = options.get("bc.game.team-a.url");
+        if (teamURL == null) {
+            System.err.println("Can't instrument team without bc.game.team-a.url set!");
+            System.exit(64);
+        }
+        final String output = options.get("bc.server.instrumented-team");
+        if (output == null) {
+            System.err.println("Can't instrument team without bc.server.instrumented-team set!");
+            System.exit(64);
+        }
+        final String key = options.get("bc.engine.instrumented-team-key");
+        if (key == null || key.isEmpty()) {
+            System.err.println("Can't instrument team without bc.engine.instrumented-team-key set!");
+            System.exit(64);
+        }
+
+        try {
+            final int count = InstrumentedTeam.write(teamURL, Paths.get(output));
+            System.out.println("Instrumented " + count + " classes of " + teamURL + " into " + output);
+        } catch (InstrumentationException | IOException e) {
+            System.err.println("Can't instrument " + teamURL + ": " + e.getMessage());
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+}
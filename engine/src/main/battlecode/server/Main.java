@@ -1,7 +1,18 @@
 package battlecode.server;
 
+import battlecode.instrumenter.TeamClassLoaderFactory;
+
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
 
 public class Main {
 
@@ -83,6 +94,64 @@ public class Main {
         }
     }
 
+    /**
+     * Runs every game of a manifest (see TournamentManifest) on a pool of
+     * servers in this JVM. The servers share the class loader factories of
+     * the teams, so each team is instrumented once for the whole batch.
+     * Every game gets a replay and a line in results.tsv in the output
+     * directory.
+     */
+    private static boolean runBatch(Config options) {
+        final String manifest = options.get("bc.server.batch-manifest");
+        if (manifest == null) {
+            System.err.println("Can't run batch without bc.server.batch-manifest set!");
+            return false;
+        }
+        final File outputDir = new File(options.get("bc.server.batch-output"));
+
+        final List<GameInfo> games;
+        try {
+            games = TournamentManifest.read(new File(manifest), outputDir,
+                    options.getBoolean("bc.game.best-of-three"));
+        } catch (IOException e) {
+            System.err.println("Can't read manifest: " + e.getMessage());
+            return false;
+        }
+        if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+            System.err.println("Can't create output directory " + outputDir);
+            return false;
+        }
+
+        // The servers can't all serve a client on the same port
+        options.setBoolean("bc.server.websocket", false);
+
+        final BlockingQueue<GameInfo> gameQueue = new LinkedBlockingQueue<>(games);
+        final Map<String, TeamClassLoaderFactory> teamFactories = new ConcurrentHashMap<>();
+        final int workers = Math.max(options.getInt("bc.server.batch-workers"), 1);
+
+        try (PrintStream results = new PrintStream(
+                new FileOutputStream(new File(outputDir, "results.tsv")), true)) {
+            results.println("team-a\tteam-b\tmaps\tseed\twinner\ta-wins\tb-wins\treplay");
+
+            final List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < workers; i++) {
+                final Server server = new Server(options, gameQueue, teamFactories, results);
+                // Queued behind every game, so each server stops once they're all taken
+                server.terminateNotification();
+                final Thread thread = new Thread(server, "batch-server-" + i);
+                thread.start();
+                threads.add(thread);
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            return true;
+        } catch (Exception e) {
+            ErrorReporter.report(e, true);
+            return false;
+        }
+    }
+
     public static Config setupConfig(String[] args) {
         try {
             Config options = new Config(args);
@@ -107,6 +176,8 @@ public class Main {
         switch (mode) {
             case HEADLESS:
                 return runHeadless(options);
+            case BATCH:
+                return runBatch(options);
             default:
                 return false;
         }
@@ -4,13 +4,23 @@ import battlecode.common.GameConstants;
 import battlecode.common.RobotInfo;
 import battlecode.common.RobotType;
 import battlecode.common.Team;
+import battlecode.instrumenter.TeamClassLoaderFactory;
 import battlecode.world.*;
 import battlecode.world.control.*;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Runs matches. Specifically, this class forms a pipeline connecting match and
@@ -50,6 +60,52 @@ public strictfp class Server implements Runnable {
      */
     private GameWorld currentWorld;
 
+    /**
+     * How many rounds apart to save checkpoints of a game, or 0 not to.
+     */
+    private final int checkpointInterval;
+
+    /**
+     * How many matches of a game to run at once.
+     */
+    private final int parallelMatches;
+
+    /**
+     * The class loader factories of the teams, by team URL, shared with the
+     * other servers of a batch so that each team is instrumented once; or
+     * null to instrument the teams afresh for every game.
+     */
+    private final Map<String, TeamClassLoaderFactory> teamFactories;
+
+    /**
+     * Where to write a result line for every game, or null not to.
+     */
+    private final PrintStream results;
+
+    /**
+     * A match run ahead of time, recorded by its own detached GameMaker.
+     */
+    private static final class ConcurrentMatch {
+        final GameMaker gameMaker;
+        final Future<Team> winner;
+        final AtomicBoolean cancelled;
+
+        ConcurrentMatch(GameMaker gameMaker, Future<Team> winner, AtomicBoolean cancelled) {
+            this.gameMaker = gameMaker;
+            this.winner = winner;
+            this.cancelled = cancelled;
+        }
+
+        /**
+         * Stops the match: it won't start if it hasn't yet, and stops at the
+         * end of its current round if it's running.
+         */
+        void cancel() {
+            cancelled.set(true);
+            winner.cancel(false);
+        }
+    }
+
 
     /**
      * The server's mode affects how notifications are handled, whether or not
@@ -58,6 +114,7 @@ public strictfp class Server implements Runnable {
      */
     public enum Mode {
         HEADLESS,
+        BATCH,
     }
 
     /**
@@ -68,12 +125,38 @@ public strictfp class Server implements Runnable {
      *                    match run state
      */
     public Server(Config options, boolean interactive) {
-        this.gameQueue = new LinkedBlockingQueue<>();
+        this(options, interactive, new LinkedBlockingQueue<>(), null, null);
+    }
+
+    /**
+     * Initializes a new non-interactive server for a batch of games, which
+     * takes its games from a queue shared with the other servers of the
+     * batch. A game that fails doesn't stop the server; it goes on to the
+     * next one.
+     *
+     * @param options the configuration to use
+     * @param gameQueue the queue of games to run
+     * @param teamFactories the class loader factories of the teams, by team
+     *                      URL, to share between the servers
+     * @param results where to write a result line for every game
+     */
+    Server(Config options, BlockingQueue<GameInfo> gameQueue,
+           Map<String, TeamClassLoaderFactory> teamFactories, PrintStream results) {
+        this(options, false, gameQueue, teamFactories, results);
+    }
+
+    private Server(Config options, boolean interactive, BlockingQueue<GameInfo> gameQueue,
+                   Map<String, TeamClassLoaderFactory> teamFactories, PrintStream results) {
+        this.gameQueue = gameQueue;
+        this.teamFactories = teamFactories;
+        this.results = results;
 
         this.interactive = interactive;
 
         this.options = options;
         this.state = ServerState.NOT_READY;
+        this.checkpointInterval = options.getInt("bc.server.checkpoint-interval");
+        this.parallelMatches = Math.max(options.getInt("bc.server.parallel-matches"), 1);
     }
 
     // ******************************
@@ -127,6 +210,7 @@ public strictfp class Server implements Runnable {
             netServer = null;
         }
 
+        games:
         while (true) {
             final GameInfo currentGame;
             debug("Awaiting match");
@@ -148,8 +232,25 @@ public strictfp class Server implements Runnable {
                 return;
             }
 
-            GameMaker gameMaker = new GameMaker(currentGame, netServer, options.getBoolean("bc.engine.show-indicators"));
-            gameMaker.makeGameHeader();
+            final boolean showIndicators = options.getBoolean("bc.engine.show-indicators");
+            final GameCheckpoint checkpoint = readCheckpoint(currentGame);
+            GameMaker gameMaker;
+            if (checkpoint != null) {
+                try {
+                    gameMaker = checkpoint.restoreGameMaker(currentGame, netServer, showIndicators);
+                } catch (IOException e) {
+                    ErrorReporter.report(e);
+                    this.state = ServerState.ERROR;
+                    if (results != null) {
+                        writeResult(currentGame, null, 0, 0);
+                        continue;
+                    }
+                    return;
+                }
+            } else {
+                gameMaker = new GameMaker(currentGame, netServer, showIndicators);
+                gameMaker.makeGameHeader();
+            }
 
             debug("Running: "+currentGame);
 
@@ -159,16 +260,51 @@ public strictfp class Server implements Runnable {
 
             // Count wins
             int aWins = 0, bWins = 0;
+            int firstMatchIndex = 0;
+            if (checkpoint != null) {
+                aWins = checkpoint.getAWins();
+                bWins = checkpoint.getBWins();
+                firstMatchIndex = checkpoint.getMatchIndex();
+            }
+
+            // Run the matches ahead of time, all at once, if asked to; not
+            // if they're to be checkpointed, which they can't be while
+            // running that way
+            ExecutorService matchPool = null;
+            List<ConcurrentMatch> concurrentMatches = null;
+            if (parallelMatches > 1 && !interactive && checkpointInterval <= 0 && currentGame.getMaps().length > 1) {
+                matchPool = Executors.newFixedThreadPool(Math.min(parallelMatches, currentGame.getMaps().length));
+                concurrentMatches = startMatches(currentGame, matchPool, profilingEnabled, showIndicators);
+                this.state = ServerState.RUNNING;
+            }
 
             // Loop through the maps in the current game
-            for (int matchIndex = 0; matchIndex < currentGame.getMaps().length; matchIndex++) {
+            for (int matchIndex = firstMatchIndex; matchIndex < currentGame.getMaps().length; matchIndex++) {
 
                 Team winner;
                 try {
-                    winner = runMatch(currentGame, matchIndex, prov, gameMaker);
+                    if (concurrentMatches != null) {
+                        // Add the matches to the game in order, as they finish
+                        ConcurrentMatch match = concurrentMatches.get(matchIndex);
+                        winner = match.winner.get();
+                        gameMaker.appendMatches(match.gameMaker);
+                    } else {
+                        GameWorld resumedWorld = null;
+                        if (checkpoint != null && matchIndex == firstMatchIndex) {
+                            resumedWorld = checkpoint.restoreWorld(prov, gameMaker.getMatchMaker());
+                        }
+                        winner = runMatch(currentGame, matchIndex, aWins, bWins, prov, gameMaker, resumedWorld);
+                    }
                 } catch (Exception e) {
-                    ErrorReporter.report(e);
+                    ErrorReporter.report(e instanceof ExecutionException ? e.getCause() : e);
                     this.state = ServerState.ERROR;
+                    if (matchPool != null) {
+                        cancelMatches(concurrentMatches, matchPool);
+                    }
+                    if (results != null) {
+                        writeResult(currentGame, null, aWins, bWins);
+                        continue games;
+                    }
                     return;
                 }
 
@@ -190,10 +326,179 @@ public strictfp class Server implements Runnable {
                         break;
                     }
                 }
+
+                if (matchIndex + 1 < currentGame.getMaps().length) {
+                    writeCheckpoint(currentGame, matchIndex + 1, aWins, bWins, gameMaker, null);
+                }
+            }
+            if (matchPool != null) {
+                // Stop any matches a best of three didn't need
+                cancelMatches(concurrentMatches, matchPool);
+                this.state = ServerState.FINISHED;
             }
             Team winner = aWins >= bWins ? Team.A : Team.B;
             gameMaker.makeGameFooter(winner);
             gameMaker.writeGame(currentGame.getSaveFile());
+            if (checkpointInterval > 0) {
+                GameCheckpoint.delete(currentGame);
+            }
+            if (results != null) {
+                writeResult(currentGame, winner, aWins, bWins);
+            }
+        }
+    }
+
+    /**
+     * Writes the result line of a game: the teams, maps and seed, then the
+     * winner, the matches each team won, and the replay file. The columns
+     * are separated by tabs.
+     *
+     * @param winner the winner of the game, or null if it failed to run
+     */
+    private void writeResult(GameInfo game, Team winner, int aWins, int bWins) {
+        final String winnerName;
+        if (winner == Team.A) {
+            winnerName = game.getTeamAName();
+        } else if (winner == Team.B) {
+            winnerName = game.getTeamBName();
+        } else {
+            winnerName = "ERROR";
+        }
+        results.println(String.join("\t",
+                game.getTeamAName(),
+                game.getTeamBName(),
+                String.join(",", game.getMaps()),
+                game.getSeed() != null ? game.getSeed().toString() : "-",
+                winnerName,
+                Integer.toString(aWins),
+                Integer.toString(bWins),
+                game.getSaveFile().getPath()));
+    }
+
+    /**
+     * Starts running every match of a game on a pool of threads, each with
+     * its own detached GameMaker and control provider.
+     *
+     * @return the matches, in map order
+     */
+    private List<ConcurrentMatch> startMatches(GameInfo game, ExecutorService matchPool,
+                                               boolean profilingEnabled, boolean showIndicators) {
+        List<ConcurrentMatch> matches = new ArrayList<>();
+        for (int matchIndex = 0; matchIndex < game.getMaps().length; matchIndex++) {
+            final int index = matchIndex;
+            final GameMaker detached = GameMaker.createDetached(game, showIndicators);
+            final AtomicBoolean cancelled = new AtomicBoolean();
+            matches.add(new ConcurrentMatch(detached,
+                    matchPool.submit(() -> runDetachedMatch(game, index, detached, profilingEnabled, cancelled)),
+                    cancelled));
+        }
+        return matches;
+    }
+
+    /**
+     * Cancels every match of a game that is still waiting or running, and
+     * shuts down their pool.
+     */
+    private void cancelMatches(List<ConcurrentMatch> matches, ExecutorService matchPool) {
+        for (ConcurrentMatch match : matches) {
+            match.cancel();
+        }
+        matchPool.shutdown();
+    }
+
+    /**
+     * Runs a match on its own, without pausing or checkpoints.
+     *
+     * @param cancelled set to stop the match between rounds
+     * @return the winner of the match, or null if it was cancelled
+     * @throws Exception if the match fails to run for some reason
+     */
+    private Team runDetachedMatch(GameInfo game, int matchIndex, GameMaker detached,
+                                  boolean profilingEnabled, AtomicBoolean cancelled) throws Exception {
+        final String mapName = game.getMaps()[matchIndex];
+        final LiveMap loadedMap = loadMap(game, mapName);
+
+        final RobotControlProvider prov = createControlProvider(game, detached, profilingEnabled);
+        final GameWorld world = new GameWorld(loadedMap, prov, detached.getMatchMaker());
+        validateMapOnGameConstants(world.getGameMap());
+
+        long startTime = System.currentTimeMillis();
+        while (!GameState.DONE.equals(world.runRound())) {
+            if (cancelled.get()) {
+                // Nobody needs the rest of the match; stop its players
+                world.abandon();
+                debug(String.format("match on %s cancelled", mapName));
+                return null;
+            }
+        }
+
+        synchronized (this) {
+            say("-------------------- Match Finished --------------------");
+            say(String.format("%s vs. %s on %s", game.getTeamAPackage(), game.getTeamBPackage(), mapName));
+            say(getWinnerString(game, world.getWinner(), world.getCurrentRound(), world.getGameStats()));
+        }
+
+        double timeDiff = (System.currentTimeMillis() - startTime) / 1000.0;
+        debug(String.format("match completed in %.4g seconds", timeDiff));
+        return world.getWinner();
+    }
+
+    /**
+     * Loads one of the maps of a game, with the game's seed if it has one.
+     *
+     * @return the map
+     * @throws IOException if the map can't be loaded
+     */
+    private LiveMap loadMap(GameInfo game, String mapName) throws IOException {
+        final LiveMap loadedMap;
+
+        try {
+            loadedMap = GameMapIO.loadMap(mapName, new File(options.get("bc.game.map-path")));
+        } catch (IOException e) {
+            warn("Couldn't load map " + mapName + ", skipping");
+            throw e;
+        }
+
+        if (game.getSeed() != null) {
+            return new LiveMap(loadedMap, game.getSeed());
+        }
+        return loadedMap;
+    }
+
+    /**
+     * @return the saved checkpoint of a game to resume it from, or null to
+     *         run it from the start
+     */
+    private GameCheckpoint readCheckpoint(GameInfo game) {
+        if (checkpointInterval <= 0) {
+            return null;
+        }
+        try {
+            GameCheckpoint checkpoint = GameCheckpoint.read(game);
+            if (checkpoint != null) {
+                say("Resuming from checkpoint " + GameCheckpoint.getFile(game)
+                        + "; players restart on the restored match");
+            }
+            return checkpoint;
+        } catch (IOException e) {
+            warn("Couldn't read checkpoint " + GameCheckpoint.getFile(game) + ", starting over: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Saves a checkpoint of a game, if checkpoints are enabled. Failing to
+     * save one doesn't stop the game.
+     */
+    private void writeCheckpoint(GameInfo game, int matchIndex, int aWins, int bWins,
+                                 GameMaker gameMaker, GameWorld world) {
+        if (checkpointInterval <= 0) {
+            return;
+        }
+        try {
+            GameCheckpoint.write(game, matchIndex, aWins, bWins, gameMaker, world);
+        } catch (IOException e) {
+            warn("Couldn't write checkpoint " + GameCheckpoint.getFile(game) + ": " + e);
         }
     }
     
@@ -236,29 +541,34 @@ public strictfp class Server implements Runnable {
     }
 
     /**
+     * @param aWins the matches won by team A before this one, to checkpoint
+     * @param bWins the matches won by team B before this one, to checkpoint
+     * @param resumedWorld the world of the match restored from a checkpoint,
+     *                     or null to start the match from its map
      * @return the winner of the match
      * @throws Exception if the match fails to run for some reason
      */
     private Team runMatch(GameInfo currentGame,
                           int matchIndex,
+                          int aWins,
+                          int bWins,
                           RobotControlProvider prov,
-                          GameMaker gameMaker) throws Exception {
+                          GameMaker gameMaker,
+                          GameWorld resumedWorld) throws Exception {
 
         final String mapName = currentGame.getMaps()[matchIndex];
-        final LiveMap loadedMap;
 
-        try {
-            loadedMap = GameMapIO.loadMap(mapName, new File(options.get("bc.game.map-path")));
-        } catch (IOException e) {
-            warn("Couldn't load map " + mapName + ", skipping");
-            throw e;
-        }
+        if (resumedWorld != null) {
+            currentWorld = resumedWorld;
+        } else {
+            final LiveMap loadedMap = loadMap(currentGame, mapName);
 
-        // Create the game world!
-        currentWorld = new GameWorld(loadedMap, prov, gameMaker.getMatchMaker());
-        
-        // Validate the map
-        validateMapOnGameConstants(currentWorld.getGameMap());
+            // Create the game world!
+            currentWorld = new GameWorld(loadedMap, prov, gameMaker.getMatchMaker());
+
+            // Validate the map
+            validateMapOnGameConstants(currentWorld.getGameMap());
+        }
 
         // Get started
         if (interactive) {
@@ -294,6 +604,11 @@ public strictfp class Server implements Runnable {
                         break;
                     }
 
+                    if (checkpointInterval > 0 && currentWorld.isRunning()
+                            && currentWorld.getCurrentRound() % checkpointInterval == 0) {
+                        writeCheckpoint(currentGame, matchIndex, aWins, bWins, gameMaker, currentWorld);
+                    }
+
                     break;
 
                 case PAUSED:
@@ -335,7 +650,7 @@ public strictfp class Server implements Runnable {
                 new PlayerControlProvider(
                     Team.A,
                     game.getTeamAPackage(),
-                    game.getTeamAURL(),
+                    getTeamFactory(game.getTeamAURL()),
                     gameMaker.getMatchMaker().getOut(),
                     profilingEnabled
                 )
@@ -345,7 +660,7 @@ public strictfp class Server implements Runnable {
                 new PlayerControlProvider(
                     Team.B,
                     game.getTeamBPackage(),
-                    game.getTeamBURL(),
+                    getTeamFactory(game.getTeamBURL()),
                     gameMaker.getMatchMaker().getOut(),
                     profilingEnabled
                 )
@@ -357,6 +672,19 @@ public strictfp class Server implements Runnable {
         return teamProvider;
     }
 
+    /**
+     * @param teamURL the URL of the classes of a team
+     * @return the class loader factory for the team, which shares its
+     *         caches with the other games of the batch if this server is
+     *         part of one
+     */
+    private TeamClassLoaderFactory getTeamFactory(String teamURL) {
+        if (teamFactories == null || teamURL == null) {
+            return new TeamClassLoaderFactory(teamURL);
+        }
+        return teamFactories.computeIfAbsent(teamURL, TeamClassLoaderFactory::new).forGame();
+    }
+
     // ******************************
     // ***** GETTER METHODS *********
     // ******************************
@@ -374,6 +702,10 @@ public strictfp class Server implements Runnable {
      * @return A string representing the match's winner.
      */
     public String getWinnerString(GameInfo game, Team winner, int roundNumber) {
+        return getWinnerString(game, winner, roundNumber, currentWorld.getGameStats());
+    }
+
+    private String getWinnerString(GameInfo game, Team winner, int roundNumber, GameStats stats) {
 
         String teamName;
 
@@ -397,7 +729,6 @@ public strictfp class Server implements Runnable {
         sb.append(" wins (round ").append(roundNumber).append(")");
 
         sb.append("\nReason: ");
-        GameStats stats = currentWorld.getGameStats();
         DominationFactor dom = stats.getDominationFactor();
 
         switch (dom) {
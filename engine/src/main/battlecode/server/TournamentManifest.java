@@ -0,0 +1,162 @@
+package battlecode.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Reads the games of a batch from a manifest: a text file, or a directory
+ * of them, that declares the teams and then the games between them.
+ *
+ * Blank lines and lines starting with # are ignored. Every other line is
+ * one of:
+ *
+ * <pre>
+ * team &lt;name&gt; &lt;url&gt; [package]
+ * game &lt;team a&gt; &lt;team b&gt; &lt;map[,map...]&gt; [seed...]
+ * </pre>
+ *
+ * A team's package defaults to its name. A game with several seeds is run
+ * once for each seed, and a game without any with the seeds of its maps.
+ * Teams may be declared in any file of a directory, and used in any other.
+ * A game can't be listed twice with the same seed, or twice without one,
+ * since it would be saved to the same replay.
+ */
+final class TournamentManifest {
+
+    private TournamentManifest() {}
+
+    /**
+     * A team declared in a manifest.
+     */
+    private static final class TeamEntry {
+        final String name;
+        final String url;
+        final String packageName;
+
+        TeamEntry(String name, String url, String packageName) {
+            this.name = name;
+            this.url = url;
+            this.packageName = packageName;
+        }
+    }
+
+    /**
+     * Reads the games of a manifest.
+     *
+     * @param manifest the manifest file, or a directory whose files are read
+     *                 in order of name
+     * @param outputDir the directory to save the replays of the games to
+     * @param bestOfThree whether games on three maps are best of three
+     * @return the games, in the order they are listed
+     * @throws IOException if the manifest can't be read or is malformed
+     */
+    static List<GameInfo> read(File manifest, File outputDir, boolean bestOfThree) throws IOException {
+        final List<File> files = new ArrayList<>();
+        if (manifest.isDirectory()) {
+            File[] children = manifest.listFiles();
+            if (children == null) {
+                throw new IOException("Can't list manifest directory " + manifest);
+            }
+            Arrays.sort(children);
+            for (File child : children) {
+                if (child.isFile() && !child.getName().startsWith(".")) {
+                    files.add(child);
+                }
+            }
+        } else {
+            files.add(manifest);
+        }
+
+        final Map<String, List<String>> lines = new LinkedHashMap<>();
+        for (File file : files) {
+            lines.put(file.getPath(), Files.readAllLines(file.toPath(), StandardCharsets.UTF_8));
+        }
+
+        // Declare every team before reading any game
+        final Map<String, TeamEntry> teams = new HashMap<>();
+        for (Map.Entry<String, List<String>> file : lines.entrySet()) {
+            for (int i = 0; i < file.getValue().size(); i++) {
+                final String[] words = split(file.getValue().get(i));
+                if (words.length == 0 || !words[0].equals("team")) {
+                    continue;
+                }
+                if (words.length < 3 || words.length > 4) {
+                    throw malformed(file.getKey(), i, "expected: team <name> <url> [package]");
+                }
+                final TeamEntry team = new TeamEntry(words[1], words[2], words.length == 4 ? words[3] : words[1]);
+                if (teams.put(team.name, team) != null) {
+                    throw malformed(file.getKey(), i, "team " + team.name + " is declared twice");
+                }
+            }
+        }
+
+        final List<GameInfo> games = new ArrayList<>();
+        final Set<String> replays = new HashSet<>();
+        for (Map.Entry<String, List<String>> file : lines.entrySet()) {
+            for (int i = 0; i < file.getValue().size(); i++) {
+                final String[] words = split(file.getValue().get(i));
+                if (words.length == 0 || words[0].equals("team")) {
+                    continue;
+                }
+                if (!words[0].equals("game")) {
+                    throw malformed(file.getKey(), i, "unknown directive " + words[0]);
+                }
+                if (words.length < 4) {
+                    throw malformed(file.getKey(), i, "expected: game <team a> <team b> <map[,map...]> [seed...]");
+                }
+                final TeamEntry a = teams.get(words[1]);
+                final TeamEntry b = teams.get(words[2]);
+                if (a == null || b == null) {
+                    throw malformed(file.getKey(), i, "undeclared team " + (a == null ? words[1] : words[2]));
+                }
+                final String[] maps = words[3].split(",");
+
+                final List<Integer> seeds = new ArrayList<>();
+                for (int j = 4; j < words.length; j++) {
+                    try {
+                        seeds.add(Integer.parseInt(words[j]));
+                    } catch (NumberFormatException e) {
+                        throw malformed(file.getKey(), i, "bad seed " + words[j]);
+                    }
+                }
+                if (seeds.isEmpty()) {
+                    seeds.add(null);
+                }
+
+                for (Integer seed : seeds) {
+                    String replay = a.name + "-vs-" + b.name + "-on-" + words[3];
+                    if (seed != null) {
+                        replay += "-seed-" + seed;
+                    }
+                    if (!replays.add(replay)) {
+                        throw malformed(file.getKey(), i, "game " + replay + " is listed twice");
+                    }
+                    games.add(new GameInfo(
+                            a.name, a.packageName, a.url,
+                            b.name, b.packageName, b.url,
+                            maps,
+                            new File(outputDir, replay + ".bc22"),
+                            bestOfThree && maps.length == 3,
+                            seed
+                    ));
+                }
+            }
+        }
+        return games;
+    }
+
+    private static String[] split(String line) {
+        final String trimmed = line.trim();
+        if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+            return new String[0];
+        }
+        return trimmed.split("\\s+");
+    }
+
+    private static IOException malformed(String file, int lineIndex, String message) {
+        return new IOException(file + ":" + (lineIndex + 1) + ": " + message);
+    }
+}
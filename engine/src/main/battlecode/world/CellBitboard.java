@@ -0,0 +1,179 @@
+package battlecode.world;
+
+import battlecode.common.MapLocation;
+
+/**
+ * A set of cells on a map, stored as bitboards.
+ *
+ * Each column of the map is packed into 64-bit words, with bit (y & 63) of
+ * word (x * wordsPerColumn + (y >>> 6)) set iff the cell at column x and row
+ * y, relative to the origin, is in the set. Columns rather than rows are
+ * packed so that walking set bits visits cells in increasing order of x and
+ * then y, the order range queries report them in.
+ */
+public final strictfp class CellBitboard {
+
+    private final MapLocation origin;
+    private final int width;
+    private final int height;
+    private final int wordsPerColumn;
+    private final long[] words;
+
+    public CellBitboard(MapLocation origin, int width, int height) {
+        this.origin = origin;
+        this.width = width;
+        this.height = height;
+        this.wordsPerColumn = (height + 63) >>> 6;
+        this.words = new long[width * wordsPerColumn];
+    }
+
+    /**
+     * Creates a copy of a set of cells.
+     *
+     * @param other the set to copy
+     */
+    public CellBitboard(CellBitboard other) {
+        this.origin = other.origin;
+        this.width = other.width;
+        this.height = other.height;
+        this.wordsPerColumn = other.wordsPerColumn;
+        this.words = other.words.clone();
+    }
+
+    /**
+     * @param col the column of the cell, relative to the origin
+     * @param row the row of the cell, relative to the origin
+     */
+    public boolean contains(int col, int row) {
+        return (this.words[col * wordsPerColumn + (row >>> 6)] & (1L << (row & 63))) != 0;
+    }
+
+    /**
+     * @param col the column of the cell, relative to the origin
+     * @param row the row of the cell, relative to the origin
+     */
+    public void add(int col, int row) {
+        this.words[col * wordsPerColumn + (row >>> 6)] |= 1L << (row & 63);
+    }
+
+    /**
+     * @param col the column of the cell, relative to the origin
+     * @param row the row of the cell, relative to the origin
+     */
+    public void remove(int col, int row) {
+        this.words[col * wordsPerColumn + (row >>> 6)] &= ~(1L << (row & 63));
+    }
+
+    /**
+     * Adds or removes a cell given its index in the map's row-major arrays.
+     *
+     * @param index the index of the cell
+     * @param present whether the cell should be in the set
+     */
+    public void set(int index, boolean present) {
+        if (present)
+            add(index % width, index / width);
+        else
+            remove(index % width, index / width);
+    }
+
+    /**
+     * @return the number of words covering one column of the map
+     */
+    public int getWordsPerColumn() {
+        return this.wordsPerColumn;
+    }
+
+    /**
+     * @param col a column of the map, relative to the origin
+     * @param word the word of the column, covering rows [64 * word, 64 * word + 63]
+     * @return the bits of the word
+     */
+    public long getWord(int col, int word) {
+        return this.words[col * wordsPerColumn + word];
+    }
+
+    /**
+     * Applies an operation to every cell in the set, in increasing order of
+     * x and then y.
+     *
+     * @param op the operation to apply; return false to stop iterating
+     */
+    public void forEach(LocationProcedure op) {
+        for (int col = 0; col < width; col++) {
+            for (int word = 0; word < wordsPerColumn; word++) {
+                long bits = getWord(col, word);
+                while (bits != 0) {
+                    int row = (word << 6) + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    if (!op.execute(origin.x + col, origin.y + row, col + row * width))
+                        return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies an operation to every cell in the set within a squared radius
+     * of a center, in increasing order of x and then y. The center does not
+     * need to be on the map.
+     *
+     * @param center the center of the query
+     * @param radiusSquared the squared radius of the query
+     * @param op the operation to apply; return false to stop iterating
+     */
+    public void forEachWithinRadiusSquared(MapLocation center, int radiusSquared, LocationProcedure op) {
+        if (radiusSquared < 0)
+            return;
+        for (int col = 0; col < width; col++) {
+            long rows = rowRange(origin, height, col, center, radiusSquared);
+            if (rows < 0)
+                continue;
+            int minRow = (int) (rows >>> 32), maxRow = (int) rows;
+            for (int word = minRow >>> 6; word <= maxRow >>> 6; word++) {
+                long bits = getWord(col, word) & rowMask(word, minRow, maxRow);
+                while (bits != 0) {
+                    int row = (word << 6) + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    if (!op.execute(origin.x + col, origin.y + row, col + row * width))
+                        return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the rows of a column of a map within a squared radius of a center.
+     *
+     * @param origin the origin of the map
+     * @param height the height of the map
+     * @param col the column, relative to the origin
+     * @param center the center of the query
+     * @param radiusSquared the squared radius of the query, non-negative
+     * @return the rows, relative to the origin, packed as
+     *         (minRow << 32) | maxRow, or -1 if there are none
+     */
+    static long rowRange(MapLocation origin, int height, int col, MapLocation center, int radiusSquared) {
+        long dx = (long) origin.x + col - center.x;
+        long remaining = radiusSquared - dx * dx;
+        if (remaining < 0)
+            return -1;
+        long dy = (long) Math.sqrt(remaining);
+        while (dy * dy > remaining) dy--;
+        while ((dy + 1) * (dy + 1) <= remaining) dy++;
+        long minRow = Math.max(0, (long) center.y - origin.y - dy);
+        long maxRow = Math.min(height - 1, (long) center.y - origin.y + dy);
+        if (minRow > maxRow)
+            return -1;
+        return (minRow << 32) | maxRow;
+    }
+
+    /**
+     * @return the bits of a word of a column that lie in rows [minRow, maxRow]
+     */
+    static long rowMask(int word, int minRow, int maxRow) {
+        int lo = Math.max(minRow - (word << 6), 0);
+        int hi = Math.min(maxRow - (word << 6), 63);
+        return (-1L >>> (63 - hi)) & (-1L << lo);
+    }
+}
@@ -2,6 +2,10 @@ package battlecode.world;
 
 import battlecode.common.Team;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
 /**
  * Class to hold any game stats desired for a specific match
  * such as winner and domination factor
@@ -16,6 +20,40 @@ public class GameStats {
         this.dominationFactor = null;
     }
 
+    /**
+     * Creates a copy of another GameStats.
+     *
+     * @param other the stats to copy
+     */
+    public GameStats(GameStats other) {
+        this.winner = other.winner;
+        this.dominationFactor = other.dominationFactor;
+    }
+
+    /**
+     * Reads GameStats from a checkpoint written by write().
+     *
+     * @param in the checkpoint
+     * @throws IOException if the checkpoint can't be read
+     */
+    GameStats(DataInputStream in) throws IOException {
+        int winner = in.readByte();
+        int dominationFactor = in.readByte();
+        this.winner = winner < 0 ? null : Team.values()[winner];
+        this.dominationFactor = dominationFactor < 0 ? null : DominationFactor.values()[dominationFactor];
+    }
+
+    /**
+     * Writes these stats to a checkpoint.
+     *
+     * @param out the checkpoint
+     * @throws IOException if the checkpoint can't be written
+     */
+    void write(DataOutputStream out) throws IOException {
+        out.writeByte(winner == null ? -1 : winner.ordinal());
+        out.writeByte(dominationFactor == null ? -1 : dominationFactor.ordinal());
+    }
+
     public void setWinner(Team t) {
         winner = t;
     }
@@ -8,7 +8,11 @@ import battlecode.server.GameMaker;
 import battlecode.server.GameState;
 import battlecode.world.control.RobotControlProvider;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The primary implementation of the GameWorld interface for containing and
@@ -31,7 +35,21 @@ public strictfp class GameWorld {
     private int[] rubble;
     private int[] lead;
     private int[] gold;
-    private InternalRobot[][] robots;
+    /**
+     * How many worlds, this one and its forks or the world it was forked
+     * from, use each resource array. Worlds sharing an array share its
+     * count, and a world copies an array used by others before its first
+     * write, leaving the others one fewer to share it with.
+     */
+    private AtomicInteger rubbleUsers = new AtomicInteger(1);
+    private AtomicInteger leadUsers = new AtomicInteger(1);
+    private AtomicInteger goldUsers = new AtomicInteger(1);
+    /**
+     * The cells holding any lead or gold, so that sensing and regrowth only
+     * visit cells with resources.
+     */
+    private final CellBitboard leadCells;
+    private final CellBitboard goldCells;
     private final LiveMap gameMap;
     private final TeamInfo teamInfo;
     private final ObjectInfo objectInfo;
@@ -47,7 +65,10 @@ public strictfp class GameWorld {
         this.rubble = gm.getRubbleArray();
         this.lead = gm.getLeadArray();
         this.gold = new int[this.lead.length];
-        this.robots = new InternalRobot[gm.getWidth()][gm.getHeight()]; // if represented in cartesian, should be height-width, but this should allow us to index x-y
+        this.leadCells = new CellBitboard(gm.getOrigin(), gm.getWidth(), gm.getHeight());
+        this.goldCells = new CellBitboard(gm.getOrigin(), gm.getWidth(), gm.getHeight());
+        for (int i = 0; i < this.lead.length; i++)
+            this.leadCells.set(i, this.lead[i] > 0);
         this.currentRound = 0;
         this.idGenerator = new IDGenerator(gm.getSeed());
         this.gameStats = new GameStats();
@@ -67,7 +88,7 @@ public strictfp class GameWorld {
         RobotInfo[] initialBodies = this.gameMap.getInitialBodies();
         for (int i = 0; i < initialBodies.length; i++) {
             RobotInfo robot = initialBodies[i];
-            MapLocation newLocation = robot.location.translate(gm.getOrigin().x, gm.getOrigin().y);
+            MapLocation newLocation = gm.getLocation(robot.location.x + gm.getOrigin().x, robot.location.y + gm.getOrigin().y);
             spawnRobot(robot.ID, robot.type, newLocation, robot.team);
         }
         this.teamInfo = new TeamInfo(this);
@@ -82,6 +103,153 @@ public strictfp class GameWorld {
         this.matchMaker.makeMatchHeader(this.gameMap);
     }
 
+    /**
+     * Creates a fork of another world; see fork().
+     */
+    private GameWorld(GameWorld source, RobotControlProvider cp, GameMaker.MatchMaker matchMaker) {
+        this.rubble = source.rubble;
+        this.lead = source.lead;
+        this.gold = source.gold;
+        this.rubbleUsers = source.rubbleUsers;
+        this.leadUsers = source.leadUsers;
+        this.goldUsers = source.goldUsers;
+        this.rubbleUsers.incrementAndGet();
+        this.leadUsers.incrementAndGet();
+        this.goldUsers.incrementAndGet();
+        this.leadCells = new CellBitboard(source.leadCells);
+        this.goldCells = new CellBitboard(source.goldCells);
+        this.currentRound = source.currentRound;
+        this.running = source.running;
+        this.idGenerator = new IDGenerator(source.idGenerator);
+        this.gameStats = new GameStats(source.gameStats);
+
+        this.gameMap = new LiveMap(source.gameMap, this.rubble, this.lead);
+        this.objectInfo = new ObjectInfo(source.objectInfo, this);
+
+        this.profilerCollections = new HashMap<>();
+
+        this.controlProvider = cp;
+        this.rand = StateIO.copyRandom(source.rand);
+        this.matchMaker = matchMaker;
+        this.teamInfo = new TeamInfo(this, source.teamInfo);
+
+        startPlayers();
+    }
+
+    /**
+     * Restores a world from a checkpoint; see readCheckpoint().
+     */
+    private GameWorld(DataInputStream in, RobotControlProvider cp, GameMaker.MatchMaker matchMaker) throws IOException {
+        this.rubble = StateIO.readInts(in);
+        this.lead = StateIO.readInts(in);
+        this.gold = StateIO.readInts(in);
+        this.gameMap = new LiveMap(in, this.rubble, this.lead);
+        if (this.gold.length != this.lead.length)
+            throw new IOException("Checkpoint resources don't match its map");
+        this.leadCells = new CellBitboard(gameMap.getOrigin(), gameMap.getWidth(), gameMap.getHeight());
+        this.goldCells = new CellBitboard(gameMap.getOrigin(), gameMap.getWidth(), gameMap.getHeight());
+        for (int i = 0; i < this.lead.length; i++) {
+            this.leadCells.set(i, this.lead[i] > 0);
+            this.goldCells.set(i, this.gold[i] > 0);
+        }
+
+        this.currentRound = in.readInt();
+        this.running = in.readBoolean();
+        this.idGenerator = new IDGenerator(in);
+        this.gameStats = new GameStats(in);
+
+        this.objectInfo = new ObjectInfo(this.gameMap, in, this);
+
+        this.profilerCollections = new HashMap<>();
+
+        this.controlProvider = cp;
+        this.rand = StateIO.readRandom(in);
+        this.matchMaker = matchMaker;
+        this.teamInfo = new TeamInfo(this, in);
+
+        startPlayers();
+    }
+
+    /**
+     * Hands every robot to the control provider as newly spawned, for a
+     * world that didn't start from its map.
+     */
+    private void startPlayers() {
+        controlProvider.matchStarted(this);
+        objectInfo.eachDynamicBodyByExecOrder((robot) -> {
+            controlProvider.robotSpawned(robot);
+            return true;
+        });
+    }
+
+    /**
+     * Creates an independent copy of this world in its current state, which
+     * can be run on without affecting this world, and vice versa. The copy
+     * is cheap: the map-sized rubble, lead and gold arrays are shared until
+     * either world writes to them, and only the remaining, much smaller
+     * state is copied up front.
+     *
+     * The state of player code can't be copied, so the fork's robots are
+     * handed to the given control provider as newly spawned and start their
+     * players afresh. Robots are run in the same order in both worlds, but
+     * iteration in ID hash order (as by getAllRobots) may differ.
+     *
+     * No match header is written; call matchMaker.makeMatchHeader with the
+     * fork's map to record the fork as a match starting from this state.
+     *
+     * Must not be called while a round is running.
+     *
+     * @param cp the control provider for the fork's robots
+     * @param matchMaker the match maker to record the fork with
+     * @return the fork
+     */
+    public synchronized GameWorld fork(RobotControlProvider cp, GameMaker.MatchMaker matchMaker) {
+        return new GameWorld(this, cp, matchMaker);
+    }
+
+    /**
+     * Writes the state of this world to a checkpoint, from which
+     * readCheckpoint() can restore it in a later run. Must not be called
+     * while a round is running.
+     *
+     * Like a fork, a checkpoint doesn't include the state of player code,
+     * and iteration in ID hash order may differ in the restored world.
+     *
+     * @param out the checkpoint
+     * @throws IOException if the checkpoint can't be written
+     */
+    public synchronized void writeCheckpoint(DataOutputStream out) throws IOException {
+        StateIO.writeInts(out, this.rubble);
+        StateIO.writeInts(out, this.lead);
+        StateIO.writeInts(out, this.gold);
+        this.gameMap.write(out);
+
+        out.writeInt(this.currentRound);
+        out.writeBoolean(this.running);
+        this.idGenerator.write(out);
+        this.gameStats.write(out);
+        this.objectInfo.write(out);
+        StateIO.writeRandom(out, this.rand);
+        this.teamInfo.write(out);
+    }
+
+    /**
+     * Restores a world from a checkpoint written by writeCheckpoint(). The
+     * restored robots are handed to the control provider as newly spawned,
+     * and start their players afresh. No match header is written; the match
+     * is expected to continue a replay that already has one.
+     *
+     * @param in the checkpoint
+     * @param cp the control provider for the restored robots
+     * @param matchMaker the match maker to record the rest of the match with
+     * @return the restored world
+     * @throws IOException if the checkpoint can't be read
+     */
+    public static GameWorld readCheckpoint(DataInputStream in, RobotControlProvider cp,
+                                           GameMaker.MatchMaker matchMaker) throws IOException {
+        return new GameWorld(in, cp, matchMaker);
+    }
+
     /**
      * Run a single round of the game.
      *
@@ -116,6 +284,7 @@ public strictfp class GameWorld {
         } catch (Exception e) {
             ErrorReporter.report(e);
             // TODO throw out file?
+            closeProfilers();
             return GameState.DONE;
         }
         // Write out round data
@@ -201,16 +370,69 @@ public strictfp class GameWorld {
         return this.lead[locationToIndex(loc)];
     }
 
+    /**
+     * @param index the index of the location, as given by locationToIndex
+     */
+    public int getLead(int index) {
+        return this.lead[index];
+    }
+
     public void setLead(MapLocation loc, int amount) {
-        this.lead[locationToIndex(loc)] = amount;
+        setLead(locationToIndex(loc), amount);
+    }
+
+    private void setLead(int index, int amount) {
+        writableLead()[index] = amount;
+        this.leadCells.set(index, amount > 0);
     }
 
     public int getGold(MapLocation loc) {
         return this.gold[locationToIndex(loc)];
     }
 
+    /**
+     * @param index the index of the location, as given by locationToIndex
+     */
+    public int getGold(int index) {
+        return this.gold[index];
+    }
+
     public void setGold(MapLocation loc, int amount) {
-        this.gold[locationToIndex(loc)] = amount;
+        setGold(locationToIndex(loc), amount);
+    }
+
+    private void setGold(int index, int amount) {
+        writableGold()[index] = amount;
+        this.goldCells.set(index, amount > 0);
+    }
+
+    private int[] writableRubble() {
+        if (this.rubbleUsers.get() > 1) {
+            this.rubble = this.rubble.clone();
+            this.rubbleUsers.decrementAndGet();
+            this.rubbleUsers = new AtomicInteger(1);
+            this.gameMap.setArrays(this.rubble, this.lead);
+        }
+        return this.rubble;
+    }
+
+    private int[] writableLead() {
+        if (this.leadUsers.get() > 1) {
+            this.lead = this.lead.clone();
+            this.leadUsers.decrementAndGet();
+            this.leadUsers = new AtomicInteger(1);
+            this.gameMap.setArrays(this.rubble, this.lead);
+        }
+        return this.lead;
+    }
+
+    private int[] writableGold() {
+        if (this.goldUsers.get() > 1) {
+            this.gold = this.gold.clone();
+            this.goldUsers.decrementAndGet();
+            this.goldUsers = new AtomicInteger(1);
+        }
+        return this.gold;
     }
 
     /**
@@ -228,8 +450,7 @@ public strictfp class GameWorld {
      * @param idx the index
      */
     public MapLocation indexToLocation(int idx) {
-        return new MapLocation(idx % this.gameMap.getWidth() + this.gameMap.getOrigin().x,
-                               idx / this.gameMap.getWidth() + this.gameMap.getOrigin().y);
+        return this.gameMap.getLocation(idx);
     }
 
     // ***********************************
@@ -237,7 +458,7 @@ public strictfp class GameWorld {
     // ***********************************
 
     public InternalRobot getRobot(MapLocation loc) {
-        return this.robots[loc.x - this.gameMap.getOrigin().x][loc.y - this.gameMap.getOrigin().y];
+        return this.objectInfo.getRobotAtLocation(loc);
     }
 
     public void moveRobot(MapLocation start, MapLocation end) {
@@ -246,54 +467,121 @@ public strictfp class GameWorld {
     }
 
     public void addRobot(MapLocation loc, InternalRobot robot) {
-        this.robots[loc.x - this.gameMap.getOrigin().x][loc.y - this.gameMap.getOrigin().y] = robot;
+        this.objectInfo.addRobotToLocation(loc, robot);
     }
 
     public void removeRobot(MapLocation loc) {
-        this.robots[loc.x - this.gameMap.getOrigin().x][loc.y - this.gameMap.getOrigin().y] = null;
+        this.objectInfo.removeRobotFromLocation(loc);
     }
 
     public InternalRobot[] getAllRobotsWithinRadiusSquared(MapLocation center, int radiusSquared) {
-        ArrayList<InternalRobot> returnRobots = new ArrayList<InternalRobot>();
-        for (MapLocation newLocation : getAllLocationsWithinRadiusSquared(center, radiusSquared))
-            if (getRobot(newLocation) != null)
-                returnRobots.add(getRobot(newLocation));
-        return returnRobots.toArray(new InternalRobot[returnRobots.size()]);
+        return getAllRobotsWithinRadiusSquared(center, radiusSquared, null);
+    }
+
+    /**
+     * @param team the team to find robots of, or null for all teams
+     * @return the robots within range, in increasing order of x and then y
+     */
+    public InternalRobot[] getAllRobotsWithinRadiusSquared(MapLocation center, int radiusSquared, Team team) {
+        return this.objectInfo.getAllRobotsWithinRadiusSquared(center, radiusSquared, team);
+    }
+
+    /**
+     * @param team the team to count robots of, or null for all teams
+     * @return the number of robots within range
+     */
+    public int countRobotsWithinRadiusSquared(MapLocation center, int radiusSquared, Team team) {
+        return this.objectInfo.countRobotsWithinRadiusSquared(center, radiusSquared, team);
+    }
+
+    /**
+     * @return all of the robots on the map, in increasing order of x and then y
+     */
+    private InternalRobot[] getAllRobots() {
+        return getAllRobotsWithinRadiusSquared(new MapLocation(0, 0), Integer.MAX_VALUE);
     }
 
     public MapLocation[] getAllLocationsWithinRadiusSquared(MapLocation center, int radiusSquared) {
-        return getAllLocationsWithinRadiusSquaredWithoutMap(
+        MapLocation[] returnLocations = new MapLocation[RadiusOffsets.countLocations(
+                this.gameMap.getOrigin(), this.gameMap.getWidth(), this.gameMap.getHeight(),
+                center, radiusSquared)];
+        int[] count = new int[1];
+        forEachLocationWithinRadiusSquared(center, radiusSquared, (x, y, index) -> {
+            returnLocations[count[0]++] = this.gameMap.getLocation(index);
+            return true;
+        });
+        return returnLocations;
+    }
+
+    public static MapLocation[] getAllLocationsWithinRadiusSquaredWithoutMap(MapLocation origin,
+                                                                            int width, int height,
+                                                                            MapLocation center, int radiusSquared) {
+        MapLocation[] returnLocations = new MapLocation[
+                RadiusOffsets.countLocations(origin, width, height, center, radiusSquared)];
+        int[] count = new int[1];
+        RadiusOffsets.forEachLocation(origin, width, height, center, radiusSquared, (x, y, index) -> {
+            returnLocations[count[0]++] = new MapLocation(x, y);
+            return true;
+        });
+        return returnLocations;
+    }
+
+    /**
+     * Applies an operation to every location on the map within a squared
+     * radius of a center, in increasing order of x and then y, without
+     * allocating.
+     *
+     * @param op the operation to apply; return false to stop iterating
+     */
+    public void forEachLocationWithinRadiusSquared(MapLocation center, int radiusSquared, LocationProcedure op) {
+        RadiusOffsets.forEachLocation(
             this.gameMap.getOrigin(),
             this.gameMap.getWidth(),
             this.gameMap.getHeight(),
-            center, radiusSquared
+            center, radiusSquared, op
         );
     }
 
-    public static MapLocation[] getAllLocationsWithinRadiusSquaredWithoutMap(MapLocation origin,
-                                                                            int width, int height,
-                                                                            MapLocation center, int radiusSquared) {
-        ArrayList<MapLocation> returnLocations = new ArrayList<MapLocation>();
-        int ceiledRadius = (int) Math.ceil(Math.sqrt(radiusSquared)) + 1; // add +1 just to be safe
-        int minX = Math.max(center.x - ceiledRadius, origin.x);
-        int minY = Math.max(center.y - ceiledRadius, origin.y);
-        int maxX = Math.min(center.x + ceiledRadius, origin.x + width - 1);
-        int maxY = Math.min(center.y + ceiledRadius, origin.y + height - 1);
-        for (int x = minX; x <= maxX; x++) {
-            for (int y = minY; y <= maxY; y++) {
-                MapLocation newLocation = new MapLocation(x, y);
-                if (center.isWithinDistanceSquared(newLocation, radiusSquared))
-                    returnLocations.add(newLocation);
-            }
+    /**
+     * Applies an operation to every location within a squared radius of a
+     * center holding at least a given amount of lead, in increasing order of
+     * x and then y. Only cells holding lead are visited unless minLead is
+     * not positive.
+     *
+     * @param op the operation to apply; return false to stop iterating
+     */
+    public void forEachLocationWithLeadWithinRadiusSquared(MapLocation center, int radiusSquared,
+                                                           int minLead, LocationProcedure op) {
+        if (minLead <= 0) {
+            forEachLocationWithinRadiusSquared(center, radiusSquared, op);
+            return;
         }
-        return returnLocations.toArray(new MapLocation[returnLocations.size()]);
+        this.leadCells.forEachWithinRadiusSquared(center, radiusSquared,
+            (x, y, index) -> this.lead[index] < minLead || op.execute(x, y, index));
     }
 
     /**
-     * @return all of the locations on the grid
+     * Applies an operation to every location within a squared radius of a
+     * center holding at least a given amount of gold.
+     *
+     * @see #forEachLocationWithLeadWithinRadiusSquared
      */
-    private MapLocation[] getAllLocations() {
-        return getAllLocationsWithinRadiusSquared(new MapLocation(0, 0), Integer.MAX_VALUE);
+    public void forEachLocationWithGoldWithinRadiusSquared(MapLocation center, int radiusSquared,
+                                                           int minGold, LocationProcedure op) {
+        if (minGold <= 0) {
+            forEachLocationWithinRadiusSquared(center, radiusSquared, op);
+            return;
+        }
+        this.goldCells.forEachWithinRadiusSquared(center, radiusSquared,
+            (x, y, index) -> this.gold[index] < minGold || op.execute(x, y, index));
+    }
+
+    /**
+     * Applies an operation to every location on the map, in increasing order
+     * of x and then y.
+     */
+    private void forEachLocation(LocationProcedure op) {
+        forEachLocationWithinRadiusSquared(new MapLocation(0, 0), Integer.MAX_VALUE, op);
     }
 
     /**
@@ -314,10 +602,7 @@ public strictfp class GameWorld {
         currentRound++;
 
         // Process beginning of each robot's round
-        objectInfo.eachRobot((robot) -> {
-            robot.processBeginningOfRound();
-            return true;
-        });
+        objectInfo.processBeginningOfRound();
     }
 
     public void setWinner(Team t, DominationFactor d) {
@@ -352,10 +637,9 @@ public strictfp class GameWorld {
         totalGoldValues[Team.A.ordinal()] += this.teamInfo.getGold(Team.A);
         totalGoldValues[Team.B.ordinal()] += this.teamInfo.getGold(Team.B);
         
-        // sum live robots worth
-        for (InternalRobot robot : objectInfo.robotsArray()) {
-            totalGoldValues[robot.getTeam().ordinal()] += robot.getType().getGoldWorth(robot.getLevel());
-        }
+        // add live robots worth
+        totalGoldValues[Team.A.ordinal()] += this.objectInfo.getRobotGoldWorth(Team.A);
+        totalGoldValues[Team.B.ordinal()] += this.objectInfo.getRobotGoldWorth(Team.B);
         if (totalGoldValues[0] > totalGoldValues[1]) {
             setWinner(Team.A, DominationFactor.MORE_GOLD_NET_WORTH);
             return true;
@@ -376,10 +660,9 @@ public strictfp class GameWorld {
         totalLeadValues[Team.A.ordinal()] += this.teamInfo.getLead(Team.A);
         totalLeadValues[Team.B.ordinal()] += this.teamInfo.getLead(Team.B);
 
-        // sum live robot worth
-        for (InternalRobot robot : objectInfo.robotsArray()) {
-            totalLeadValues[robot.getTeam().ordinal()] += robot.getType().getLeadWorth(robot.getLevel());
-        }
+        // add live robots worth
+        totalLeadValues[Team.A.ordinal()] += this.objectInfo.getRobotLeadWorth(Team.A);
+        totalLeadValues[Team.B.ordinal()] += this.objectInfo.getRobotLeadWorth(Team.B);
         if (totalLeadValues[0] > totalLeadValues[1]) {
             setWinner(Team.A, DominationFactor.MORE_LEAD_NET_WORTH);
             return true;
@@ -424,10 +707,13 @@ public strictfp class GameWorld {
         }
 
         // Add lead resources to the map
-        if (this.currentRound % GameConstants.ADD_LEAD_EVERY_ROUNDS == 0)
-            for (int i = 0; i < this.lead.length; i++)
-                if (this.lead[i] > 0)
-                    this.lead[i] += GameConstants.ADD_LEAD;
+        if (this.currentRound % GameConstants.ADD_LEAD_EVERY_ROUNDS == 0) {
+            int[] lead = writableLead();
+            this.leadCells.forEach((x, y, index) -> {
+                lead[index] += GameConstants.ADD_LEAD;
+                return true;
+            });
+        }
 
         this.matchMaker.addTeamInfo(Team.A, this.teamInfo.getRoundLeadChange(Team.A), this.teamInfo.getRoundGoldChange(Team.A));
         this.matchMaker.addTeamInfo(Team.B, this.teamInfo.getRoundLeadChange(Team.B), this.teamInfo.getRoundGoldChange(Team.B));
@@ -480,8 +766,9 @@ public strictfp class GameWorld {
         int leadDropped = robot.getType().getLeadDropped(robot.getLevel());
         int goldDropped = robot.getType().getGoldDropped(robot.getLevel());
 
-        this.lead[locationToIndex(robot.getLocation())] += leadDropped;
-        this.gold[locationToIndex(robot.getLocation())] += goldDropped;
+        int index = locationToIndex(robot.getLocation());
+        setLead(index, this.lead[index] + leadDropped);
+        setGold(index, this.gold[index] + goldDropped);
 
         this.matchMaker.addLeadDrop(robot.getLocation(), leadDropped);
         this.matchMaker.addGoldDrop(robot.getLocation(), goldDropped);
@@ -509,38 +796,54 @@ public strictfp class GameWorld {
         profilerCollections.put(team, profilerCollection);
     }
 
+    /**
+     * Discards what the teams have profiled, for a match whose footer won't
+     * be written.
+     */
+    private void closeProfilers() {
+        for (ProfilerCollection profilerCollection : profilerCollections.values()) {
+            profilerCollection.close();
+        }
+    }
+
+    /**
+     * Stops a match that won't be finished: ends its players, and discards
+     * what they've profiled, without writing the end of the match.
+     */
+    public synchronized void abandon() {
+        controlProvider.matchEnded();
+        closeProfilers();
+    }
+
     // *********************************
     // ********  ANOMALY  **************
     // *********************************
 
     /**
-     * Finds all of the locations that a given Sage can affect with an Anomaly.
+     * Finds all of the robots that a given Sage can affect with an Anomaly.
      * @param robot that is causing the anomaly; must be a Sage
-     * @return all of the locations that are within range of this sage
+     * @return all of the robots that are within range of this sage
      */
-    private MapLocation[] getSageActionLocations(InternalRobot robot) {
+    private InternalRobot[] getSageActionRobots(InternalRobot robot) {
         assert robot.getType() == RobotType.SAGE;
-        MapLocation center = robot.getLocation();
-        return getAllLocationsWithinRadiusSquared(center, robot.getType().actionRadiusSquared);
+        return getAllRobotsWithinRadiusSquared(robot.getLocation(), robot.getType().actionRadiusSquared);
     }
 
     /**
-     * Performs the Abyss anomaly. Changes the resources in the squares and the team.
+     * Performs the Abyss anomaly on a single location. Changes the resources in the square.
      * @param reduceFactor associated with anomaly (a decimal percentage)
-     * @param locations that can be affected by the Abyss
-     */
-    private void causeAbyssGridUpdate(float reduceFactor, MapLocation[] locations) {
-        for (int i = 0; i < locations.length; i++) {
-            int currentLead = getLead(locations[i]);
-            int leadUpdate = (int) (reduceFactor * currentLead);
-            setLead(locations[i], currentLead - leadUpdate);
-            if (leadUpdate != 0) this.matchMaker.addLeadDrop(locations[i], -leadUpdate);
-
-            int currentGold = getGold(locations[i]);
-            int goldUpdate = (int) (reduceFactor * currentGold);
-            setGold(locations[i], currentGold - goldUpdate);
-            if (goldUpdate != 0) this.matchMaker.addGoldDrop(locations[i], -goldUpdate);
-        }
+     * @param index the index of the location in the resource arrays
+     */
+    private void causeAbyssGridUpdate(float reduceFactor, int index) {
+        int currentLead = this.lead[index];
+        int leadUpdate = (int) (reduceFactor * currentLead);
+        setLead(index, currentLead - leadUpdate);
+        if (leadUpdate != 0) this.matchMaker.addLeadDrop(this.gameMap.getLocation(index), -leadUpdate);
+
+        int currentGold = this.gold[index];
+        int goldUpdate = (int) (reduceFactor * currentGold);
+        setGold(index, currentGold - goldUpdate);
+        if (goldUpdate != 0) this.matchMaker.addGoldDrop(this.gameMap.getLocation(index), -goldUpdate);
     }
 
     /**
@@ -550,14 +853,20 @@ public strictfp class GameWorld {
     public void causeAbyssSage(InternalRobot robot) {
         assert robot.getType() == RobotType.SAGE;
         // calculate the right effect range
-        this.causeAbyssGridUpdate(AnomalyType.ABYSS.sagePercentage, this.getSageActionLocations(robot));
+        this.forEachLocationWithinRadiusSquared(robot.getLocation(), robot.getType().actionRadiusSquared, (x, y, index) -> {
+            this.causeAbyssGridUpdate(AnomalyType.ABYSS.sagePercentage, index);
+            return true;
+        });
     }
 
     /**
      * Mutates state to perform the global Abyss anomaly.
      */
     public void causeAbyssGlobal() {
-        this.causeAbyssGridUpdate(AnomalyType.ABYSS.globalPercentage, this.getAllLocations());
+        this.forEachLocation((x, y, index) -> {
+            this.causeAbyssGridUpdate(AnomalyType.ABYSS.globalPercentage, index);
+            return true;
+        });
         
         this.teamInfo.addLead(Team.A, (int) (-1 * AnomalyType.ABYSS.globalPercentage * this.teamInfo.getLead(Team.A)));
         this.teamInfo.addLead(Team.B, (int) (-1 * AnomalyType.ABYSS.globalPercentage * this.teamInfo.getLead(Team.B)));
@@ -574,10 +883,10 @@ public strictfp class GameWorld {
     public void causeChargeSage(InternalRobot robot) {
         assert robot.getType() == RobotType.SAGE;
 
-        MapLocation[] actionLocations = this.getSageActionLocations(robot);
-        for (int i = 0; i < actionLocations.length; i++) {
-            InternalRobot currentRobot = getRobot(actionLocations[i]);
-            if (currentRobot != null && currentRobot.getTeam() != robot.getTeam() && currentRobot.getMode() == RobotMode.DROID)
+        InternalRobot[] affectedRobots = this.getSageActionRobots(robot);
+        for (int i = 0; i < affectedRobots.length; i++) {
+            InternalRobot currentRobot = affectedRobots[i];
+            if (currentRobot.getTeam() != robot.getTeam() && currentRobot.getMode() == RobotMode.DROID)
                 currentRobot.addHealth((int) (-1 * AnomalyType.CHARGE.sagePercentage * currentRobot.getType().getMaxHealth(currentRobot.getLevel())));
         }
     }
@@ -586,38 +895,63 @@ public strictfp class GameWorld {
      * Mutates state to peform the global Charge.
      */
     public void causeChargeGlobal() {
-        ArrayList<InternalRobot> droids = new ArrayList<InternalRobot>();
-        for (InternalRobot currentRobot : this.objectInfo.robotsArray()) {
+        InternalRobot[] robots = this.objectInfo.robotsArray();
+        int numDroids = 0;
+        int maxFriends = 0;
+        for (InternalRobot currentRobot : robots) {
             if (currentRobot.getMode() == RobotMode.DROID) {
-                droids.add(currentRobot);
-                currentRobot.updateNumVisibleFriendlyRobots();
+                numDroids++;
+                maxFriends = Math.max(maxFriends, currentRobot.updateNumVisibleFriendlyRobots());
             }
         }
-        Collections.sort(droids, new SortByFriends());
 
-        int affectedDroidsLimit = (int) (AnomalyType.CHARGE.globalPercentage * droids.size());
-        for (int i = 0; i < affectedDroidsLimit; i++) {
-            this.destroyRobot(droids.get(i).getID());
+        int affectedDroidsLimit = (int) (AnomalyType.CHARGE.globalPercentage * numDroids);
+        if (affectedDroidsLimit > 0) {
+            // Friend counts are bounded by the vision area, so bucket droids by
+            // count rather than sorting them. Droids with the most friends go
+            // first, ties in robotsArray() order as a stable sort would leave them.
+            int[] numDroidsWithFriends = new int[maxFriends + 1];
+            for (InternalRobot currentRobot : robots)
+                if (currentRobot.getMode() == RobotMode.DROID)
+                    numDroidsWithFriends[currentRobot.getNumVisibleFriendlyRobots(false)]++;
+
+            // Find the friend count the limit falls at: droids above it are all
+            // hit, and only the first few at it are
+            int threshold = maxFriends;
+            int remainingAtThreshold = affectedDroidsLimit;
+            while (numDroidsWithFriends[threshold] < remainingAtThreshold)
+                remainingAtThreshold -= numDroidsWithFriends[threshold--];
+
+            int[] nextSlot = new int[maxFriends + 1];
+            for (int friends = maxFriends, slot = 0; friends > threshold; friends--) {
+                nextSlot[friends] = slot;
+                slot += numDroidsWithFriends[friends];
+            }
+            nextSlot[threshold] = affectedDroidsLimit - remainingAtThreshold;
+
+            InternalRobot[] affectedDroids = new InternalRobot[affectedDroidsLimit];
+            for (InternalRobot currentRobot : robots) {
+                if (currentRobot.getMode() != RobotMode.DROID)
+                    continue;
+                int friends = currentRobot.getNumVisibleFriendlyRobots(false);
+                if (friends > threshold || (friends == threshold && remainingAtThreshold-- > 0))
+                    affectedDroids[nextSlot[friends]++] = currentRobot;
+            }
+            for (InternalRobot droid : affectedDroids)
+                this.destroyRobot(droid.getID());
         }
         this.matchMaker.addAction(-1, Action.CHARGE, -1);
     }
 
-    /** Used to sort droids for charge */
-    class SortByFriends implements Comparator<InternalRobot> {
-        public int compare(InternalRobot a, InternalRobot b) {
-            return b.getNumVisibleFriendlyRobots(false) - a.getNumVisibleFriendlyRobots(false);
-        }
-    }
-
     /**
      * Performs the Fury anomaly. Changes the health of the relevant robots.
      * @param reduceFactor associated with anomaly (a decimal percentage)
-     * @param locations that can be affected by the Fury (by radius, not by state of robot)
+     * @param robots that can be affected by the Fury (by radius, not by state of robot)
      */
-    public void causeFuryUpdate(float reduceFactor, MapLocation[] locations) {
-        for (int i = 0; i < locations.length; i++) {
-            InternalRobot robot = this.getRobot(locations[i]);
-            if (robot != null && robot.getMode() == RobotMode.TURRET) {
+    public void causeFuryUpdate(float reduceFactor, InternalRobot[] robots) {
+        for (int i = 0; i < robots.length; i++) {
+            InternalRobot robot = robots[i];
+            if (robot.getMode() == RobotMode.TURRET) {
                 robot.addHealth((int) (-1 * robot.getType().getMaxHealth(robot.getLevel()) * reduceFactor), false);
             }
         }
@@ -642,18 +976,19 @@ public strictfp class GameWorld {
      */
     public void causeFurySage(InternalRobot robot) {
         assert robot.getType() == RobotType.SAGE;
-        this.causeFuryUpdate(AnomalyType.FURY.sagePercentage, this.getSageActionLocations(robot));
+        this.causeFuryUpdate(AnomalyType.FURY.sagePercentage, this.getSageActionRobots(robot));
     }
 
     /**
      * Mutates state to peform the global Fury.
      */
     public void causeFuryGlobal() {
-        this.causeFuryUpdate(AnomalyType.FURY.globalPercentage, this.getAllLocations());
+        this.causeFuryUpdate(AnomalyType.FURY.globalPercentage, this.getAllRobots());
         this.matchMaker.addAction(-1, Action.FURY, -1);
     }
 
     private void rotateRubble() {
+        writableRubble();
         int n = this.gameMap.getWidth();
         for (int x = 0; x < n / 2; x++) {
             for (int y = 0; y < (n + 1) / 2; y++) {
@@ -674,6 +1009,7 @@ public strictfp class GameWorld {
     }
 
     private void flipRubbleHorizontally() {
+        writableRubble();
         int w = this.gameMap.getWidth();
         int h = this.gameMap.getHeight();
         for (int x = 0; x < w / 2; x++) {
@@ -689,6 +1025,7 @@ public strictfp class GameWorld {
     }
 
     private void flipRubbleVertically() {
+        writableRubble();
         int w = this.gameMap.getWidth();
         int h = this.gameMap.getHeight();
         for (int y = 0; y < h / 2; y++) {
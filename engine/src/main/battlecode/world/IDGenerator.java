@@ -1,5 +1,8 @@
 package battlecode.world;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.Random;
 
 /**
@@ -52,6 +55,44 @@ public class IDGenerator {
         setStart(MIN_ID);
     }
 
+    /**
+     * Create a generator that will hand out the same IDs as another.
+     *
+     * @param other the generator to copy
+     */
+    public IDGenerator(IDGenerator other) {
+        this.random = StateIO.copyRandom(other.random);
+        this.reservedIDs = other.reservedIDs.clone();
+        this.cursor = other.cursor;
+        this.nextIDBlock = other.nextIDBlock;
+    }
+
+    /**
+     * Create a generator from a checkpoint written by write().
+     *
+     * @param in the checkpoint
+     * @throws IOException if the checkpoint can't be read
+     */
+    IDGenerator(DataInputStream in) throws IOException {
+        this.random = StateIO.readRandom(in);
+        this.reservedIDs = StateIO.readInts(in);
+        this.cursor = in.readInt();
+        this.nextIDBlock = in.readInt();
+    }
+
+    /**
+     * Writes the state of this generator to a checkpoint.
+     *
+     * @param out the checkpoint
+     * @throws IOException if the checkpoint can't be written
+     */
+    void write(DataOutputStream out) throws IOException {
+        StateIO.writeRandom(out, this.random);
+        StateIO.writeInts(out, this.reservedIDs);
+        out.writeInt(this.cursor);
+        out.writeInt(this.nextIDBlock);
+    }
+
     /**
      * @return a new ID
      */
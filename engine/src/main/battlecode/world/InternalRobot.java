@@ -21,26 +21,23 @@ public strictfp class InternalRobot implements Comparable<InternalRobot> {
     private final int ID;
     private Team team;
     private RobotType type;
-    private MapLocation location;
-    private int level;
-    private RobotMode mode;
-    private int health;
 
-    private long controlBits;
-    private int currentBytecodeLimit;
-    private int bytecodesUsed;
-
-    private int roundsAlive;
-    private int actionCooldownTurns;
-    private int movementCooldownTurns;
-    private int numVisibleFriendlyRobots;
+    /**
+     * The rest of this robot's state is held in the world's RobotStateStore,
+     * at this slot.
+     */
+    private final RobotStateStore store;
+    private final int slot;
 
     /**
      * Used to avoid recreating the same RobotInfo object over and over.
      */
     private RobotInfo cachedRobotInfo;
 
-    private String indicatorString;
+    /**
+     * This robot's slot in the execution order, maintained by ObjectInfo.
+     */
+    private int execOrderIndex;
 
     /**
      * Create a new internal representation of a robot
@@ -54,37 +51,64 @@ public strictfp class InternalRobot implements Comparable<InternalRobot> {
     public InternalRobot(GameWorld gw, int id, RobotType type, MapLocation loc, Team team) {
         this.gameWorld = gw;
 
+        this.store = gw.getObjectInfo().getRobotStates();
+        this.slot = store.allocate();
+
         this.ID = id;
         this.team = team;
         this.type = type;
-        this.location = loc;
-        this.level = 1;
+        store.location[slot] = loc;
+        store.level[slot] = 1;
 
         if (this.type == RobotType.ARCHON) {
-            this.mode = RobotMode.TURRET;
+            setMode(RobotMode.TURRET);
         } else if (this.type.isBuilding()) {
-            this.mode = RobotMode.PROTOTYPE;
+            setMode(RobotMode.PROTOTYPE);
         } else {
-            this.mode = RobotMode.DROID;
+            setMode(RobotMode.DROID);
         }
 
-        this.health = this.type.getMaxHealth(this.level);
-        if (this.mode == RobotMode.PROTOTYPE) {
-            int newHealth = (int) (GameConstants.PROTOTYPE_HP_PERCENTAGE * this.health);
-            this.gameWorld.getMatchMaker().addAction(getID(), Action.CHANGE_HEALTH, newHealth - this.health);
-            this.health = newHealth;
+        store.health[slot] = this.type.getMaxHealth(store.level[slot]);
+        if (getMode() == RobotMode.PROTOTYPE) {
+            int newHealth = (int) (GameConstants.PROTOTYPE_HP_PERCENTAGE * store.health[slot]);
+            this.gameWorld.getMatchMaker().addAction(getID(), Action.CHANGE_HEALTH, newHealth - store.health[slot]);
+            store.health[slot] = newHealth;
         }
 
-        this.controlBits = 0;
-        this.currentBytecodeLimit = type.bytecodeLimit;
-        this.bytecodesUsed = 0;
+        store.controlBits[slot] = 0;
+        store.currentBytecodeLimit[slot] = type.bytecodeLimit;
+        store.bytecodesUsed[slot] = 0;
+
+        store.roundsAlive[slot] = 0;
+        store.actionCooldownTurns[slot] = 0;
+        store.movementCooldownTurns[slot] = 0;
+        store.numVisibleFriendlyRobots[slot] = 0;
+
+        store.indicatorString[slot] = "";
+
+        this.controller = new RobotControllerImpl(gameWorld, this);
+    }
+
+    /**
+     * Create a view of a robot whose state is already in a RobotStateStore,
+     * for a forked world or one restored from a checkpoint.
+     *
+     * @param gw the world the robot exists in
+     * @param store the world's state store
+     * @param slot the robot's slot in the store
+     * @param id the ID of the robot
+     * @param type the type of the robot
+     * @param team the team of the robot
+     */
+    InternalRobot(GameWorld gw, RobotStateStore store, int slot, int id, RobotType type, Team team) {
+        this.gameWorld = gw;
 
-        this.roundsAlive = 0;
-        this.actionCooldownTurns = 0;
-        this.movementCooldownTurns = 0;
-        this.numVisibleFriendlyRobots = 0;
+        this.store = store;
+        this.slot = slot;
 
-        this.indicatorString = "";
+        this.ID = id;
+        this.team = team;
+        this.type = type;
 
         this.controller = new RobotControllerImpl(gameWorld, this);
     }
@@ -114,60 +138,60 @@ public strictfp class InternalRobot implements Comparable<InternalRobot> {
     }
 
     public MapLocation getLocation() {
-        return location;
+        return store.location[slot];
     }
 
     public int getLevel() {
-        return level;
+        return store.level[slot];
     }
 
     public RobotMode getMode() {
-        return mode;
+        return RobotStateStore.MODES[store.mode[slot]];
     }
 
     public int getHealth() {
-        return health;
+        return store.health[slot];
     }
 
     public long getControlBits() {
-        return controlBits;
+        return store.controlBits[slot];
     }
 
     public int getBytecodesUsed() {
-        return bytecodesUsed;
+        return store.bytecodesUsed[slot];
     }
 
     public int getRoundsAlive() {
-        return roundsAlive;
+        return store.roundsAlive[slot];
     }
 
     public int getActionCooldownTurns() {
-        return actionCooldownTurns;
+        return store.actionCooldownTurns[slot];
     }
 
     public int getMovementCooldownTurns() {
-        return movementCooldownTurns;
+        return store.movementCooldownTurns[slot];
     }
 
     public int getTransformCooldownTurns() {
-        if (this.mode == RobotMode.TURRET)
-            return this.actionCooldownTurns;
-        if (this.mode == RobotMode.PORTABLE)
-            return this.movementCooldownTurns;
+        if (getMode() == RobotMode.TURRET)
+            return store.actionCooldownTurns[slot];
+        if (getMode() == RobotMode.PORTABLE)
+            return store.movementCooldownTurns[slot];
         return -1;
     }
 
     public int getNumVisibleFriendlyRobots(boolean update) {
         if (update) updateNumVisibleFriendlyRobots();
-        return this.numVisibleFriendlyRobots;
+        return store.numVisibleFriendlyRobots[slot];
     }
 
     public int getLeadMutateCost() {
-        return this.type.getLeadMutateCost(this.level + 1);
+        return this.type.getLeadMutateCost(store.level[slot] + 1);
     }
 
     public int getGoldMutateCost() {
-        return this.type.getGoldMutateCost(this.level + 1);
+        return this.type.getGoldMutateCost(store.level[slot] + 1);
     }
 
     public RobotInfo getRobotInfo() {
@@ -175,14 +199,14 @@ public strictfp class InternalRobot implements Comparable<InternalRobot> {
                 && cachedRobotInfo.ID == ID
                 && cachedRobotInfo.team == team
                 && cachedRobotInfo.type == type
-                && cachedRobotInfo.mode == mode
-                && cachedRobotInfo.level == level
-                && cachedRobotInfo.health == health
-                && cachedRobotInfo.location.equals(location)) {
+                && cachedRobotInfo.mode == getMode()
+                && cachedRobotInfo.level == getLevel()
+                && cachedRobotInfo.health == getHealth()
+                && cachedRobotInfo.location.equals(getLocation())) {
             return cachedRobotInfo;
         }
 
-        this.cachedRobotInfo = new RobotInfo(ID, team, type, mode, level, health, location);
+        this.cachedRobotInfo = new RobotInfo(ID, team, type, getMode(), getLevel(), getHealth(), getLocation());
         return this.cachedRobotInfo;
     }
 
@@ -194,24 +218,24 @@ public strictfp class InternalRobot implements Comparable<InternalRobot> {
      * Returns whether the robot can perform actions, based on mode and cooldowns.
      */
     public boolean canActCooldown() {
-        return this.mode.canAct && this.actionCooldownTurns < GameConstants.COOLDOWN_LIMIT;
+        return getMode().canAct && store.actionCooldownTurns[slot] < GameConstants.COOLDOWN_LIMIT;
     }
 
     /**
      * Returns whether the robot can move, based on mode and cooldowns.
      */
     public boolean canMoveCooldown() {
-        return this.mode.canMove && this.movementCooldownTurns < GameConstants.COOLDOWN_LIMIT;
+        return getMode().canMove && store.movementCooldownTurns[slot] < GameConstants.COOLDOWN_LIMIT;
     }
 
     /**
      * Returns whether the robot can transform, based on mode and cooldowns.
      */
     public boolean canTransformCooldown() {
-        if (this.mode == RobotMode.TURRET)
-            return this.actionCooldownTurns < GameConstants.COOLDOWN_LIMIT;
-        if (this.mode == RobotMode.PORTABLE)
-            return this.movementCooldownTurns < GameConstants.COOLDOWN_LIMIT;
+        if (getMode() == RobotMode.TURRET)
+            return store.actionCooldownTurns[slot] < GameConstants.COOLDOWN_LIMIT;
+        if (getMode() == RobotMode.PORTABLE)
+            return store.movementCooldownTurns[slot] < GameConstants.COOLDOWN_LIMIT;
         return false;
     }
 
@@ -228,7 +252,7 @@ public strictfp class InternalRobot implements Comparable<InternalRobot> {
      * @param toAct the MapLocation to act
      */
     public boolean canActLocation(MapLocation toAct) {
-        return this.location.distanceSquaredTo(toAct) <= getActionRadiusSquared();
+        return store.location[slot].distanceSquaredTo(toAct) <= getActionRadiusSquared();
     }
 
     /**
@@ -253,7 +277,7 @@ public strictfp class InternalRobot implements Comparable<InternalRobot> {
      * @param toSense the MapLocation to sense
      */
     public boolean canSenseLocation(MapLocation toSense) {
-        return this.location.distanceSquaredTo(toSense) <= getVisionRadiusSquared();
+        return store.location[slot].distanceSquaredTo(toSense) <= getVisionRadiusSquared();
     }
 
     /**
@@ -269,9 +293,9 @@ public strictfp class InternalRobot implements Comparable<InternalRobot> {
      * @return whether this robot can mutate
      */
     public boolean canMutate() {
-        if (this.mode == RobotMode.DROID || this.mode == RobotMode.PROTOTYPE)
+        if (getMode() == RobotMode.DROID || getMode() == RobotMode.PROTOTYPE)
             return false;
-        if (this.level == GameConstants.MAX_LEVEL)
+        if (store.level[slot] == GameConstants.MAX_LEVEL)
             return false;
         return true;
     }
@@ -286,7 +310,7 @@ public strictfp class InternalRobot implements Comparable<InternalRobot> {
      * @param string the new indicator string of the robot
      */
     public void setIndicatorString(String string) {
-        this.indicatorString = string;
+        store.indicatorString[slot] = string;
     }
 
     /**
@@ -295,24 +319,42 @@ public strictfp class InternalRobot implements Comparable<InternalRobot> {
      * @param loc the new location of the robot
      */
     public void setLocation(MapLocation loc) {
-        this.gameWorld.getObjectInfo().moveRobot(this, loc);
-        this.location = loc;
+        store.location[slot] = loc;
+    }
+
+    private void setMode(RobotMode mode) {
+        store.mode[slot] = (byte) mode.ordinal();
+    }
+
+    /**
+     * @return this robot's slot in the world's RobotStateStore
+     */
+    int getSlot() {
+        return slot;
+    }
+
+    int getExecOrderIndex() {
+        return execOrderIndex;
+    }
+
+    void setExecOrderIndex(int execOrderIndex) {
+        this.execOrderIndex = execOrderIndex;
     }
 
     /**
      * Resets the action cooldown.
      */
     public void addActionCooldownTurns(int numActionCooldownToAdd) {
-        int newActionCooldownTurns = this.gameWorld.getCooldownWithMultiplier(numActionCooldownToAdd, this.location);
-        setActionCooldownTurns(this.actionCooldownTurns + newActionCooldownTurns);
+        int newActionCooldownTurns = this.gameWorld.getCooldownWithMultiplier(numActionCooldownToAdd, store.location[slot]);
+        setActionCooldownTurns(store.actionCooldownTurns[slot] + newActionCooldownTurns);
     }
 
     /**
      * Resets the movement cooldown.
      */
     public void addMovementCooldownTurns(int numMovementCooldownToAdd) {
-        int newMovementCooldownTurns = this.gameWorld.getCooldownWithMultiplier(numMovementCooldownToAdd, this.location);
-        setMovementCooldownTurns(this.movementCooldownTurns + newMovementCooldownTurns);
+        int newMovementCooldownTurns = this.gameWorld.getCooldownWithMultiplier(numMovementCooldownToAdd, store.location[slot]);
+        setMovementCooldownTurns(store.movementCooldownTurns[slot] + newMovementCooldownTurns);
     }
 
     /**
@@ -321,7 +363,7 @@ public strictfp class InternalRobot implements Comparable<InternalRobot> {
      * @param newActionTurns the number of action cooldown turns
      */
     public void setActionCooldownTurns(int newActionTurns) {
-        this.actionCooldownTurns = newActionTurns;
+        store.actionCooldownTurns[slot] = newActionTurns;
     }
 
     /**
@@ -330,7 +372,7 @@ public strictfp class InternalRobot implements Comparable<InternalRobot> {
      * @param newMovementTurns the number of movement cooldown turns
      */
     public void setMovementCooldownTurns(int newMovementTurns) {
-        this.movementCooldownTurns = newMovementTurns;
+        store.movementCooldownTurns[slot] = newMovementTurns;
     }
 
     public void addHealth(int healthAmount) {
@@ -344,20 +386,20 @@ public strictfp class InternalRobot implements Comparable<InternalRobot> {
      * @param checkArchonDeath whether to end the game if an Archon dies
      */
     public void addHealth(int healthAmount, boolean checkArchonDeath) {
-        int oldHealth = this.health;
-        this.health += healthAmount;
-        int maxHealth = this.type.getMaxHealth(this.level);
-        if (this.health >= maxHealth) {
-            this.health = maxHealth;
-            if (this.mode == RobotMode.PROTOTYPE) {
-                this.mode = RobotMode.TURRET;
+        int oldHealth = store.health[slot];
+        store.health[slot] += healthAmount;
+        int maxHealth = this.type.getMaxHealth(store.level[slot]);
+        if (store.health[slot] >= maxHealth) {
+            store.health[slot] = maxHealth;
+            if (getMode() == RobotMode.PROTOTYPE) {
+                setMode(RobotMode.TURRET);
                 this.gameWorld.getMatchMaker().addAction(getID(), Action.FULLY_REPAIRED, -1);
             }
         }
-        if (this.health <= 0) {
+        if (store.health[slot] <= 0) {
             this.gameWorld.destroyRobot(this.ID, checkArchonDeath);
-        } else if (this.health != oldHealth) {
-            this.gameWorld.getMatchMaker().addAction(getID(), Action.CHANGE_HEALTH, this.health - oldHealth);
+        } else if (store.health[slot] != oldHealth) {
+            this.gameWorld.getMatchMaker().addAction(getID(), Action.CHANGE_HEALTH, store.health[slot] - oldHealth);
         }
     }
 
@@ -370,10 +412,10 @@ public strictfp class InternalRobot implements Comparable<InternalRobot> {
      * Assumes that cooldown is sufficient.
      */
     public void transform() {
-        if (this.mode == RobotMode.TURRET) {
-            this.mode = RobotMode.PORTABLE;
+        if (getMode() == RobotMode.TURRET) {
+            setMode(RobotMode.PORTABLE);
         } else {
-            this.mode = RobotMode.TURRET;
+            setMode(RobotMode.TURRET);
         }
     }
 
@@ -382,10 +424,11 @@ public strictfp class InternalRobot implements Comparable<InternalRobot> {
      */
     public void mutate() {
         if (!canMutate()) return;
-        this.level++;
-        int healthIncrease = this.type.getMaxHealth(this.level) - this.type.getMaxHealth(this.level - 1);
+        store.level[slot]++;
+        this.gameWorld.getObjectInfo().mutateRobot(this);
+        int healthIncrease = this.type.getMaxHealth(store.level[slot]) - this.type.getMaxHealth(store.level[slot] - 1);
         this.gameWorld.getMatchMaker().addAction(getID(), Action.CHANGE_HEALTH, healthIncrease);
-        this.health += healthIncrease;
+        store.health[slot] += healthIncrease;
     }
 
     /**
@@ -394,7 +437,7 @@ public strictfp class InternalRobot implements Comparable<InternalRobot> {
      * @param bot the robot to be attacked
      */
     public void attack(InternalRobot bot) {
-        int dmg = this.type.getDamage(this.level);
+        int dmg = this.type.getDamage(store.level[slot]);
         bot.addHealth(-dmg);
     }
 
@@ -404,7 +447,7 @@ public strictfp class InternalRobot implements Comparable<InternalRobot> {
      * @param bot the robot to be healed
      */
     public void heal(InternalRobot bot) {
-        int healingAmount = this.type.getHealing(this.level);
+        int healingAmount = this.type.getHealing(store.level[slot]);
         bot.addHealth(healingAmount);
     }
 
@@ -412,23 +455,18 @@ public strictfp class InternalRobot implements Comparable<InternalRobot> {
     // ****** GAMEPLAY METHODS *********
     // *********************************
 
-    // should be called at the beginning of every round
-    public void processBeginningOfRound() {
-        this.indicatorString = "";
-    }
-
     public void processBeginningOfTurn() {
-        this.actionCooldownTurns = Math.max(0, this.actionCooldownTurns - GameConstants.COOLDOWNS_PER_TURN);
-        this.movementCooldownTurns = Math.max(0, this.movementCooldownTurns - GameConstants.COOLDOWNS_PER_TURN);
-        this.currentBytecodeLimit = getType().bytecodeLimit;
+        store.actionCooldownTurns[slot] = Math.max(0, store.actionCooldownTurns[slot] - GameConstants.COOLDOWNS_PER_TURN);
+        store.movementCooldownTurns[slot] = Math.max(0, store.movementCooldownTurns[slot] - GameConstants.COOLDOWNS_PER_TURN);
+        store.currentBytecodeLimit[slot] = getType().bytecodeLimit;
     }
 
     public void processEndOfTurn() {
         // bytecode stuff!
-        this.gameWorld.getMatchMaker().addBytecodes(this.ID, this.bytecodesUsed);
+        this.gameWorld.getMatchMaker().addBytecodes(this.ID, store.bytecodesUsed[slot]);
         // indicator strings!
-        this.gameWorld.getMatchMaker().addIndicatorString(this.ID, this.indicatorString);
-        this.roundsAlive++;
+        this.gameWorld.getMatchMaker().addIndicatorString(this.ID, store.indicatorString[slot]);
+        store.roundsAlive[slot]++;
     }
 
     public void processEndOfRound() {
@@ -445,11 +483,11 @@ public strictfp class InternalRobot implements Comparable<InternalRobot> {
     }
 
     public void setBytecodesUsed(int numBytecodes) {
-        this.bytecodesUsed = numBytecodes;
+        store.bytecodesUsed[slot] = numBytecodes;
     }
 
     public int getBytecodeLimit() {
-        return canExecuteCode() ? this.currentBytecodeLimit : 0;
+        return canExecuteCode() ? store.currentBytecodeLimit[slot] : 0;
     }
 
     // *********************************
@@ -469,7 +507,9 @@ public strictfp class InternalRobot implements Comparable<InternalRobot> {
      * @return the number of friendly robots within sensor (vision) radius.
      */
     public int updateNumVisibleFriendlyRobots() {
-        return this.numVisibleFriendlyRobots = this.controller.senseNearbyRobots(-1, getTeam()).length;
+        // Counting everything in vision of our own location includes ourselves
+        return store.numVisibleFriendlyRobots[slot] = this.gameWorld.countRobotsWithinRadiusSquared(
+                store.location[slot], getVisionRadiusSquared(), getTeam()) - 1;
     }
 
     @Override
@@ -490,8 +530,8 @@ public strictfp class InternalRobot implements Comparable<InternalRobot> {
 
     @Override
     public int compareTo(InternalRobot o) {
-        if (this.roundsAlive != o.roundsAlive)
-            return this.roundsAlive - o.roundsAlive;
+        if (getRoundsAlive() != o.getRoundsAlive())
+            return getRoundsAlive() - o.getRoundsAlive();
         return this.ID - o.ID;
     }
 }
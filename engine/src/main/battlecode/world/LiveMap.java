@@ -2,6 +2,9 @@ package battlecode.world;
 
 import battlecode.common.*;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.*;
 
 /**
@@ -26,6 +29,12 @@ public strictfp class LiveMap {
      */
     private final MapLocation origin;
 
+    /**
+     * The canonical MapLocation of every cell on the map, indexed like the
+     * rubble and lead arrays. Handed out instead of allocating new ones.
+     */
+    private final MapLocation[] locations;
+
     /**
      * The symmetry of the map.
      */
@@ -39,7 +48,7 @@ public strictfp class LiveMap {
     /**
      * How much lead is on each square.
      */
-    private final int[] leadArray;
+    private int[] leadArray;
 
     /**
      * The random seed contained in the map file.
@@ -83,6 +92,7 @@ public strictfp class LiveMap {
         this.width = width;
         this.height = height;
         this.origin = origin;
+        this.locations = createLocations(origin, width, height);
         this.seed = seed;
         this.rounds = rounds;
         this.mapName = mapName;
@@ -113,6 +123,7 @@ public strictfp class LiveMap {
         this.width = width;
         this.height = height;
         this.origin = origin;
+        this.locations = createLocations(origin, width, height);
         this.seed = seed;
         this.rounds = rounds;
         this.mapName = mapName;
@@ -137,6 +148,14 @@ public strictfp class LiveMap {
         Arrays.sort(this.initialBodies, (a, b) -> Integer.compare(a.getID(), b.getID()));
     }
 
+    private static MapLocation[] createLocations(MapLocation origin, int width, int height) {
+        MapLocation[] locations = new MapLocation[width * height];
+        for (int y = 0; y < height; y++)
+            for (int x = 0; x < width; x++)
+                locations[x + y * width] = new MapLocation(origin.x + x, origin.y + y);
+        return locations;
+    }
+
     /**
      * Creates a deep copy of the input LiveMap, except initial bodies.
      *
@@ -147,6 +166,117 @@ public strictfp class LiveMap {
              gm.initialBodies, gm.rubbleArray, gm.leadArray, gm.anomalySchedule);
     }
 
+    /**
+     * Creates a deep copy of the input LiveMap with a different random seed,
+     * to run the same map under other random events.
+     *
+     * @param gm the LiveMap to copy.
+     * @param seed the seed of the copy.
+     */
+    public LiveMap(LiveMap gm, int seed) {
+        this(gm.width, gm.height, gm.origin, seed, gm.rounds, gm.mapName, gm.symmetry,
+             gm.initialBodies, gm.rubbleArray, gm.leadArray, gm.anomalySchedule);
+    }
+
+    /**
+     * Creates a copy of a LiveMap in the middle of a match, for a forked
+     * world. Unlike the copy constructor, upcoming anomalies are kept where
+     * they are, and the arrays are shared rather than copied; the worlds
+     * using them copy them before writing.
+     *
+     * @param gm the LiveMap to copy
+     * @param rubbleArray the rubble the copy should report
+     * @param leadArray the lead the copy should report
+     */
+    LiveMap(LiveMap gm, int[] rubbleArray, int[] leadArray) {
+        this.width = gm.width;
+        this.height = gm.height;
+        this.origin = gm.origin;
+        this.locations = gm.locations;
+        this.symmetry = gm.symmetry;
+        this.rubbleArray = rubbleArray;
+        this.leadArray = leadArray;
+        this.seed = gm.seed;
+        this.rounds = gm.rounds;
+        this.mapName = gm.mapName;
+        this.anomalySchedule = gm.anomalySchedule;
+        this.nextAnomalyIndex = gm.nextAnomalyIndex;
+        this.initialBodies = gm.initialBodies;
+    }
+
+    /**
+     * Reads a map from a checkpoint written by write(), in the middle of a
+     * match: anomalies that were taken stay taken.
+     *
+     * @param in the checkpoint
+     * @param rubbleArray the rubble the map should report
+     * @param leadArray the lead the map should report
+     * @throws IOException if the checkpoint can't be read
+     */
+    LiveMap(DataInputStream in, int[] rubbleArray, int[] leadArray) throws IOException {
+        this.width = in.readInt();
+        this.height = in.readInt();
+        this.origin = new MapLocation(in.readInt(), in.readInt());
+        this.locations = createLocations(origin, width, height);
+        this.seed = in.readInt();
+        this.rounds = in.readInt();
+        this.mapName = in.readUTF();
+        this.symmetry = MapSymmetry.values()[in.readByte()];
+        if (rubbleArray.length != width * height || leadArray.length != width * height)
+            throw new IOException("Checkpoint resources don't match its map");
+        this.rubbleArray = rubbleArray;
+        this.leadArray = leadArray;
+
+        this.initialBodies = new RobotInfo[in.readInt()];
+        for (int i = 0; i < this.initialBodies.length; i++) {
+            this.initialBodies[i] = new RobotInfo(in.readInt(), Team.values()[in.readByte()],
+                    RobotType.values()[in.readByte()], RobotMode.values()[in.readByte()],
+                    in.readInt(), in.readInt(), new MapLocation(in.readInt(), in.readInt()));
+        }
+        this.anomalySchedule = new AnomalyScheduleEntry[in.readInt()];
+        for (int i = 0; i < this.anomalySchedule.length; i++) {
+            this.anomalySchedule[i] = new AnomalyScheduleEntry(in.readInt(),
+                    AnomalyType.values()[in.readByte()]);
+        }
+        this.nextAnomalyIndex = in.readInt();
+    }
+
+    /**
+     * Writes this map to a checkpoint, except its rubble and lead, which the
+     * world writes as they are at the time.
+     *
+     * @param out the checkpoint
+     * @throws IOException if the checkpoint can't be written
+     */
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(width);
+        out.writeInt(height);
+        out.writeInt(origin.x);
+        out.writeInt(origin.y);
+        out.writeInt(seed);
+        out.writeInt(rounds);
+        out.writeUTF(mapName);
+        out.writeByte(symmetry.ordinal());
+
+        out.writeInt(initialBodies.length);
+        for (RobotInfo body : initialBodies) {
+            out.writeInt(body.ID);
+            out.writeByte(body.team.ordinal());
+            out.writeByte(body.type.ordinal());
+            out.writeByte(body.mode.ordinal());
+            out.writeInt(body.level);
+            out.writeInt(body.health);
+            out.writeInt(body.location.x);
+            out.writeInt(body.location.y);
+        }
+        out.writeInt(anomalySchedule.length);
+        for (AnomalyScheduleEntry entry : anomalySchedule) {
+            out.writeInt(entry.roundNumber);
+            out.writeByte(entry.anomalyType.ordinal());
+        }
+        out.writeInt(nextAnomalyIndex);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (!(o instanceof LiveMap)) return false;
@@ -257,10 +387,34 @@ public strictfp class LiveMap {
      *         false if it's not
      */
     public boolean onTheMap(MapLocation loc, int radius) {
-        return (onTheMap(loc.translate(-radius, 0)) &&
-                onTheMap(loc.translate(radius, 0)) &&
-                onTheMap(loc.translate(0, -radius)) &&
-                onTheMap(loc.translate(0, radius)));
+        return (onTheMap(loc.x - radius, loc.y) &&
+                onTheMap(loc.x + radius, loc.y) &&
+                onTheMap(loc.x, loc.y - radius) &&
+                onTheMap(loc.x, loc.y + radius));
+    }
+
+    /**
+     * Returns the MapLocation for a coordinate, shared for every location on
+     * the map; only locations off the map are allocated.
+     *
+     * @param x the x coordinate
+     * @param y the y coordinate
+     * @return the location
+     */
+    public MapLocation getLocation(int x, int y) {
+        if (!onTheMap(x, y))
+            return new MapLocation(x, y);
+        return this.locations[x - origin.x + (y - origin.y) * width];
+    }
+
+    /**
+     * Returns the shared MapLocation for a cell on the map.
+     *
+     * @param index the index of the cell, as in the rubble and lead arrays
+     * @return the location
+     */
+    public MapLocation getLocation(int index) {
+        return this.locations[index];
     }
 
     /**
@@ -312,6 +466,18 @@ public strictfp class LiveMap {
         return leadArray;
     }
 
+    /**
+     * Points the map at the arrays its world holds now, after the world
+     * copied them to write to them.
+     *
+     * @param rubbleArray the rubble the map should report
+     * @param leadArray the lead the map should report
+     */
+    void setArrays(int[] rubbleArray, int[] leadArray) {
+        this.rubbleArray = rubbleArray;
+        this.leadArray = leadArray;
+    }
+
     /**
      * @return a copy of the next Anomaly that hasn't happened yet.
      */
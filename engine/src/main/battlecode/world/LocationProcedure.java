@@ -0,0 +1,17 @@
+package battlecode.world;
+
+/**
+ * An operation applied to map locations while enumerating them, without
+ * allocating a MapLocation for each one.
+ */
+@FunctionalInterface
+public interface LocationProcedure {
+
+    /**
+     * @param x the x coordinate of the location
+     * @param y the y coordinate of the location
+     * @param index the index of the location in the map's row-major arrays
+     * @return false to stop iterating
+     */
+    boolean execute(int x, int y, int index);
+}
@@ -5,21 +5,17 @@ import battlecode.common.MapLocation;
 import battlecode.common.RobotType;
 import battlecode.common.Team;
 
-import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.map.hash.TIntObjectHashMap;
 import gnu.trove.procedure.TIntObjectProcedure;
 import gnu.trove.procedure.TIntProcedure;
 
 import gnu.trove.procedure.TObjectProcedure;
-import net.sf.jsi.SpatialIndex;
-import net.sf.jsi.rtree.RTree;
-import net.sf.jsi.Rectangle;
-import net.sf.jsi.Point;
 
-import java.util.ArrayList;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.EnumMap;
-import java.util.Map;
 
 
 /**
@@ -27,49 +23,196 @@ import java.util.Map;
  * in the game world.
  */
 public strictfp class ObjectInfo {
+    /**
+     * Marks an empty cell in the location index.
+     */
+    private static final int NO_ROBOT = -1;
+
     private final int mapWidth;
     private final int mapHeight;
     private final MapLocation mapTopLeft;
 
     private final TIntObjectHashMap<InternalRobot> gameRobotsByID;
 
-    private final SpatialIndex robotIndex;
+    /**
+     * The per-robot state behind every InternalRobot in the game.
+     */
+    private final RobotStateStore robotStates;
+
+    /**
+     * The ID of the robot on each cell of the map, or NO_ROBOT.
+     * Stored column-major (index = x * mapHeight + y) so that range queries
+     * walk memory in the same x-then-y order they report robots in.
+     */
+    private final int[] robotIDsByLocation;
+
+    /**
+     * The cells occupied by each team's robots, indexed by team.ordinal().
+     * Lets range queries skip empty cells and other teams' robots.
+     */
+    private final CellBitboard[] occupancy;
+
+    /**
+     * The robots in the order they take their turns, which is spawn order.
+     * Destroyed robots leave a null tombstone in their slot, so removal is
+     * O(1) and safe during iteration; slots are compacted once per round.
+     */
+    private InternalRobot[] dynamicBodyExecOrder;
+    private int dynamicBodyExecOrderSize;
+    private int dynamicBodyExecOrderTombstones;
 
-    private final TIntArrayList dynamicBodyExecOrder;
+    /**
+     * The number of robots of each team and type, indexed
+     * [team.ordinal()][type.ordinal()].
+     */
+    private final int[][] robotTypeCount = new int[Team.values().length][RobotType.values().length];
+    private final int[] robotCount = new int[Team.values().length];
 
-    private Map<Team, Map<RobotType, Integer>> robotTypeCount = new EnumMap<>(
-            Team.class);
-    private int[] robotCount = new int[3];
+    /**
+     * The summed lead and gold worth of each team's robots, indexed by
+     * team.ordinal(). Kept up to date on spawn, death and mutation so that
+     * net worth tiebreaks don't walk every robot.
+     */
+    private final int[] robotLeadWorth = new int[Team.values().length];
+    private final int[] robotGoldWorth = new int[Team.values().length];
 
     public ObjectInfo(LiveMap gm) {
+        this(gm, new RobotStateStore(64));
+    }
+
+    private ObjectInfo(LiveMap gm, RobotStateStore robotStates) {
         this.mapWidth = gm.getWidth();
         this.mapHeight = gm.getHeight();
         this.mapTopLeft = gm.getOrigin();
 
         this.gameRobotsByID = new TIntObjectHashMap<>();
+        this.robotStates = robotStates;
 
-        robotIndex = new RTree();
+        this.robotIDsByLocation = new int[mapWidth * mapHeight];
+        Arrays.fill(this.robotIDsByLocation, NO_ROBOT);
+        this.occupancy = new CellBitboard[Team.values().length];
+        for (int i = 0; i < this.occupancy.length; i++)
+            this.occupancy[i] = new CellBitboard(mapTopLeft, mapWidth, mapHeight);
+
+        dynamicBodyExecOrder = new InternalRobot[64];
+    }
+
+    /**
+     * Creates a copy of another world's object info for a fork of that world.
+     * Each robot is replaced by one bound to the fork, with the same ID, slot
+     * and place in the execution order.
+     *
+     * @param other the object info to copy
+     * @param world the forked world
+     */
+    ObjectInfo(ObjectInfo other, GameWorld world) {
+        this.mapWidth = other.mapWidth;
+        this.mapHeight = other.mapHeight;
+        this.mapTopLeft = other.mapTopLeft;
 
-        dynamicBodyExecOrder = new TIntArrayList();
+        this.gameRobotsByID = new TIntObjectHashMap<>();
+        this.robotStates = new RobotStateStore(other.robotStates);
 
-        robotIndex.init(null);
+        this.robotIDsByLocation = other.robotIDsByLocation.clone();
+        this.occupancy = new CellBitboard[other.occupancy.length];
+        for (int i = 0; i < this.occupancy.length; i++)
+            this.occupancy[i] = new CellBitboard(other.occupancy[i]);
 
-        robotTypeCount.put(Team.A, new EnumMap<>(
-                RobotType.class));
-        robotTypeCount.put(Team.B, new EnumMap<>(
-                RobotType.class));
-        robotTypeCount.put(Team.NEUTRAL, new EnumMap<>(
-                RobotType.class));
+        this.dynamicBodyExecOrder = new InternalRobot[other.dynamicBodyExecOrder.length];
+        for (int i = 0; i < other.dynamicBodyExecOrderSize; i++) {
+            InternalRobot source = other.dynamicBodyExecOrder[i];
+            if (source == null)
+                continue;
+            InternalRobot robot = new InternalRobot(world, this.robotStates, source.getSlot(),
+                    source.getID(), source.getType(), source.getTeam());
+            robot.setExecOrderIndex(i);
+            this.dynamicBodyExecOrder[i] = robot;
+            this.gameRobotsByID.put(robot.getID(), robot);
+        }
+        this.dynamicBodyExecOrderSize = other.dynamicBodyExecOrderSize;
+        this.dynamicBodyExecOrderTombstones = other.dynamicBodyExecOrderTombstones;
+
+        for (int i = 0; i < this.robotTypeCount.length; i++)
+            System.arraycopy(other.robotTypeCount[i], 0, this.robotTypeCount[i], 0, this.robotTypeCount[i].length);
+        System.arraycopy(other.robotCount, 0, this.robotCount, 0, this.robotCount.length);
+        System.arraycopy(other.robotLeadWorth, 0, this.robotLeadWorth, 0, this.robotLeadWorth.length);
+        System.arraycopy(other.robotGoldWorth, 0, this.robotGoldWorth, 0, this.robotGoldWorth.length);
     }
 
-    public int getRobotTypeCount(Team team, RobotType type) {
-        if (robotTypeCount.get(team).containsKey(type)) {
-            return robotTypeCount.get(team).get(type);
-        } else {
-            return 0;
+    /**
+     * Reads the robots of a world from a checkpoint written by write(), in
+     * their execution order.
+     *
+     * @param gm the map of the world
+     * @param in the checkpoint
+     * @param world the world restored from the checkpoint
+     * @throws IOException if the checkpoint can't be read
+     */
+    ObjectInfo(LiveMap gm, DataInputStream in, GameWorld world) throws IOException {
+        this(gm, new RobotStateStore(in, gm));
+
+        int numRobots = in.readInt();
+        for (int i = 0; i < numRobots; i++) {
+            int slot = in.readInt();
+            int id = in.readInt();
+            RobotType type = RobotType.values()[in.readByte()];
+            Team team = Team.values()[in.readByte()];
+            InternalRobot robot = new InternalRobot(world, this.robotStates, slot, id, type, team);
+            spawnRobot(robot);
+            addRobotToLocation(robot.getLocation(), robot);
+        }
+    }
+
+    /**
+     * Writes the robots to a checkpoint, in their execution order.
+     *
+     * @param out the checkpoint
+     * @throws IOException if the checkpoint can't be written
+     */
+    void write(DataOutputStream out) throws IOException {
+        robotStates.write(out);
+
+        out.writeInt(dynamicBodyExecOrderSize - dynamicBodyExecOrderTombstones);
+        for (int i = 0; i < dynamicBodyExecOrderSize; i++) {
+            InternalRobot robot = dynamicBodyExecOrder[i];
+            if (robot == null)
+                continue;
+            out.writeInt(robot.getSlot());
+            out.writeInt(robot.getID());
+            out.writeByte(robot.getType().ordinal());
+            out.writeByte(robot.getTeam().ordinal());
         }
     }
 
+    RobotStateStore getRobotStates() {
+        return robotStates;
+    }
+
+    /**
+     * Prepares every robot for a new round in one pass over their state.
+     */
+    public void processBeginningOfRound() {
+        robotStates.processBeginningOfRound();
+    }
+
+    public int getRobotTypeCount(Team team, RobotType type) {
+        return robotTypeCount[team.ordinal()][type.ordinal()];
+    }
+
+    /**
+     * @return the summed lead worth of a team's robots
+     */
+    public int getRobotLeadWorth(Team team) {
+        return robotLeadWorth[team.ordinal()];
+    }
+
+    /**
+     * @return the summed gold worth of a team's robots
+     */
+    public int getRobotGoldWorth(Team team) {
+        return robotGoldWorth[team.ordinal()];
+    }
+
     /**
      * Apply an operation for every robot, ordered based on robot ID hash (effectively random).
      * Return false to stop iterating.
@@ -93,20 +236,18 @@ public strictfp class ObjectInfo {
      * @param op a lambda (body) -> void
      */
     public void eachDynamicBodyByExecOrder(TObjectProcedure<InternalRobot> op) {
-        // We can't modify the ArrayList we are looping over
-        int[] spawnOrderArray = dynamicBodyExecOrder.toArray();
-
-        for (int id : spawnOrderArray) {
-            // Check if body still exists.
-            if (existsRobot(id)) {
-                boolean returnedTrue = op.execute(gameRobotsByID.get(id));
-                if (!returnedTrue)
-                    break;
-            } else {
-                // The body does not exist, so it was deleted in an earlier
-                // iteration and should be skipped.
+        compactDynamicBodyExecOrder();
+
+        // Bodies spawned during iteration are appended past the end and wait
+        // for the next round
+        int size = dynamicBodyExecOrderSize;
+        for (int i = 0; i < size; i++) {
+            InternalRobot body = dynamicBodyExecOrder[i];
+            // A null slot was deleted in an earlier iteration and is skipped.
+            if (body == null)
                 continue;
-            }
+            if (!op.execute(body))
+                break;
         }
     }
 
@@ -132,11 +273,135 @@ public strictfp class ObjectInfo {
         return gameRobotsByID.get(id);
     }
 
-    public void moveRobot(InternalRobot robot, MapLocation newLocation) {
-        MapLocation loc = robot.getLocation();
+    // ****************************
+    // *** LOCATION INDEX *********
+    // ****************************
+
+    /**
+     * @param loc a location on the map
+     * @return the robot at the location, or null if there is none
+     */
+    public InternalRobot getRobotAtLocation(MapLocation loc) {
+        int id = this.robotIDsByLocation[locationToCell(loc)];
+        return id == NO_ROBOT ? null : gameRobotsByID.get(id);
+    }
+
+    /**
+     * Places a robot on a cell of the location index. Any robot previously
+     * indexed at the location is replaced.
+     *
+     * @param loc a location on the map
+     * @param robot the robot to place there
+     */
+    public void addRobotToLocation(MapLocation loc, InternalRobot robot) {
+        removeRobotFromLocation(loc);
+        this.robotIDsByLocation[locationToCell(loc)] = robot.getID();
+        this.occupancy[robot.getTeam().ordinal()].add(loc.x - mapTopLeft.x, loc.y - mapTopLeft.y);
+    }
+
+    /**
+     * Clears a cell of the location index.
+     *
+     * @param loc a location on the map
+     */
+    public void removeRobotFromLocation(MapLocation loc) {
+        int cell = locationToCell(loc);
+        int id = this.robotIDsByLocation[cell];
+        if (id == NO_ROBOT)
+            return;
+        this.robotIDsByLocation[cell] = NO_ROBOT;
+        this.occupancy[gameRobotsByID.get(id).getTeam().ordinal()].remove(loc.x - mapTopLeft.x, loc.y - mapTopLeft.y);
+    }
+
+    /**
+     * Finds every robot within a given distance of a center, in increasing
+     * order of x and then y. The center does not need to be on the map.
+     *
+     * @param center the center of the query
+     * @param radiusSquared the squared radius of the query
+     * @param team the team to find robots of, or null for all teams
+     * @return the matching robots
+     */
+    public InternalRobot[] getAllRobotsWithinRadiusSquared(MapLocation center, int radiusSquared, Team team) {
+        // Size the result exactly by counting first; the bitboards make this cheap
+        int count = countRobotsWithinRadiusSquared(center, radiusSquared, team);
+        InternalRobot[] returnRobots = new InternalRobot[count];
+        int found = 0;
+        int lastCol = lastColumn(center, radiusSquared);
+        for (int col = firstColumn(center, radiusSquared); col <= lastCol && found < count; col++) {
+            long rows = CellBitboard.rowRange(mapTopLeft, mapHeight, col, center, radiusSquared);
+            if (rows < 0)
+                continue;
+            int minRow = (int) (rows >>> 32), maxRow = (int) rows;
+            for (int word = minRow >>> 6; word <= maxRow >>> 6; word++) {
+                long bits = occupiedBits(col, word, team) & CellBitboard.rowMask(word, minRow, maxRow);
+                while (bits != 0) {
+                    int row = (word << 6) + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    returnRobots[found++] = gameRobotsByID.get(this.robotIDsByLocation[col * mapHeight + row]);
+                }
+            }
+        }
+        return returnRobots;
+    }
+
+    /**
+     * Counts the robots within a given distance of a center, without
+     * allocating. The center does not need to be on the map.
+     *
+     * @param center the center of the query
+     * @param radiusSquared the squared radius of the query
+     * @param team the team to count robots of, or null for all teams
+     * @return the number of matching robots
+     */
+    public int countRobotsWithinRadiusSquared(MapLocation center, int radiusSquared, Team team) {
+        int count = 0;
+        int lastCol = lastColumn(center, radiusSquared);
+        for (int col = firstColumn(center, radiusSquared); col <= lastCol; col++) {
+            long rows = CellBitboard.rowRange(mapTopLeft, mapHeight, col, center, radiusSquared);
+            if (rows < 0)
+                continue;
+            int minRow = (int) (rows >>> 32), maxRow = (int) rows;
+            for (int word = minRow >>> 6; word <= maxRow >>> 6; word++)
+                count += Long.bitCount(occupiedBits(col, word, team) & CellBitboard.rowMask(word, minRow, maxRow));
+        }
+        return count;
+    }
 
-        robotIndex.delete(fromPoint(loc),robot.getID());
-        robotIndex.add(fromPoint(newLocation),robot.getID());
+    /**
+     * @return the first column that may hold cells within a squared radius
+     *         of a center; past lastColumn if the radius is negative
+     */
+    private int firstColumn(MapLocation center, int radiusSquared) {
+        if (radiusSquared < 0)
+            return mapWidth;
+        return (int) Math.max(0, (long) center.x - mapTopLeft.x - (long) Math.sqrt(radiusSquared));
+    }
+
+    /**
+     * @return the last column that may hold cells within a squared radius of a center
+     */
+    private int lastColumn(MapLocation center, int radiusSquared) {
+        if (radiusSquared < 0)
+            return -1;
+        return (int) Math.min(mapWidth - 1, (long) center.x - mapTopLeft.x + (long) Math.sqrt(radiusSquared));
+    }
+
+    /**
+     * @return the occupied cells of one word of a column, for one team or
+     *         for all teams if team is null
+     */
+    private long occupiedBits(int col, int word, Team team) {
+        if (team != null)
+            return this.occupancy[team.ordinal()].getWord(col, word);
+        long bits = 0;
+        for (CellBitboard teamOccupancy : this.occupancy)
+            bits |= teamOccupancy.getWord(col, word);
+        return bits;
+    }
+
+    private int locationToCell(MapLocation loc) {
+        return (loc.x - mapTopLeft.x) * mapHeight + (loc.y - mapTopLeft.y);
     }
 
     // ****************************
@@ -146,14 +411,29 @@ public strictfp class ObjectInfo {
     public void spawnRobot(InternalRobot robot) {
         incrementRobotCount(robot.getTeam());
         incrementRobotTypeCount(robot.getTeam(), robot.getType());
+        addRobotWorth(robot.getTeam(), robot.getType(), robot.getLevel(), 1);
 
         int id = robot.getID();
         gameRobotsByID.put(id, robot);
 
-        dynamicBodyExecOrder.add(id);
+        if (dynamicBodyExecOrderSize == dynamicBodyExecOrder.length)
+            dynamicBodyExecOrder = Arrays.copyOf(dynamicBodyExecOrder, 2 * dynamicBodyExecOrder.length);
+        robot.setExecOrderIndex(dynamicBodyExecOrderSize);
+        dynamicBodyExecOrder[dynamicBodyExecOrderSize++] = robot;
+    }
+
+    // ****************************
+    // *** UPDATING OBJECTS *******
+    // ****************************
 
-        MapLocation loc = robot.getLocation();
-        robotIndex.add(fromPoint(loc),robot.getID());
+    /**
+     * Updates the counters for a robot that has just mutated up a level.
+     *
+     * @param robot the robot, with its new level already set
+     */
+    public void mutateRobot(InternalRobot robot) {
+        addRobotWorth(robot.getTeam(), robot.getType(), robot.getLevel() - 1, -1);
+        addRobotWorth(robot.getTeam(), robot.getType(), robot.getLevel(), 1);
     }
 
     // ****************************
@@ -173,33 +453,38 @@ public strictfp class ObjectInfo {
 
         decrementRobotCount(robot.getTeam());
         decrementRobotTypeCount(robot.getTeam(), robot.getType());
+        addRobotWorth(robot.getTeam(), robot.getType(), robot.getLevel(), -1);
 
-        MapLocation loc = robot.getLocation();
         gameRobotsByID.remove(id);
-        dynamicBodyExecOrder.remove(id);
-        robotIndex.delete(fromPoint(loc),id);
-    }
-    
-    // ****************************
-    // *** PLAYER METHODS *********
-    // ****************************
-
-    private Rectangle fromPoint(float x, float y) {
-        return new Rectangle(x,y,x,y);
-    }
-
-    private Rectangle fromPoint(Point p) {
-        return new Rectangle(p.x,p.y,p.x,p.y);
-    }
-
-    private Rectangle fromPoint(MapLocation loc) {
-        return new Rectangle(loc.x,loc.y,loc.x,loc.y);
+        dynamicBodyExecOrder[robot.getExecOrderIndex()] = null;
+        dynamicBodyExecOrderTombstones++;
+        robotStates.release(robot.getSlot());
     }
 
     // ****************************
     // *** PRIVATE METHODS ********
     // ****************************
 
+    /**
+     * Removes the tombstones of destroyed bodies from the execution order.
+     * Must not be called while iterating over it.
+     */
+    private void compactDynamicBodyExecOrder() {
+        if (dynamicBodyExecOrderTombstones == 0)
+            return;
+        int size = 0;
+        for (int i = 0; i < dynamicBodyExecOrderSize; i++) {
+            InternalRobot body = dynamicBodyExecOrder[i];
+            if (body == null)
+                continue;
+            body.setExecOrderIndex(size);
+            dynamicBodyExecOrder[size++] = body;
+        }
+        Arrays.fill(dynamicBodyExecOrder, size, dynamicBodyExecOrderSize, null);
+        dynamicBodyExecOrderSize = size;
+        dynamicBodyExecOrderTombstones = 0;
+    }
+
     private void incrementRobotCount(Team team) {
         robotCount[team.ordinal()]++;
     }
@@ -209,18 +494,16 @@ public strictfp class ObjectInfo {
     }
 
     private void incrementRobotTypeCount(Team team, RobotType type) {
-        robotTypeCount.get(team);
-        if (robotTypeCount.get(team).containsKey(type)) {
-            robotTypeCount.get(team).put(type,
-                    robotTypeCount.get(team).get(type) + 1);
-        } else {
-            robotTypeCount.get(team).put(type, 1);
-        }
+        robotTypeCount[team.ordinal()][type.ordinal()]++;
     }
 
     private void decrementRobotTypeCount(Team team, RobotType type) {
-        Integer currentCount = getRobotTypeCount(team, type);
-        robotTypeCount.get(team).put(type,currentCount - 1);
+        robotTypeCount[team.ordinal()][type.ordinal()]--;
+    }
+
+    private void addRobotWorth(Team team, RobotType type, int level, int sign) {
+        robotLeadWorth[team.ordinal()] += sign * type.getLeadWorth(level);
+        robotGoldWorth[team.ordinal()] += sign * type.getGoldWorth(level);
     }
 
 }
@@ -0,0 +1,141 @@
+package battlecode.world;
+
+import battlecode.common.MapLocation;
+import battlecode.common.RobotType;
+
+import java.util.Arrays;
+import java.util.TreeSet;
+
+/**
+ * Enumerates the map locations within a squared radius of a center.
+ *
+ * The (dx, dy) offsets of every cell within each vision and action radius in
+ * RobotType are computed once, ordered by increasing dx and then dy. Queries
+ * walk the smallest table covering their radius, so locations are visited in
+ * increasing order of x and then y; larger radii fall back to scanning the
+ * bounding box.
+ */
+public final strictfp class RadiusOffsets {
+
+    /**
+     * The squared radii with precomputed tables, in increasing order.
+     */
+    private static final int[] radiiSquared;
+
+    /**
+     * The offsets for each radius in radiiSquared.
+     */
+    private static final int[][] offsetsX, offsetsY;
+
+    static {
+        TreeSet<Integer> radii = new TreeSet<>();
+        for (RobotType type : RobotType.values()) {
+            radii.add(type.visionRadiusSquared);
+            radii.add(type.actionRadiusSquared);
+        }
+        radiiSquared = new int[radii.size()];
+        offsetsX = new int[radii.size()][];
+        offsetsY = new int[radii.size()][];
+        int i = 0;
+        for (int radiusSquared : radii) {
+            radiiSquared[i] = radiusSquared;
+            int reach = (int) Math.sqrt(radiusSquared);
+            int[] dxs = new int[(2 * reach + 1) * (2 * reach + 1)];
+            int[] dys = new int[dxs.length];
+            int count = 0;
+            for (int dx = -reach; dx <= reach; dx++) {
+                for (int dy = -reach; dy <= reach; dy++) {
+                    if (dx * dx + dy * dy <= radiusSquared) {
+                        dxs[count] = dx;
+                        dys[count] = dy;
+                        count++;
+                    }
+                }
+            }
+            offsetsX[i] = Arrays.copyOf(dxs, count);
+            offsetsY[i] = Arrays.copyOf(dys, count);
+            i++;
+        }
+    }
+
+    private RadiusOffsets() {}
+
+    /**
+     * Applies an operation to every location on a map within a squared radius
+     * of a center, in increasing order of x and then y. The center does not
+     * need to be on the map.
+     *
+     * @param origin the origin of the map
+     * @param width the width of the map
+     * @param height the height of the map
+     * @param center the center of the query
+     * @param radiusSquared the squared radius of the query
+     * @param op the operation to apply; return false to stop iterating
+     */
+    public static void forEachLocation(MapLocation origin, int width, int height,
+                                       MapLocation center, int radiusSquared, LocationProcedure op) {
+        if (radiusSquared < 0)
+            return;
+        int table = Arrays.binarySearch(radiiSquared, radiusSquared);
+        if (table < 0)
+            table = -table - 1;
+        if (table == radiiSquared.length) {
+            forEachLocationInBoundingBox(origin, width, height, center, radiusSquared, op);
+            return;
+        }
+
+        final int[] dxs = offsetsX[table];
+        final int[] dys = offsetsY[table];
+        final boolean exact = radiiSquared[table] == radiusSquared;
+        // Work relative to the origin; an offset is on the map iff both are in [0, size)
+        final long baseX = (long) center.x - origin.x;
+        final long baseY = (long) center.y - origin.y;
+        for (int i = 0; i < dxs.length; i++) {
+            int dx = dxs[i];
+            int dy = dys[i];
+            if (!exact && dx * dx + dy * dy > radiusSquared)
+                continue;
+            long x = baseX + dx;
+            long y = baseY + dy;
+            if (x < 0 || y < 0 || x >= width || y >= height)
+                continue;
+            if (!op.execute(origin.x + (int) x, origin.y + (int) y, (int) x + (int) y * width))
+                return;
+        }
+    }
+
+    /**
+     * Counts the locations on a map within a squared radius of a center.
+     *
+     * @see #forEachLocation
+     */
+    public static int countLocations(MapLocation origin, int width, int height,
+                                     MapLocation center, int radiusSquared) {
+        final int[] count = new int[1];
+        forEachLocation(origin, width, height, center, radiusSquared, (x, y, index) -> {
+            count[0]++;
+            return true;
+        });
+        return count[0];
+    }
+
+    private static void forEachLocationInBoundingBox(MapLocation origin, int width, int height,
+                                                     MapLocation center, int radiusSquared,
+                                                     LocationProcedure op) {
+        for (int col = 0; col < width; col++) {
+            long dx = (long) origin.x + col - center.x;
+            long remaining = radiusSquared - dx * dx;
+            if (remaining < 0)
+                continue;
+            long dy = (long) Math.sqrt(remaining);
+            while (dy * dy > remaining) dy--;
+            while ((dy + 1) * (dy + 1) <= remaining) dy++;
+            int minRow = (int) Math.max(0, (long) center.y - origin.y - dy);
+            int maxRow = (int) Math.min(height - 1, (long) center.y - origin.y + dy);
+            for (int row = minRow; row <= maxRow; row++) {
+                if (!op.execute(origin.x + col, origin.y + row, col + row * width))
+                    return;
+            }
+        }
+    }
+}
@@ -255,21 +255,23 @@ public final strictfp class RobotControllerImpl implements RobotController {
     public RobotInfo[] senseNearbyRobots(MapLocation center, int radiusSquared, Team team) {
         assertNotNull(center);
         int actualRadiusSquared = radiusSquared == -1 ? getType().visionRadiusSquared : Math.min(radiusSquared, getType().visionRadiusSquared);
-        InternalRobot[] allSensedRobots = gameWorld.getAllRobotsWithinRadiusSquared(center, actualRadiusSquared);
-        List<RobotInfo> validSensedRobots = new ArrayList<>();
-        for (InternalRobot sensedRobot : allSensedRobots) {
-            // check if this robot
-            if (sensedRobot.equals(this.robot))
-                continue;
-            // check if can sense
-            if (!canSenseLocation(sensedRobot.getLocation()))
-                continue; 
-            // check if right team
-            if (team != null && sensedRobot.getTeam() != team)
-                continue;
-            validSensedRobots.add(sensedRobot.getRobotInfo());
+        InternalRobot[] allSensedRobots = gameWorld.getAllRobotsWithinRadiusSquared(center, actualRadiusSquared, team);
+        // Robots around our own location are always within vision; only other centers need the check
+        boolean checkVision = !center.equals(getLocation());
+        int numValid = 0;
+        for (int i = 0; i < allSensedRobots.length; i++) {
+            InternalRobot sensedRobot = allSensedRobots[i];
+            if (sensedRobot == this.robot || (checkVision && !this.robot.canSenseLocation(sensedRobot.getLocation())))
+                allSensedRobots[i] = null;
+            else
+                numValid++;
         }
-        return validSensedRobots.toArray(new RobotInfo[validSensedRobots.size()]);
+        RobotInfo[] validSensedRobots = new RobotInfo[numValid];
+        int next = 0;
+        for (InternalRobot sensedRobot : allSensedRobots)
+            if (sensedRobot != null)
+                validSensedRobots[next++] = sensedRobot.getRobotInfo();
+        return validSensedRobots;
     }
 
     @Override 
@@ -321,11 +323,14 @@ public final strictfp class RobotControllerImpl implements RobotController {
             throw new GameActionException(CANT_DO_THAT,
                     "Radius squared must be non-negative.");
         ArrayList<MapLocation> locations = new ArrayList<>();
-        for (MapLocation loc : this.gameWorld.getAllLocationsWithinRadiusSquared(center, radiusSquared)) {
-            if (this.gameWorld.getLead(loc) >= minLead && canSenseLocation(loc)) {
+        MapLocation robotLocation = getLocation();
+        int visionRadiusSquared = getType().visionRadiusSquared;
+        this.gameWorld.forEachLocationWithLeadWithinRadiusSquared(center, radiusSquared, minLead, (x, y, index) -> {
+            MapLocation loc = this.gameWorld.getGameMap().getLocation(index);
+            if (robotLocation.isWithinDistanceSquared(loc, visionRadiusSquared))
                 locations.add(loc);
-            }
-        }
+            return true;
+        });
         MapLocation[] result = new MapLocation[locations.size()];
         return locations.toArray(result);
     }
@@ -361,18 +366,22 @@ public final strictfp class RobotControllerImpl implements RobotController {
             throw new GameActionException(CANT_DO_THAT,
                     "Radius squared must be non-negative.");
         ArrayList<MapLocation> locations = new ArrayList<>();
-        for (MapLocation loc : this.gameWorld.getAllLocationsWithinRadiusSquared(center, radiusSquared)) {
-            if (this.gameWorld.getGold(loc) >= minGold && canSenseLocation(loc)) {
+        MapLocation robotLocation = getLocation();
+        int visionRadiusSquared = getType().visionRadiusSquared;
+        this.gameWorld.forEachLocationWithGoldWithinRadiusSquared(center, radiusSquared, minGold, (x, y, index) -> {
+            MapLocation loc = this.gameWorld.getGameMap().getLocation(index);
+            if (robotLocation.isWithinDistanceSquared(loc, visionRadiusSquared))
                 locations.add(loc);
-            }
-        }
+            return true;
+        });
         MapLocation[] result = new MapLocation[locations.size()];
         return locations.toArray(result);
     }
 
     @Override
     public MapLocation adjacentLocation(Direction dir) {
-        return getLocation().add(dir);
+        MapLocation loc = getLocation();
+        return this.gameWorld.getGameMap().getLocation(loc.x + dir.dx, loc.y + dir.dy);
     }
 
     @Override
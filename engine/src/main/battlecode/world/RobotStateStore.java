@@ -0,0 +1,229 @@
+package battlecode.world;
+
+import battlecode.common.MapLocation;
+import battlecode.common.RobotMode;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The mutable state of every robot in a game, held in parallel arrays indexed
+ * by a dense slot number. Each InternalRobot is a view of one slot.
+ *
+ * Keeping the state together lets per-round passes walk it linearly instead
+ * of visiting each robot object. Slots of destroyed robots are recycled, but
+ * only at the start of a round, so a robot destroyed mid-round can still read
+ * its own final state.
+ *
+ * The arrays are replaced when the store grows, so they must be read through
+ * the store rather than cached.
+ */
+final strictfp class RobotStateStore {
+
+    /**
+     * The robot modes, indexed by the ordinals stored in mode.
+     */
+    static final RobotMode[] MODES = RobotMode.values();
+
+    MapLocation[] location;
+    int[] level;
+    byte[] mode;
+    int[] health;
+    long[] controlBits;
+    int[] currentBytecodeLimit;
+    int[] bytecodesUsed;
+    int[] roundsAlive;
+    int[] actionCooldownTurns;
+    int[] movementCooldownTurns;
+    int[] numVisibleFriendlyRobots;
+    String[] indicatorString;
+
+    /**
+     * The number of slots ever handed out; every slot in use is below this.
+     */
+    private int size;
+
+    /**
+     * Slots that can be handed out again.
+     */
+    private int[] freeSlots;
+    private int numFreeSlots;
+
+    /**
+     * Slots released this round, to be recycled at the start of the next.
+     */
+    private int[] releasedSlots;
+    private int numReleasedSlots;
+
+    RobotStateStore(int initialCapacity) {
+        resize(Math.max(initialCapacity, 1));
+        this.freeSlots = new int[16];
+        this.releasedSlots = new int[16];
+    }
+
+    /**
+     * Creates a copy of a store, with the same slots in use.
+     *
+     * @param other the store to copy
+     */
+    RobotStateStore(RobotStateStore other) {
+        this.location = other.location.clone();
+        this.level = other.level.clone();
+        this.mode = other.mode.clone();
+        this.health = other.health.clone();
+        this.controlBits = other.controlBits.clone();
+        this.currentBytecodeLimit = other.currentBytecodeLimit.clone();
+        this.bytecodesUsed = other.bytecodesUsed.clone();
+        this.roundsAlive = other.roundsAlive.clone();
+        this.actionCooldownTurns = other.actionCooldownTurns.clone();
+        this.movementCooldownTurns = other.movementCooldownTurns.clone();
+        this.numVisibleFriendlyRobots = other.numVisibleFriendlyRobots.clone();
+        this.indicatorString = other.indicatorString.clone();
+        this.size = other.size;
+        this.freeSlots = other.freeSlots.clone();
+        this.numFreeSlots = other.numFreeSlots;
+        this.releasedSlots = other.releasedSlots.clone();
+        this.numReleasedSlots = other.numReleasedSlots;
+    }
+
+    /**
+     * Reads a store from a checkpoint written by write(), with the same
+     * slots in use.
+     *
+     * @param in the checkpoint
+     * @param gm the map, whose shared locations the store should use
+     * @throws IOException if the checkpoint can't be read
+     */
+    RobotStateStore(DataInputStream in, LiveMap gm) throws IOException {
+        this.size = in.readInt();
+        resize(Math.max(size, 1));
+        for (int slot = 0; slot < size; slot++) {
+            if (in.readBoolean())
+                location[slot] = gm.getLocation(in.readInt(), in.readInt());
+            level[slot] = in.readInt();
+            mode[slot] = in.readByte();
+            health[slot] = in.readInt();
+            controlBits[slot] = in.readLong();
+            currentBytecodeLimit[slot] = in.readInt();
+            bytecodesUsed[slot] = in.readInt();
+            roundsAlive[slot] = in.readInt();
+            actionCooldownTurns[slot] = in.readInt();
+            movementCooldownTurns[slot] = in.readInt();
+            numVisibleFriendlyRobots[slot] = in.readInt();
+            if (in.readBoolean())
+                indicatorString[slot] = in.readUTF();
+        }
+        this.freeSlots = StateIO.readInts(in);
+        this.numFreeSlots = freeSlots.length;
+        this.releasedSlots = StateIO.readInts(in);
+        this.numReleasedSlots = releasedSlots.length;
+        if (freeSlots.length == 0)
+            this.freeSlots = new int[16];
+        if (releasedSlots.length == 0)
+            this.releasedSlots = new int[16];
+    }
+
+    /**
+     * Writes the state of every slot ever handed out to a checkpoint.
+     *
+     * @param out the checkpoint
+     * @throws IOException if the checkpoint can't be written
+     */
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(size);
+        for (int slot = 0; slot < size; slot++) {
+            out.writeBoolean(location[slot] != null);
+            if (location[slot] != null) {
+                out.writeInt(location[slot].x);
+                out.writeInt(location[slot].y);
+            }
+            out.writeInt(level[slot]);
+            out.writeByte(mode[slot]);
+            out.writeInt(health[slot]);
+            out.writeLong(controlBits[slot]);
+            out.writeInt(currentBytecodeLimit[slot]);
+            out.writeInt(bytecodesUsed[slot]);
+            out.writeInt(roundsAlive[slot]);
+            out.writeInt(actionCooldownTurns[slot]);
+            out.writeInt(movementCooldownTurns[slot]);
+            out.writeInt(numVisibleFriendlyRobots[slot]);
+            out.writeBoolean(indicatorString[slot] != null);
+            if (indicatorString[slot] != null)
+                out.writeUTF(indicatorString[slot]);
+        }
+        StateIO.writeInts(out, freeSlots, numFreeSlots);
+        StateIO.writeInts(out, releasedSlots, numReleasedSlots);
+    }
+
+    /**
+     * Hands out a slot with all of its state zeroed.
+     *
+     * @return the slot
+     */
+    int allocate() {
+        int slot;
+        if (numFreeSlots > 0) {
+            slot = freeSlots[--numFreeSlots];
+        } else {
+            if (size == health.length)
+                resize(2 * size);
+            slot = size++;
+        }
+        location[slot] = null;
+        level[slot] = 0;
+        mode[slot] = 0;
+        health[slot] = 0;
+        controlBits[slot] = 0;
+        currentBytecodeLimit[slot] = 0;
+        bytecodesUsed[slot] = 0;
+        roundsAlive[slot] = 0;
+        actionCooldownTurns[slot] = 0;
+        movementCooldownTurns[slot] = 0;
+        numVisibleFriendlyRobots[slot] = 0;
+        indicatorString[slot] = null;
+        return slot;
+    }
+
+    /**
+     * Marks a slot as no longer in use. Its state stays readable until the
+     * start of the next round.
+     *
+     * @param slot the slot
+     */
+    void release(int slot) {
+        if (numReleasedSlots == releasedSlots.length)
+            releasedSlots = Arrays.copyOf(releasedSlots, 2 * releasedSlots.length);
+        releasedSlots[numReleasedSlots++] = slot;
+    }
+
+    /**
+     * Prepares every robot's state for a new round: recycles the slots
+     * released last round and clears indicator strings.
+     */
+    void processBeginningOfRound() {
+        if (numFreeSlots + numReleasedSlots > freeSlots.length)
+            freeSlots = Arrays.copyOf(freeSlots, Math.max(2 * freeSlots.length, numFreeSlots + numReleasedSlots));
+        System.arraycopy(releasedSlots, 0, freeSlots, numFreeSlots, numReleasedSlots);
+        numFreeSlots += numReleasedSlots;
+        numReleasedSlots = 0;
+
+        Arrays.fill(indicatorString, 0, size, "");
+    }
+
+    private void resize(int capacity) {
+        location = location == null ? new MapLocation[capacity] : Arrays.copyOf(location, capacity);
+        level = level == null ? new int[capacity] : Arrays.copyOf(level, capacity);
+        mode = mode == null ? new byte[capacity] : Arrays.copyOf(mode, capacity);
+        health = health == null ? new int[capacity] : Arrays.copyOf(health, capacity);
+        controlBits = controlBits == null ? new long[capacity] : Arrays.copyOf(controlBits, capacity);
+        currentBytecodeLimit = currentBytecodeLimit == null ? new int[capacity] : Arrays.copyOf(currentBytecodeLimit, capacity);
+        bytecodesUsed = bytecodesUsed == null ? new int[capacity] : Arrays.copyOf(bytecodesUsed, capacity);
+        roundsAlive = roundsAlive == null ? new int[capacity] : Arrays.copyOf(roundsAlive, capacity);
+        actionCooldownTurns = actionCooldownTurns == null ? new int[capacity] : Arrays.copyOf(actionCooldownTurns, capacity);
+        movementCooldownTurns = movementCooldownTurns == null ? new int[capacity] : Arrays.copyOf(movementCooldownTurns, capacity);
+        numVisibleFriendlyRobots = numVisibleFriendlyRobots == null ? new int[capacity] : Arrays.copyOf(numVisibleFriendlyRobots, capacity);
+        indicatorString = indicatorString == null ? new String[capacity] : Arrays.copyOf(indicatorString, capacity);
+    }
+}
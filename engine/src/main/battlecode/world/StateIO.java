@@ -0,0 +1,71 @@
+package battlecode.world;
+
+import java.io.*;
+import java.util.Random;
+
+/**
+ * Helpers for copying world state, and for writing it to and reading it
+ * from checkpoints.
+ */
+final class StateIO {
+
+    private StateIO() {}
+
+    /**
+     * @param random a random number generator
+     * @return a generator in the same state, which will produce the same
+     *         sequence
+     */
+    static Random copyRandom(Random random) {
+        try {
+            return randomFromBytes(randomToBytes(random));
+        } catch (IOException e) {
+            throw new RuntimeException("Could not copy random number generator", e);
+        }
+    }
+
+    static void writeRandom(DataOutputStream out, Random random) throws IOException {
+        byte[] bytes = randomToBytes(random);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static Random readRandom(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return randomFromBytes(bytes);
+    }
+
+    static void writeInts(DataOutputStream out, int[] values, int length) throws IOException {
+        out.writeInt(length);
+        for (int i = 0; i < length; i++)
+            out.writeInt(values[i]);
+    }
+
+    static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        writeInts(out, values, values.length);
+    }
+
+    static int[] readInts(DataInputStream in) throws IOException {
+        int[] values = new int[in.readInt()];
+        for (int i = 0; i < values.length; i++)
+            values[i] = in.readInt();
+        return values;
+    }
+
+    private static byte[] randomToBytes(Random random) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(random);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Random randomFromBytes(byte[] bytes) throws IOException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return (Random) in.readObject();
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Invalid random number generator state", e);
+        }
+    }
+}
@@ -2,6 +2,9 @@ package battlecode.world;
 
 import battlecode.common.GameConstants;
 import battlecode.common.Team;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.*;
 import static battlecode.common.GameActionExceptionType.*;
 
@@ -34,6 +37,57 @@ public class TeamInfo {
         this.oldGoldCounts = new int[2];
     }
     
+    /**
+     * Create a copy of another TeamInfo for a forked world.
+     *
+     * @param gameWorld the forked world
+     * @param other the TeamInfo to copy
+     */
+    public TeamInfo(GameWorld gameWorld, TeamInfo other) {
+        this.gameWorld = gameWorld;
+        this.leadCounts = other.leadCounts.clone();
+        this.goldCounts = other.goldCounts.clone();
+        this.sharedArrays = new int[other.sharedArrays.length][];
+        for (int i = 0; i < this.sharedArrays.length; i++)
+            this.sharedArrays[i] = other.sharedArrays[i].clone();
+        this.oldLeadCounts = other.oldLeadCounts.clone();
+        this.oldGoldCounts = other.oldGoldCounts.clone();
+    }
+
+    /**
+     * Read a TeamInfo from a checkpoint written by write().
+     *
+     * @param gameWorld the world restored from the checkpoint
+     * @param in the checkpoint
+     * @throws IOException if the checkpoint can't be read
+     */
+    TeamInfo(GameWorld gameWorld, DataInputStream in) throws IOException {
+        this.gameWorld = gameWorld;
+        this.leadCounts = StateIO.readInts(in);
+        this.goldCounts = StateIO.readInts(in);
+        this.sharedArrays = new int[in.readInt()][];
+        for (int i = 0; i < this.sharedArrays.length; i++)
+            this.sharedArrays[i] = StateIO.readInts(in);
+        this.oldLeadCounts = StateIO.readInts(in);
+        this.oldGoldCounts = StateIO.readInts(in);
+    }
+
+    /**
+     * Write this TeamInfo to a checkpoint.
+     *
+     * @param out the checkpoint
+     * @throws IOException if the checkpoint can't be written
+     */
+    void write(DataOutputStream out) throws IOException {
+        StateIO.writeInts(out, this.leadCounts);
+        StateIO.writeInts(out, this.goldCounts);
+        out.writeInt(this.sharedArrays.length);
+        for (int[] sharedArray : this.sharedArrays)
+            StateIO.writeInts(out, sharedArray);
+        StateIO.writeInts(out, this.oldLeadCounts);
+        StateIO.writeInts(out, this.oldGoldCounts);
+    }
+
     // *********************************
     // ***** GETTER METHODS ************
     // *********************************
@@ -2,10 +2,12 @@ package battlecode.world.control;
 
 import battlecode.common.Team;
 import battlecode.instrumenter.InstrumentationException;
+import battlecode.instrumenter.SandboxPool;
 import battlecode.instrumenter.TeamClassLoaderFactory;
 import battlecode.instrumenter.SandboxedRobotPlayer;
 import battlecode.instrumenter.profiler.Profiler;
 import battlecode.instrumenter.profiler.ProfilerCollection;
+import battlecode.server.Config;
 import battlecode.server.ErrorReporter;
 import battlecode.world.GameWorld;
 import battlecode.world.InternalRobot;
@@ -39,6 +41,12 @@ public class PlayerControlProvider implements RobotControlProvider {
      */
     private final Map<Integer, SandboxedRobotPlayer> sandboxes;
 
+    /**
+     * Sandboxes made ready for the robots spawned in the current match, or
+     * null if bc.engine.sandbox-pool is 0.
+     */
+    private SandboxPool pool;
+
     /**
      * The GameWorld we're providing for.
      */
@@ -84,14 +92,33 @@ public class PlayerControlProvider implements RobotControlProvider {
                                  String teamURL,
                                  OutputStream robotOut,
                                  boolean profilingEnabled) {
+        this(team, teamPackage, new TeamClassLoaderFactory(teamURL), robotOut, profilingEnabled);
+    }
+
+    /**
+     * Create a new PlayerControlProvider that loads the team's classes with
+     * an existing factory, so that classes already instrumented for another
+     * game are reused.
+     *
+     * @param team             the team we're loading
+     * @param teamPackage      the name / package of the team we're loading
+     * @param factory          the factory for the team's ClassLoaders
+     * @param robotOut         the output that robots should write to
+     * @param profilingEnabled whether profiling is enabled or not
+     */
+    public PlayerControlProvider(Team team,
+                                 String teamPackage,
+                                 TeamClassLoaderFactory factory,
+                                 OutputStream robotOut,
+                                 boolean profilingEnabled) {
         this.teamPackage = teamPackage;
         this.sandboxes = new HashMap<>(); // GameWorld maintains order for us
-        this.factory = new TeamClassLoaderFactory(teamURL);
+        this.factory = factory;
         this.robotOut = robotOut;
         this.team = team;
 
         if (profilingEnabled) {
-            profilerCollection = new ProfilerCollection();
+            profilerCollection = new ProfilerCollection(factory.getProfilerFrames());
         }
     }
 
@@ -99,13 +126,32 @@ public class PlayerControlProvider implements RobotControlProvider {
     public void matchStarted(GameWorld gameWorld) {
         this.gameWorld = gameWorld;
         matchId++;
+
+        if (profilerCollection != null && !profilerCollection.getProfilers().isEmpty()) {
+            // Left over from a match that failed before it ended
+            profilerCollection.close();
+            profilerCollection = new ProfilerCollection(factory.getProfilerFrames());
+        }
+
+        factory.preinstrument(profilerCollection != null);
+
+        if (pool != null) {
+            // Left over from a match that failed before it ended
+            pool.close();
+            pool = null;
+        }
+
+        final int poolSize = Config.getGlobalConfig().getInt("bc.engine.sandbox-pool");
+        if (poolSize > 0) {
+            pool = new SandboxPool(teamPackage, team, factory, profilerCollection != null, robotOut, poolSize);
+        }
     }
 
     @Override
     public void matchEnded() {
         if (profilerCollection != null) {
             gameWorld.setProfilerCollection(team, profilerCollection);
-            profilerCollection = new ProfilerCollection();
+            profilerCollection = new ProfilerCollection(factory.getProfilerFrames());
         }
 
         for (final SandboxedRobotPlayer player : this.sandboxes.values()) {
@@ -116,6 +162,11 @@ public class PlayerControlProvider implements RobotControlProvider {
 
         this.sandboxes.clear();
         this.gameWorld = null;
+
+        if (pool != null) {
+            pool.close();
+            pool = null;
+        }
     }
 
     @Override
@@ -126,14 +177,20 @@ public class PlayerControlProvider implements RobotControlProvider {
                 profiler = profilerCollection.createProfiler(robot.getID(), robot.getType());
             }
 
-            final SandboxedRobotPlayer player = new SandboxedRobotPlayer(
-                    teamPackage,
-                    robot.getController(),
-                    robot.getID(),
-                    factory.createLoader(profiler != null),
-                    robotOut,
-                    profiler
-            );
+            final SandboxedRobotPlayer player;
+            if (pool != null && robot.getTeam() == team) {
+                player = pool.take();
+                player.bind(robot.getController(), robot.getID(), profiler);
+            } else {
+                player = new SandboxedRobotPlayer(
+                        teamPackage,
+                        robot.getController(),
+                        robot.getID(),
+                        factory.createLoader(profiler != null),
+                        robotOut,
+                        profiler
+                );
+            }
             this.sandboxes.put(robot.getID(), player);
         } catch (InstrumentationException e) {
             ErrorReporter.report("Error while loading player "+ teamPackage +": "+e.getMessage(), false);
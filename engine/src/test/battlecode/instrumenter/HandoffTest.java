@@ -0,0 +1,60 @@
+package battlecode.instrumenter;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class HandoffTest {
+
+    /**
+     * Runs a robot that takes a few turns, and checks that it and the engine
+     * never run at the same time.
+     */
+    private static void checkTakesTurns(Handoff handoff) throws InterruptedException {
+        final List<String> log = new ArrayList<>();
+        final Thread robot = new Thread(() -> {
+            try {
+                handoff.pause();
+                for (int turn = 0; turn < 3; turn++) {
+                    log.add("robot " + turn);
+                    handoff.pause();
+                }
+            } catch (InterruptedException e) {
+                fail();
+            } finally {
+                handoff.finish();
+            }
+        });
+
+        handoff.start(robot);
+        for (int turn = 0; turn < 4; turn++) {
+            log.add("engine " + turn);
+            handoff.resume();
+        }
+        robot.join();
+
+        assertArrayEquals(new String[] {
+                "engine 0", "robot 0", "engine 1", "robot 1", "engine 2", "robot 2", "engine 3"
+        }, log.toArray());
+    }
+
+    @Test(timeout=10000)
+    public void testMonitorTakesTurns() throws InterruptedException {
+        checkTakesTurns(new Handoff.Monitor());
+    }
+
+    @Test(timeout=10000)
+    public void testParkTakesTurns() throws InterruptedException {
+        checkTakesTurns(new Handoff.Park(0));
+    }
+
+    @Test(timeout=10000)
+    public void testSpinTakesTurns() throws InterruptedException {
+        checkTakesTurns(new Handoff.Park(Handoff.Park.SPINS));
+        // Few enough spins that both sides park some of the time
+        checkTakesTurns(new Handoff.Park(16));
+    }
+}
@@ -0,0 +1,71 @@
+package battlecode.instrumenter;
+
+import battlecode.server.Config;
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class InstrumentedClassCacheTest {
+
+    @After
+    public void disableCache() {
+        Config.getGlobalConfig().set("bc.engine.instrumented-class-cache", "");
+    }
+
+    private static Map<Path, Object> listEntries(Path directory) throws Exception {
+        final Map<Path, Object> entries = new HashMap<>();
+        try (Stream<Path> walk = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) walk.filter(Files::isRegularFile)::iterator) {
+                entries.put(path, Files.readAttributes(path, BasicFileAttributes.class).fileKey());
+            }
+        }
+        return entries;
+    }
+
+    @Test
+    public void testKeyCoversInputs() {
+        final byte[] bytes = {1, 2, 3};
+        final byte[] context = {4};
+        final String key = InstrumentedClassCache.key("a.B", bytes, context, true, false, false);
+
+        assertEquals(key, InstrumentedClassCache.key("a.B", bytes.clone(), context.clone(), true, false, false));
+        assertNotEquals(key, InstrumentedClassCache.key("a.C", bytes, context, true, false, false));
+        assertNotEquals(key, InstrumentedClassCache.key("a.B", new byte[] {1, 2, 4}, context, true, false, false));
+        assertNotEquals(key, InstrumentedClassCache.key("a.B", bytes, new byte[] {5}, true, false, false));
+        assertNotEquals(key, InstrumentedClassCache.key("a.B", bytes, context, false, false, false));
+        assertNotEquals(key, InstrumentedClassCache.key("a.B", bytes, context, true, true, false));
+        assertNotEquals(key, InstrumentedClassCache.key("a.B", bytes, context, true, false, true));
+    }
+
+    @Test
+    public void testLaterFactoriesLoadFromDisk() throws Exception {
+        final Path directory = Files.createTempDirectory("instrumented");
+        Config.getGlobalConfig().set("bc.engine.instrumented-class-cache", directory.toString());
+        final String teamFolder = URLUtils.toTempFolder("instrumentertest/Nothing.class");
+
+        final TeamClassLoaderFactory first = new TeamClassLoaderFactory(teamFolder);
+        first.createLoader(false).loadClass("instrumentertest.Nothing");
+        final Map<Path, Object> entries = listEntries(directory);
+        assertFalse(entries.isEmpty());
+
+        // A later factory finds every class it needs on disk, so it doesn't
+        // write any entry again
+        final TeamClassLoaderFactory second = new TeamClassLoaderFactory(teamFolder);
+        second.createLoader(false).loadClass("instrumentertest.Nothing");
+        assertEquals(entries, listEntries(directory));
+        assertArrayEquals(first.getCached("instrumentertest.Nothing"),
+                second.getCached("instrumentertest.Nothing"));
+
+        // Classes instrumented with the profiler are kept apart
+        new TeamClassLoaderFactory(teamFolder).createLoader(true).loadClass("instrumentertest.Nothing");
+        assertTrue(listEntries(directory).size() > entries.size());
+    }
+}
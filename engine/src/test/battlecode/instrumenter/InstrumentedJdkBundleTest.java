@@ -0,0 +1,49 @@
+package battlecode.instrumenter;
+
+import org.junit.Test;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class InstrumentedJdkBundleTest {
+
+    private static ClassLoader onClasspath(Path directory) throws Exception {
+        return new URLClassLoader(new URL[] {directory.toUri().toURL()}, null);
+    }
+
+    @Test
+    public void testBundleMatchesInstrumenter() throws Exception {
+        final Path directory = Files.createTempDirectory("bundle");
+        assertTrue(InstrumentedJdkBundle.write(directory.resolve(InstrumentedJdkBundle.DIRECTORY), "java/math/") > 0);
+
+        final InstrumentedJdkBundle bundle = InstrumentedJdkBundle.open(onClasspath(directory));
+        assertNotNull(bundle);
+
+        final TeamClassLoaderFactory factory = new TeamClassLoaderFactory(
+                URLUtils.toTempFolder("instrumentertest/Nothing.class"));
+        for (boolean profilerEnabled : new boolean[] {false, true}) {
+            final byte[] expected = factory.createLoader(profilerEnabled).instrument(
+                    TeamClassLoaderFactory.normalReader("java.math.BigInteger"), false, false);
+            assertArrayEquals(expected, bundle.get("instrumented.java.math.BigInteger", profilerEnabled));
+        }
+
+        // Only the packages asked for are bundled
+        assertNull(bundle.get("instrumented.java.util.ArrayList", false));
+    }
+
+    @Test
+    public void testStaleBundleIgnored() throws Exception {
+        final Path directory = Files.createTempDirectory("bundle");
+        final Path bundle = Files.createDirectories(directory.resolve(InstrumentedJdkBundle.DIRECTORY));
+        assertNull(InstrumentedJdkBundle.open(onClasspath(directory)));
+
+        Files.write(bundle.resolve("STAMP"), Collections.singletonList("0123"), StandardCharsets.UTF_8);
+        assertNull(InstrumentedJdkBundle.open(onClasspath(directory)));
+    }
+}
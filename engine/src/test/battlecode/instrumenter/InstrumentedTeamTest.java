@@ -0,0 +1,70 @@
+package battlecode.instrumenter;
+
+import battlecode.server.Config;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static battlecode.instrumenter.InstrumentationException.Type.ILLEGAL;
+import static org.junit.Assert.*;
+
+public class InstrumentedTeamTest {
+
+    @Before
+    public void setKey() {
+        Config.getGlobalConfig().set("bc.engine.instrumented-team-key", "secret");
+    }
+
+    @After
+    public void clearKey() {
+        Config.getGlobalConfig().set("bc.engine.instrumented-team-key", "");
+    }
+
+    /**
+     * Looks up a class in an instrumented team's jar the way a loader would.
+     */
+    private static byte[] getInstrumented(Path jar, String className) throws Exception {
+        final InstrumentedTeam team = InstrumentedTeam.fromConfig(
+                new URLClassLoader(new URL[] {jar.toUri().toURL()}, null), jar);
+        return team.get(InstrumentedClassCache.key(className, TeamClassLoaderFactory.normalBytes(className),
+                InstrumentedClassCache.hashContainer(jar), true, false, false));
+    }
+
+    @Test
+    public void testLoadersUseInstrumentedClasses() throws Exception {
+        final Path jar = Files.createTempDirectory("team").resolve("instrumented.jar");
+        assertEquals(1, InstrumentedTeam.write(URLUtils.toTempFolder("instrumentertest/Nothing.class"), jar));
+
+        final byte[] classBytes = getInstrumented(jar, "instrumentertest.Nothing");
+        assertNotNull(classBytes);
+
+        // The jar is still the team's jar, and its classes are what loaders
+        // would have instrumented them to
+        final TeamClassLoaderFactory factory = new TeamClassLoaderFactory(jar.toString());
+        factory.createLoader(false).loadClass("instrumentertest.Nothing");
+        assertArrayEquals(classBytes, factory.getCached("instrumentertest.Nothing"));
+
+        // Nor are they used by a server with another key
+        Config.getGlobalConfig().set("bc.engine.instrumented-team-key", "other");
+        assertNull(getInstrumented(jar, "instrumentertest.Nothing"));
+    }
+
+    @Test
+    public void testIllegalTeamRejected() throws Exception {
+        final Path jar = Files.createTempDirectory("team").resolve("instrumented.jar");
+        try {
+            InstrumentedTeam.write(URLUtils.toTempFolder(
+                    "instrumentertest/CallsIllegalMethods.class",
+                    "instrumentertest/CallsIllegalMethods$CallsWait.class"), jar);
+            fail("Didn't outlaw illegal team");
+        } catch (InstrumentationException e) {
+            assertEquals(ILLEGAL, e.type);
+        }
+        assertFalse(Files.exists(jar));
+    }
+}
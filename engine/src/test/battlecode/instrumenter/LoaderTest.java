@@ -1,6 +1,10 @@
 package battlecode.instrumenter;
 
+import battlecode.common.RobotType;
 import battlecode.instrumenter.profiler.Profiler;
+import battlecode.instrumenter.profiler.ProfilerCollection;
+import battlecode.instrumenter.profiler.ProfilerFrames;
+import battlecode.server.Config;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -306,6 +310,105 @@ public class LoaderTest {
     }
 
 
+    @Test
+    public void testPreinstrument() throws Exception {
+        Config.getGlobalConfig().set("bc.engine.eager-instrumentation", "true");
+        try {
+            final TeamClassLoaderFactory factory = new TeamClassLoaderFactory(tempClassFolder);
+            factory.preinstrument(false);
+
+            // Team classes, and the system classes they use
+            assertTrue(factory.hasCached("instrumentertest.UsesEnumMap"));
+            assertTrue(factory.hasCached("instrumented.java.util.EnumMap"));
+
+            // Illegal classes are left to fail when they're loaded
+            assertFalse(factory.hasCached("instrumentertest.CallsIllegalMethods$CallsWait"));
+            assertFalse(factory.getError());
+
+            final TeamClassLoaderFactory.Loader loader = setupLoader(factory);
+            loader.loadClass("instrumentertest.UsesEnumMap").getField("enumMap").get(null);
+            try {
+                loader.loadClass("instrumentertest.CallsIllegalMethods$CallsWait");
+                fail("Didn't outlaw illegal class");
+            } catch (InstrumentationException e) {
+                assertEquals(ILLEGAL, e.type);
+            }
+        } finally {
+            Config.getGlobalConfig().set("bc.engine.eager-instrumentation", "false");
+        }
+    }
+
+    @Test
+    public void testGamesShareCachesButNotErrors() throws Exception {
+        final TeamClassLoaderFactory factory = new TeamClassLoaderFactory(tempClassFolder);
+        final TeamClassLoaderFactory game1 = factory.forGame();
+        final TeamClassLoaderFactory game2 = factory.forGame();
+
+        setupLoader(game1).loadClass("instrumentertest.Nothing");
+        assertTrue(game2.hasCached("instrumentertest.Nothing"));
+        assertSame(game1.getProfilerFrames(), game2.getProfilerFrames());
+
+        try {
+            setupLoader(game1).loadClass("instrumentertest.CallsIllegalMethods$CallsWait");
+            fail("Didn't outlaw illegal class");
+        } catch (InstrumentationException e) {
+            assertEquals(ILLEGAL, e.type);
+        }
+        assertTrue(game1.getError());
+        assertFalse(game2.getError());
+        setupLoader(game2).loadClass("instrumentertest.UsesEnumMap");
+        assertFalse(factory.forGame().getError());
+    }
+
+    @Test
+    public void testProfilerFrames() throws Exception {
+        final TeamClassLoaderFactory factory = new TeamClassLoaderFactory(tempClassFolder);
+        final ProfilerFrames frames = factory.getProfilerFrames();
+        final ProfilerCollection collection = new ProfilerCollection(frames);
+        final Profiler profiler = collection.createProfiler(1, RobotType.ARCHON);
+
+        final TeamClassLoaderFactory.Loader loader = factory.createLoader(true);
+        final Class<?> monitor = loader.loadClass("battlecode.instrumenter.inject.RobotMonitor");
+        monitor.getMethod("init",
+                SandboxedRobotPlayer.Pauser.class,
+                SandboxedRobotPlayer.Killer.class,
+                int.class,
+                Profiler.class)
+                .invoke(null, (SandboxedRobotPlayer.Pauser) () -> {}, (SandboxedRobotPlayer.Killer) () -> {}, 0, profiler);
+        monitor.getMethod("setBytecodeLimit", int.class).invoke(null, Integer.MAX_VALUE);
+        loader.loadClass("instrumentertest.UsesLambda").getMethod("run").invoke(null);
+
+        // Only the team's methods are profiled, and the frames of the
+        // collection are numbered in the order they were entered
+        final List<String> entered = collection.getFrames();
+        assertEquals("instrumentertest.UsesLambda.run", entered.get(0));
+        assertTrue(entered.contains("instrumentertest.UsesLambda.lambda$run$0"));
+        for (String frame : entered) {
+            assertFalse(frame, frame.startsWith("instrumented."));
+        }
+        final List<Boolean> opens = new ArrayList<>();
+        final List<Integer> frameIds = new ArrayList<>();
+        profiler.visitEvents((open, at, frameId) -> {
+            opens.add(open);
+            frameIds.add(frameId);
+        });
+        assertTrue(opens.get(0));
+        assertEquals(0, (int) frameIds.get(0));
+        assertFalse(opens.get(opens.size() - 1));
+        assertEquals(0, (int) frameIds.get(frameIds.size() - 1));
+
+        // Methods have the same ids for any copy of the team
+        final ProfilerFrames jarFrames = new TeamClassLoaderFactory(URLUtils.toTempJar(
+                "instrumentertest/UsesLambda.class",
+                "instrumentertest/Nothing.class")).getProfilerFrames();
+        final ProfilerFrames folderFrames = new TeamClassLoaderFactory(URLUtils.toTempFolder(
+                "instrumentertest/Nothing.class",
+                "instrumentertest/UsesLambda.class")).getProfilerFrames();
+        for (String frame : entered) {
+            assertEquals(folderFrames.getFrameId(frame), jarFrames.getFrameId(frame));
+        }
+    }
+
     @Test
     public void testCanUseThrowable() throws Exception {
         Class<?> c = l1.loadClass("instrumentertest.UsesThrowable");
@@ -0,0 +1,74 @@
+package battlecode.instrumenter;
+
+import battlecode.common.MapLocation;
+import battlecode.common.RobotController;
+import battlecode.common.RobotType;
+import battlecode.common.Team;
+import battlecode.instrumenter.stream.SilencedPrintStream;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+
+import static org.junit.Assert.*;
+
+public class SandboxPoolTest {
+
+    /**
+     * A RobotController for a robot of team A that answers what the sandbox
+     * asks it, and nothing else.
+     */
+    private static RobotController createController(int id) {
+        return (RobotController) Proxy.newProxyInstance(
+                RobotController.class.getClassLoader(),
+                new Class<?>[] {RobotController.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getTeam": return Team.A;
+                        case "getType": return RobotType.ARCHON;
+                        case "getID": return id;
+                        case "getLocation": return new MapLocation(0, 0);
+                        case "getRoundNum": return 0;
+                        default: throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private static SandboxPool createPool(int size) throws Exception {
+        final TeamClassLoaderFactory factory = new TeamClassLoaderFactory(
+                URLUtils.toTempFolder("testplayerempty/RobotPlayer.class"));
+        return new SandboxPool("testplayerempty", Team.A, factory, false,
+                SilencedPrintStream.theInstance(), size);
+    }
+
+    @Test(timeout=10000)
+    public void testTakenPlayersRun() throws Exception {
+        final SandboxPool pool = createPool(2);
+        try {
+            // More than the pool holds, so some are created on the spot
+            for (int id = 0; id < 5; id++) {
+                final SandboxedRobotPlayer player = pool.take();
+                assertFalse(player.getTerminated());
+                player.bind(createController(id), id, null);
+                player.setBytecodeLimit(10000);
+
+                // The player returns from run() straight away
+                player.step();
+                assertTrue(player.getTerminated());
+            }
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test(timeout=10000)
+    public void testUnboundPlayersTerminate() throws Exception {
+        final SandboxPool pool = createPool(3);
+        final SandboxedRobotPlayer player = pool.take();
+        player.terminate();
+        assertTrue(player.getTerminated());
+
+        // Terminates the players still in the pool, and the one it may be
+        // creating
+        pool.close();
+    }
+}
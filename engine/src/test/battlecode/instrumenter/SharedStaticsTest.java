@@ -0,0 +1,115 @@
+package battlecode.instrumenter;
+
+import battlecode.instrumenter.inject.RobotContext;
+import battlecode.instrumenter.profiler.Profiler;
+import battlecode.server.Config;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+
+import static org.junit.Assert.*;
+
+public class SharedStaticsTest {
+
+    @Before
+    public void shareClasses() {
+        Config.getGlobalConfig().set("bc.engine.shared-player-classes", "true");
+    }
+
+    @After
+    public void stopSharingClasses() {
+        Config.getGlobalConfig().set("bc.engine.shared-player-classes", "false");
+    }
+
+    /**
+     * Creates the context of a robot, with a noop RobotMonitor.
+     */
+    private static RobotContext createRobot(TeamClassLoaderFactory.Loader loader) throws Exception {
+        final RobotContext context = new RobotContext();
+        final RobotContext previous = RobotContext.enter(context);
+        try {
+            final Class<?> monitor = loader.loadClass("battlecode.instrumenter.inject.RobotMonitor");
+            monitor.getMethod("init",
+                    SandboxedRobotPlayer.Pauser.class,
+                    SandboxedRobotPlayer.Killer.class,
+                    int.class,
+                    Profiler.class)
+                    .invoke(null, (SandboxedRobotPlayer.Pauser) () -> {}, (SandboxedRobotPlayer.Killer) () -> {}, 0, null);
+            monitor.getMethod("setBytecodeLimit", int.class).invoke(null, Integer.MAX_VALUE);
+            loader.loadClass("battlecode.instrumenter.inject.System")
+                    .getMethod("setSystemOut", PrintStream.class).invoke(null, System.out);
+        } finally {
+            RobotContext.exit(previous);
+        }
+        return context;
+    }
+
+    private static Object invokeAs(RobotContext context, Method method, Object... args) throws Exception {
+        final RobotContext previous = RobotContext.enter(context);
+        try {
+            return method.invoke(null, args);
+        } finally {
+            RobotContext.exit(previous);
+        }
+    }
+
+    @Test
+    public void testRobotsShareLoader() throws Exception {
+        final TeamClassLoaderFactory factory = new TeamClassLoaderFactory(
+                URLUtils.toTempFolder("instrumentertest/Nothing.class"));
+
+        final TeamClassLoaderFactory.Loader loader = factory.createLoader(false);
+        assertTrue(loader.isShared());
+        assertSame(loader, factory.createLoader(false));
+        assertNotSame(loader, factory.createLoader(true));
+    }
+
+    @Test
+    public void testRobotsKeepOwnStatics() throws Exception {
+        final TeamClassLoaderFactory factory = new TeamClassLoaderFactory(URLUtils.toTempFolder(
+                "instrumentertest/CountsStatically.class",
+                "instrumentertest/CountsStatically$1.class",
+                "instrumentertest/CountsStatically$Kind.class",
+                "instrumentertest/CountsStatically$Limits.class",
+                "instrumentertest/CountsStatically$Base.class",
+                "instrumentertest/CountsStatically$Derived.class"));
+        final TeamClassLoaderFactory.Loader loader = factory.createLoader(false);
+        final RobotContext first = createRobot(loader);
+        final RobotContext second = createRobot(loader);
+
+        final Class<?> counter = loader.loadClass("instrumentertest.CountsStatically");
+        final Class<?> kind = loader.loadClass("instrumentertest.CountsStatically$Kind");
+        final Method increment = counter.getMethod("increment", kind);
+        final Method describe = counter.getMethod("describe");
+        final Object[] kinds = (Object[]) invokeAs(first, kind.getMethod("values"));
+        final Object small = kinds[0];
+        final Object large = kinds[1];
+
+        // Enums are the same for every robot
+        assertArrayEquals(kinds, (Object[]) invokeAs(second, kind.getMethod("values")));
+
+        assertEquals(1, invokeAs(first, increment, small));
+        assertEquals(1, invokeAs(second, increment, large));
+        assertEquals(2, invokeAs(first, increment, small));
+
+        assertEquals("counter 2 5 102 2.0 [SMALL, SMALL] base derived ", invokeAs(first, describe));
+        assertEquals("counter 1 5 110 0.5 [LARGE] base derived ", invokeAs(second, describe));
+
+        // A robot that hasn't used the class yet starts from scratch
+        assertEquals("counter 0 5 100 0.5 [] base derived ", invokeAs(createRobot(loader), describe));
+    }
+
+    @Test
+    public void testMutableEnumPreventsSharing() throws Exception {
+        final TeamClassLoaderFactory factory = new TeamClassLoaderFactory(URLUtils.toTempJar(
+                "instrumentertest/Nothing.class",
+                "instrumentertest/MutableEnum.class"));
+
+        final TeamClassLoaderFactory.Loader loader = factory.createLoader(false);
+        assertFalse(loader.isShared());
+        assertNotSame(loader, factory.createLoader(false));
+    }
+}
@@ -0,0 +1,98 @@
+package battlecode.instrumenter.profiler;
+
+import battlecode.common.RobotType;
+import battlecode.server.Config;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ProfilerTest {
+
+    @Test
+    public void testSpilledEventsReadBack() throws Exception {
+        final ProfilerFrames frames = new ProfilerFrames();
+        final int outer = frames.getFrameId("instrumentertest.Outer.run");
+        final int inner = frames.getFrameId("instrumentertest.Outer.step");
+        final ProfilerCollection collection = new ProfilerCollection(frames);
+        final Profiler first = collection.createProfiler(1, RobotType.ARCHON);
+        final Profiler second = collection.createProfiler(2, RobotType.MINER);
+
+        // Enough events that both profilers spill several chunks, into the
+        // same file
+        final int calls = 3 * Profiler.CHUNK_SIZE;
+        for (Profiler profiler : new Profiler[] {first, second}) {
+            profiler.enterMethod(outer);
+            for (int i = 0; i < calls; i++) {
+                profiler.incrementBytecodes(1);
+                profiler.enterMethod(inner);
+                profiler.exitMethod(inner);
+            }
+        }
+        first.exitOpenMethods();
+        second.exitMethod(outer);
+        // Closing a frame that isn't open does nothing
+        second.exitMethod(outer);
+
+        for (Profiler profiler : new Profiler[] {first, second}) {
+            final List<int[]> events = new ArrayList<>();
+            profiler.visitEvents((open, at, frameId) -> events.add(new int[] {open ? 1 : 0, at, frameId}));
+
+            assertEquals(2 * calls + 2, events.size());
+            assertArrayEquals(new int[] {1, 0, 0}, events.get(0));
+            for (int i = 0; i < calls; i++) {
+                assertArrayEquals(new int[] {1, i + 1, 1}, events.get(2 * i + 1));
+                assertArrayEquals(new int[] {0, i + 1, 1}, events.get(2 * i + 2));
+            }
+            assertArrayEquals(new int[] {0, calls, 0}, events.get(events.size() - 1));
+        }
+        assertEquals(2, collection.getFrames().size());
+
+        // Once closed, the spilled events are gone
+        collection.close();
+        try {
+            first.visitEvents((open, at, frameId) -> {});
+            fail("Read events after closing");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testStopsRecordingAtMaxEvents() throws Exception {
+        final ProfilerFrames frames = new ProfilerFrames();
+        final int outer = frames.getFrameId("instrumentertest.Outer.run");
+        final int inner = frames.getFrameId("instrumentertest.Outer.step");
+        final String maxEvents = Config.getGlobalConfig().get("bc.engine.profiler-max-events");
+        Config.getGlobalConfig().set("bc.engine.profiler-max-events", "3");
+        final ProfilerCollection collection;
+        try {
+            collection = new ProfilerCollection(frames);
+        } finally {
+            Config.getGlobalConfig().set("bc.engine.profiler-max-events", maxEvents);
+        }
+        final Profiler profiler = collection.createProfiler(1, RobotType.ARCHON);
+
+        profiler.enterMethod(outer);
+        profiler.enterMethod(inner);
+        profiler.exitMethod(inner);
+        profiler.enterMethod(inner);
+        // Past the limit: these aren't recorded, and their exits don't
+        // close the frames that were
+        profiler.enterMethod(inner);
+        profiler.enterMethod(outer);
+        profiler.exitMethod(outer);
+        profiler.exitMethod(inner);
+        profiler.exitMethod(inner);
+        profiler.exitMethod(outer);
+
+        final List<String> events = new ArrayList<>();
+        profiler.visitEvents((open, at, frameId) -> events.add((open ? "open " : "close ") + frameId));
+        assertEquals(Arrays.asList("open 0", "open 1", "close 1", "open 1", "close 1", "close 0"), events);
+        collection.close();
+    }
+}
@@ -0,0 +1,69 @@
+package instrumentertest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps state in static fields of several kinds, to test that robots that
+ * share classes still keep their own.
+ */
+@SuppressWarnings("unused")
+public class CountsStatically {
+    public enum Kind {
+        SMALL(1), LARGE(10);
+
+        final int size;
+
+        Kind(int size) {
+            this.size = size;
+        }
+    }
+
+    interface Limits {
+        int[] LIMITS = {3, 5};
+    }
+
+    static class Base {
+        static long total = 100;
+        static String log = "";
+
+        static {
+            log += "base ";
+        }
+    }
+
+    static class Derived extends Base implements Limits {
+        static double scale = 0.5;
+
+        static {
+            log += "derived ";
+        }
+
+        static int limit() {
+            return LIMITS[1];
+        }
+    }
+
+    public static final String NAME = "counter";
+    public static int count;
+    private static final List<Kind> kinds = new ArrayList<>();
+
+    public static int increment(Kind kind) {
+        count++;
+        Base.total += kind.size;
+        kinds.add(kind);
+        switch (kind) {
+            case SMALL:
+                Derived.scale *= 2;
+                break;
+            default:
+                break;
+        }
+        return count;
+    }
+
+    public static String describe() {
+        return NAME + " " + count + " " + Derived.limit() + " " + Base.total + " " + Derived.scale + " "
+                + kinds + " " + Base.log;
+    }
+}
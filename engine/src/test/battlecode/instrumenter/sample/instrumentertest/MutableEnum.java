@@ -0,0 +1,11 @@
+package instrumentertest;
+
+/**
+ * An enum whose state robots could change, so they can't share it.
+ */
+@SuppressWarnings("unused")
+public enum MutableEnum {
+    A;
+
+    public int uses;
+}
@@ -7,10 +7,12 @@ import battlecode.common.Team;
 import battlecode.schema.Event;
 import battlecode.schema.GameHeader;
 import battlecode.schema.GameWrapper;
+import battlecode.schema.Round;
 import battlecode.util.TeamMapping;
 import battlecode.world.TestMapBuilder;
 
 import java.util.ArrayList;
+import java.util.List;
 import org.apache.commons.io.IOUtils;
 import org.junit.Test;
 import org.mockito.Mockito;
@@ -18,8 +20,12 @@ import org.mockito.Mockito;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.file.Files;
 import java.util.zip.GZIPInputStream;
 
 import static org.junit.Assert.*;
@@ -44,6 +50,154 @@ public class GameMakerTest {
         gm.makeGameFooter(Team.A);
     }
 
+    @Test(expected=RuntimeException.class)
+    public void testDetachedHasNoGame() {
+        GameMaker.createDetached(info, true).makeGameHeader();
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testAppendOnlyDetachedMatches() {
+        GameMaker gm = new GameMaker(info, null, true);
+        gm.makeGameHeader();
+
+        gm.appendMatches(new GameMaker(info, null, true));
+    }
+
+    /**
+     * Records rounds with a few events of uneven sizes, so that the replay
+     * needs padding here and there.
+     */
+    private static void makeRounds(GameMaker gm, int from, int to) {
+        GameMaker.MatchMaker mm = gm.getMatchMaker();
+        for (int round = from; round < to; round++) {
+            mm.addMoved(0, new MapLocation(round % 7, round % 5));
+            mm.addLeadDrop(new MapLocation(3, round % 9), round);
+            mm.addIndicatorString(1, new String(new char[round % 6]).replace('\0', 'x'));
+            mm.makeRound(round);
+        }
+    }
+
+    private static void finish(GameMaker gm, int from) {
+        makeRounds(gm, from, 30);
+        gm.getMatchMaker().makeMatchFooter(Team.B, 30, new ArrayList<>());
+        gm.makeGameFooter(Team.B);
+    }
+
+    private static byte[] checkpoint(GameMaker gm, File replayFile) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            gm.writeCheckpoint(out, replayFile);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Reads back the events of a replay, and what they say about rounds.
+     * Replays of the same game can differ in their bytes, since an event
+     * made in place shares its tables' layouts with the events before it.
+     */
+    private List<String> readEvents(GameMaker gm) throws IOException {
+        GameWrapper game = GameWrapper.getRootAsGameWrapper(ByteBuffer.wrap(ungzip(gm.toBytes())));
+        List<String> events = new ArrayList<>();
+        for (int i = 0; i < game.eventsLength(); i++) {
+            StringBuilder event = new StringBuilder().append(game.events(i).eType());
+            if (game.events(i).eType() == Event.Round) {
+                Round round = (Round) game.events(i).e(new Round());
+                event.append(' ').append(round.roundID());
+                for (int j = 0; j < round.movedIDsLength(); j++)
+                    event.append(" moved ").append(round.movedIDs(j));
+                for (int j = 0; j < round.leadDropValuesLength(); j++)
+                    event.append(" lead ").append(round.leadDropValues(j));
+                for (int j = 0; j < round.indicatorStringsLength(); j++)
+                    event.append(" says ").append(round.indicatorStrings(j));
+            }
+            events.add(event.toString());
+        }
+        for (int i = 0; i < game.matchHeadersLength(); i++)
+            events.add("header at " + game.matchHeaders(i));
+        for (int i = 0; i < game.matchFootersLength(); i++)
+            events.add("footer at " + game.matchFooters(i));
+        return events;
+    }
+
+    private GameMaker restore(byte[] checkpoint, File replayFile) throws IOException {
+        return new GameMaker(info, null, true,
+                new DataInputStream(new ByteArrayInputStream(checkpoint)), replayFile);
+    }
+
+    @Test
+    public void testCheckpointsResumeSameReplay() throws IOException {
+        GameMaker uninterrupted = new GameMaker(info, null, true);
+        uninterrupted.makeGameHeader();
+        uninterrupted.getMatchMaker().makeMatchHeader(
+                new TestMapBuilder("honolulu", 2, -3, 10, 10, 1337).build());
+        finish(uninterrupted, 0);
+
+        File replayFile = new File(Files.createTempDirectory("checkpoint").toFile(), "game.checkpoint.replay");
+        GameMaker gm = new GameMaker(info, null, true);
+        gm.makeGameHeader();
+        gm.getMatchMaker().makeMatchHeader(new TestMapBuilder("honolulu", 2, -3, 10, 10, 1337).build());
+        makeRounds(gm, 0, 10);
+        byte[] first = checkpoint(gm, replayFile);
+        long firstLength = replayFile.length();
+        makeRounds(gm, 10, 20);
+        byte[] second = checkpoint(gm, replayFile);
+
+        // Checkpoints don't hold the replay, and only append to its file
+        assertTrue(second.length < firstLength);
+        assertTrue(replayFile.length() > firstLength);
+
+        GameMaker resumed = restore(second, replayFile);
+        finish(resumed, 20);
+        assertEquals(readEvents(uninterrupted), readEvents(resumed));
+
+        // An earlier checkpoint still reads its own part of the file, as if
+        // we crashed before the later one was saved
+        GameMaker resumedEarlier = restore(first, replayFile);
+        makeRounds(resumedEarlier, 10, 20);
+        checkpoint(resumedEarlier, replayFile);
+        finish(resumedEarlier, 20);
+        assertEquals(readEvents(uninterrupted), readEvents(resumedEarlier));
+    }
+
+    private static void makeMatch(GameMaker gm, String mapName) {
+        gm.getMatchMaker().makeMatchHeader(new TestMapBuilder(mapName, 2, -3, 10, 10, 1337).build());
+        makeRounds(gm, 0, 15);
+        gm.getMatchMaker().makeMatchFooter(Team.A, 15, new ArrayList<>());
+    }
+
+    @Test
+    public void testAppendedMatchesSameReplay() throws IOException {
+        GameMaker sequential = new GameMaker(info, null, true);
+        sequential.makeGameHeader();
+        makeMatch(sequential, "honolulu");
+        makeMatch(sequential, "argentina");
+        sequential.makeGameFooter(Team.A);
+
+        GameMaker first = GameMaker.createDetached(info, true);
+        GameMaker second = GameMaker.createDetached(info, true);
+        makeMatch(second, "argentina");
+        makeMatch(first, "honolulu");
+
+        NetServer mockServer = Mockito.mock(NetServer.class);
+        GameMaker appended = new GameMaker(info, mockServer, true);
+        appended.makeGameHeader();
+        appended.appendMatches(first);
+        appended.appendMatches(second);
+        appended.makeGameFooter(Team.A);
+
+        assertEquals(readEvents(sequential), readEvents(appended));
+        verify(mockServer, times(36)).addEvent(any(byte[].class));
+
+        // Events sent to the client are copied into the replay the same way
+        GameMaker sent = new GameMaker(info, Mockito.mock(NetServer.class), true);
+        sent.makeGameHeader();
+        makeMatch(sent, "honolulu");
+        makeMatch(sent, "argentina");
+        sent.makeGameFooter(Team.A);
+        assertEquals(readEvents(sequential), readEvents(sent));
+    }
+
     // @Test(expected=RuntimeException.class)
     // public void testMatchStateExceptions() {
     //     GameMaker gm = new GameMaker(info, null, true);
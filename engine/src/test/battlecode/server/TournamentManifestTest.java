@@ -0,0 +1,83 @@
+package battlecode.server;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TournamentManifestTest {
+
+    private static Path write(Path dir, String name, String... lines) throws IOException {
+        return Files.write(dir.resolve(name), Arrays.asList(lines), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testGamesAreExpandedBySeed() throws IOException {
+        Path dir = Files.createTempDirectory("manifest");
+        Path manifest = write(dir, "round-robin.txt",
+                "# two teams",
+                "team alpha /teams/alpha.jar",
+                "team beta /teams/beta.jar betabot",
+                "",
+                "game alpha beta a,b,c",
+                "game beta alpha a 7 -3");
+
+        List<GameInfo> games = TournamentManifest.read(manifest.toFile(), new File("out"), true);
+        assertEquals(3, games.size());
+
+        GameInfo first = games.get(0);
+        assertEquals("alpha", first.getTeamAPackage());
+        assertEquals("/teams/alpha.jar", first.getTeamAURL());
+        assertEquals("betabot", first.getTeamBPackage());
+        assertArrayEquals(new String[] {"a", "b", "c"}, first.getMaps());
+        assertTrue(first.isBestOfThree());
+        assertNull(first.getSeed());
+        assertEquals(new File("out", "alpha-vs-beta-on-a,b,c.bc22"), first.getSaveFile());
+
+        assertFalse(games.get(1).isBestOfThree());
+        assertEquals(Integer.valueOf(7), games.get(1).getSeed());
+        assertEquals(Integer.valueOf(-3), games.get(2).getSeed());
+        assertEquals(new File("out", "beta-vs-alpha-on-a-seed--3.bc22"), games.get(2).getSaveFile());
+    }
+
+    @Test
+    public void testTeamsAreSharedAcrossDirectory() throws IOException {
+        Path dir = Files.createTempDirectory("manifest");
+        write(dir, "1-games.txt", "game alpha beta a");
+        write(dir, "0-teams.txt", "team alpha /teams/alpha", "team beta /teams/beta");
+        write(dir, ".hidden", "not a manifest line");
+
+        List<GameInfo> games = TournamentManifest.read(dir.toFile(), new File("out"), false);
+        assertEquals(1, games.size());
+        assertEquals("/teams/beta", games.get(0).getTeamBURL());
+    }
+
+    @Test(expected=IOException.class)
+    public void testUndeclaredTeam() throws IOException {
+        Path dir = Files.createTempDirectory("manifest");
+        Path manifest = write(dir, "games.txt",
+                "team alpha /teams/alpha",
+                "game alpha gamma a");
+
+        TournamentManifest.read(manifest.toFile(), new File("out"), false);
+    }
+
+    @Test(expected=IOException.class)
+    public void testGameListedTwice() throws IOException {
+        Path dir = Files.createTempDirectory("manifest");
+        Path manifest = write(dir, "games.txt",
+                "team alpha /teams/alpha",
+                "team beta /teams/beta",
+                "game alpha beta a 1 2",
+                "game alpha beta a 2");
+
+        TournamentManifest.read(manifest.toFile(), new File("out"), false);
+    }
+}
@@ -0,0 +1,54 @@
+package battlecode.world;
+
+import battlecode.common.MapLocation;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CellBitboardTest {
+
+    @Test
+    public void testRangeQueriesMatchBruteForce() {
+        MapLocation origin = new MapLocation(300, 100);
+        int width = 19, height = 130;
+        CellBitboard cells = new CellBitboard(origin, width, height);
+        boolean[] present = new boolean[width * height];
+        Random random = new Random(3);
+        for (int i = 0; i < 4000; i++) {
+            int index = random.nextInt(present.length);
+            present[index] = random.nextInt(3) != 0;
+            cells.set(index, present[index]);
+        }
+
+        int[] radii = {-1, 0, 2, 34, 300, Integer.MAX_VALUE};
+        for (int radiusSquared : radii) {
+            for (int cx = -5; cx < width + 5; cx += 4) {
+                for (int cy = -5; cy < height + 5; cy += 11) {
+                    MapLocation center = new MapLocation(origin.x + cx, origin.y + cy);
+                    List<MapLocation> expected = new ArrayList<>();
+                    for (int x = 0; x < width; x++)
+                        for (int y = 0; y < height; y++)
+                            if (present[x + y * width] && center.distanceSquaredTo(
+                                    new MapLocation(origin.x + x, origin.y + y)) <= radiusSquared)
+                                expected.add(new MapLocation(origin.x + x, origin.y + y));
+
+                    List<MapLocation> actual = new ArrayList<>();
+                    LocationProcedure collect = (x, y, index) -> {
+                        assertEquals(x - origin.x + (y - origin.y) * width, index);
+                        actual.add(new MapLocation(x, y));
+                        return true;
+                    };
+                    if (radiusSquared == Integer.MAX_VALUE)
+                        cells.forEach(collect);
+                    else
+                        cells.forEachWithinRadiusSquared(center, radiusSquared, collect);
+                    assertEquals(expected, actual);
+                }
+            }
+        }
+    }
+}
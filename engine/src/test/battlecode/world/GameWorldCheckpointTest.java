@@ -0,0 +1,85 @@
+package battlecode.world;
+
+import battlecode.common.*;
+import battlecode.server.GameMaker;
+import battlecode.world.control.NullControlProvider;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.io.*;
+
+import static org.junit.Assert.*;
+
+public class GameWorldCheckpointTest {
+
+    private static byte[] checkpoint(GameWorld world) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            world.writeCheckpoint(out);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static GameWorld restore(byte[] checkpoint) throws IOException {
+        return GameWorld.readCheckpoint(new DataInputStream(new ByteArrayInputStream(checkpoint)),
+                new NullControlProvider(), Mockito.mock(GameMaker.MatchMaker.class));
+    }
+
+    @Test
+    public void testRestoredWorldMatchesSavedWorld() throws IOException {
+        LiveMap map = new TestMapBuilder("checkpoint", 3, 7, 12, 9, 1337)
+                .addArchon(0, Team.A, new MapLocation(1, 1))
+                .addArchon(1, Team.B, new MapLocation(10, 7))
+                .setLead(3, 3, 40)
+                .setRubble(2, 2, 25)
+                .addAnomalyScheduleEntry(2, AnomalyType.FURY)
+                .addAnomalyScheduleEntry(30, AnomalyType.VORTEX)
+                .build();
+        TestGame game = new TestGame(map);
+        int minerID = game.spawn(7, 11, RobotType.MINER, Team.A);
+        int soldierID = game.spawn(10, 12, RobotType.SOLDIER, Team.B);
+        game.waitRounds(5);
+        GameWorld world = game.getWorld();
+        world.setGold(new MapLocation(8, 8), 5);
+        world.getTeamInfo().writeSharedArray(Team.B, 3, 1234);
+        world.getObjectInfo().getRobotByID(soldierID).addHealth(-7);
+
+        byte[] saved = checkpoint(world);
+        GameWorld restored = restore(saved);
+
+        assertEquals(world.getCurrentRound(), restored.getCurrentRound());
+        assertEquals(world.getGameMap().getMapName(), restored.getGameMap().getMapName());
+        assertEquals(world.getTeamInfo().getLead(Team.A), restored.getTeamInfo().getLead(Team.A));
+        assertEquals(1234, restored.getTeamInfo().readSharedArray(Team.B, 3));
+        for (int id : new int[] {0, 1, minerID, soldierID}) {
+            InternalRobot robot = world.getObjectInfo().getRobotByID(id);
+            InternalRobot copy = restored.getObjectInfo().getRobotByID(id);
+            assertSame(restored, copy.getGameWorld());
+            assertEquals(robot.getType(), copy.getType());
+            assertEquals(robot.getTeam(), copy.getTeam());
+            assertEquals(robot.getLocation(), copy.getLocation());
+            assertEquals(robot.getHealth(), copy.getHealth());
+            assertEquals(robot.getMode(), copy.getMode());
+            assertEquals(id, restored.getObjectInfo().getRobotAtLocation(copy.getLocation()).getID());
+        }
+        for (int x = 3; x < 15; x++) {
+            for (int y = 7; y < 16; y++) {
+                MapLocation loc = new MapLocation(x, y);
+                assertEquals(world.getLead(loc), restored.getLead(loc));
+                assertEquals(world.getGold(loc), restored.getGold(loc));
+                assertEquals(world.getRubble(loc), restored.getRubble(loc));
+            }
+        }
+
+        // Everything the world writes, including its random state and the
+        // anomalies already taken, comes back the same
+        assertArrayEquals(saved, checkpoint(restored));
+        assertEquals(world.spawnRobot(RobotType.BUILDER, new MapLocation(9, 9), Team.A),
+                restored.spawnRobot(RobotType.BUILDER, new MapLocation(9, 9), Team.A));
+        for (int i = 0; i < 40; i++) {
+            world.runRound();
+            restored.runRound();
+        }
+        assertArrayEquals(checkpoint(world), checkpoint(restored));
+    }
+}
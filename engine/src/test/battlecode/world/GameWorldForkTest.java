@@ -0,0 +1,66 @@
+package battlecode.world;
+
+import battlecode.common.*;
+import battlecode.server.GameMaker;
+import battlecode.world.control.NullControlProvider;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import static org.junit.Assert.*;
+
+public class GameWorldForkTest {
+
+    @Test
+    public void testForkIsIndependent() {
+        LiveMap map = new TestMapBuilder("fork", 0, 0, 10, 10, 1337)
+                .addArchon(0, Team.A, new MapLocation(1, 1))
+                .addArchon(1, Team.B, new MapLocation(8, 8))
+                .setLead(4, 4, 10)
+                .setRubble(0, 9, 30)
+                .build();
+        TestGame game = new TestGame(map);
+        game.waitRounds(3);
+        GameWorld source = game.getWorld();
+
+        GameWorld fork = source.fork(new NullControlProvider(),
+                Mockito.mock(GameMaker.MatchMaker.class));
+        assertEquals(source.getCurrentRound(), fork.getCurrentRound());
+        assertEquals(source.getObjectInfo().getRobotCount(Team.A), fork.getObjectInfo().getRobotCount(Team.A));
+        for (InternalRobot robot : source.getObjectInfo().robotsArray()) {
+            InternalRobot copy = fork.getObjectInfo().getRobotByID(robot.getID());
+            assertNotSame(robot, copy);
+            assertSame(fork, copy.getGameWorld());
+            assertEquals(robot.getLocation(), copy.getLocation());
+            assertEquals(robot.getHealth(), copy.getHealth());
+            assertEquals(robot.getID(), fork.getObjectInfo().getRobotAtLocation(copy.getLocation()).getID());
+        }
+
+        // Writes on either side stay on that side
+        MapLocation loc = new MapLocation(4, 4);
+        int[] sourceLead = source.getGameMap().getLeadArray();
+        fork.setLead(loc, 3);
+        assertEquals(10, source.getLead(loc));
+        assertEquals(3, fork.getGameMap().getLeadArray()[source.locationToIndex(loc)]);
+        // Once the fork has its own copy, the source writes in place
+        source.setLead(loc, 10);
+        assertSame(sourceLead, source.getGameMap().getLeadArray());
+        source.setGold(loc, 7);
+        assertEquals(0, fork.getGold(loc));
+        fork.getObjectInfo().getRobotByID(0).addHealth(-10);
+        assertEquals(source.getObjectInfo().getRobotByID(0).getType().getMaxHealth(1),
+                source.getObjectInfo().getRobotByID(0).getHealth());
+        source.causeVortexGlobal();
+        assertEquals(30, fork.getRubble(new MapLocation(0, 9)));
+
+        // Both sides go on to spawn the same IDs and grow lead alike
+        assertEquals(source.spawnRobot(RobotType.MINER, new MapLocation(5, 5), Team.A),
+                fork.spawnRobot(RobotType.MINER, new MapLocation(5, 5), Team.A));
+        fork.setLead(loc, 10);
+        for (int i = 0; i < GameConstants.ADD_LEAD_EVERY_ROUNDS; i++) {
+            source.runRound();
+            fork.runRound();
+        }
+        assertEquals(10 + GameConstants.ADD_LEAD, source.getLead(loc));
+        assertEquals(10 + GameConstants.ADD_LEAD, fork.getLead(loc));
+    }
+}
@@ -0,0 +1,27 @@
+package battlecode.world;
+
+import battlecode.common.*;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LiveMapTest {
+
+    @Test
+    public void testLocationsAreShared() {
+        LiveMap map = new LiveMap(7, 5, new MapLocation(100, 200), 0, 2000, "test", new RobotInfo[0]);
+        for (int x = 100; x < 107; x++) {
+            for (int y = 200; y < 205; y++) {
+                MapLocation loc = map.getLocation(x, y);
+                assertEquals(new MapLocation(x, y), loc);
+                assertSame(loc, map.getLocation(x, y));
+                assertSame(loc, map.getLocation(x - 100 + (y - 200) * 7));
+            }
+        }
+
+        // Off the map, locations are still correct, just not shared
+        assertEquals(new MapLocation(99, 200), map.getLocation(99, 200));
+        assertEquals(new MapLocation(107, 204), map.getLocation(107, 204));
+        assertEquals(new MapLocation(103, 205), map.getLocation(103, 205));
+    }
+}
@@ -0,0 +1,107 @@
+package battlecode.world;
+
+import battlecode.common.*;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ObjectInfoTest {
+
+    /**
+     * Finds robots the slow way, in x-then-y order.
+     */
+    private static List<InternalRobot> bruteForce(ObjectInfo objectInfo, LiveMap map,
+                                                  MapLocation center, int radiusSquared, Team team) {
+        List<InternalRobot> robots = new ArrayList<>();
+        for (int x = map.getOrigin().x; x < map.getOrigin().x + map.getWidth(); x++) {
+            for (int y = map.getOrigin().y; y < map.getOrigin().y + map.getHeight(); y++) {
+                MapLocation loc = new MapLocation(x, y);
+                InternalRobot robot = objectInfo.getRobotAtLocation(loc);
+                if (robot != null && center.distanceSquaredTo(loc) <= radiusSquared
+                        && (team == null || robot.getTeam() == team))
+                    robots.add(robot);
+            }
+        }
+        return robots;
+    }
+
+    @Test
+    public void testRangeQueriesMatchBruteForce() {
+        // Taller than one bitboard word, to cover queries spanning words
+        LiveMap map = new LiveMap(37, 150, new MapLocation(5000, 7000), 0, 2000, "test", new RobotInfo[0]);
+        ObjectInfo objectInfo = new ObjectInfo(map);
+        GameWorld gameWorld = Mockito.mock(GameWorld.class);
+        Mockito.when(gameWorld.getObjectInfo()).thenReturn(objectInfo);
+        Random random = new Random(1);
+        Team[] teams = {Team.A, Team.B, Team.NEUTRAL};
+        List<MapLocation> occupied = new ArrayList<>();
+        for (int id = 0; id < 1200; id++) {
+            MapLocation loc = new MapLocation(map.getOrigin().x + random.nextInt(map.getWidth()),
+                    map.getOrigin().y + random.nextInt(map.getHeight()));
+            if (objectInfo.getRobotAtLocation(loc) != null)
+                continue;
+            InternalRobot robot = new InternalRobot(gameWorld, id, RobotType.MINER, loc, teams[random.nextInt(teams.length)]);
+            objectInfo.spawnRobot(robot);
+            objectInfo.addRobotToLocation(loc, robot);
+            occupied.add(loc);
+        }
+        for (int i = 0; i < occupied.size(); i += 3)
+            objectInfo.removeRobotFromLocation(occupied.get(i));
+
+        int[] radii = {-1, 0, 2, 20, 53, 700, 4500, Integer.MAX_VALUE};
+        Team[] filters = {null, Team.A, Team.B, Team.NEUTRAL};
+        for (int radiusSquared : radii) {
+            for (int cx = -10; cx < map.getWidth() + 10; cx += 7) {
+                for (int cy = -10; cy < map.getHeight() + 10; cy += 9) {
+                    MapLocation center = new MapLocation(map.getOrigin().x + cx, map.getOrigin().y + cy);
+                    for (Team team : filters) {
+                        InternalRobot[] actual = objectInfo.getAllRobotsWithinRadiusSquared(center, radiusSquared, team);
+                        assertArrayEquals(bruteForce(objectInfo, map, center, radiusSquared, team).toArray(), actual);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testExecOrderSurvivesChangesDuringIteration() {
+        LiveMap map = new LiveMap(10, 10, new MapLocation(0, 0), 0, 2000, "test", new RobotInfo[0]);
+        ObjectInfo objectInfo = new ObjectInfo(map);
+        GameWorld gameWorld = Mockito.mock(GameWorld.class);
+        Mockito.when(gameWorld.getObjectInfo()).thenReturn(objectInfo);
+        for (int id = 0; id < 10; id++)
+            objectInfo.spawnRobot(new InternalRobot(gameWorld, id, RobotType.MINER, new MapLocation(id, 0), Team.A));
+
+        // Robots destroyed mid-round are skipped; robots spawned mid-round wait a round
+        List<Integer> visited = new ArrayList<>();
+        objectInfo.eachDynamicBodyByExecOrder(robot -> {
+            visited.add(robot.getID());
+            if (robot.getID() == 2) {
+                objectInfo.destroyRobot(2);
+                objectInfo.destroyRobot(5);
+                objectInfo.spawnRobot(new InternalRobot(gameWorld, 10, RobotType.MINER, new MapLocation(0, 1), Team.A));
+            }
+            return true;
+        });
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 6, 7, 8, 9), visited);
+
+        objectInfo.destroyRobot(0);
+        objectInfo.destroyRobot(9);
+        visited.clear();
+        objectInfo.eachDynamicBodyByExecOrder(robot -> {
+            visited.add(robot.getID());
+            return robot.getID() != 8;
+        });
+        assertEquals(Arrays.asList(1, 3, 4, 6, 7, 8), visited);
+
+        visited.clear();
+        objectInfo.eachDynamicBodyByExecOrder(robot -> visited.add(robot.getID()));
+        assertEquals(Arrays.asList(1, 3, 4, 6, 7, 8, 10), visited);
+    }
+}
@@ -0,0 +1,61 @@
+package battlecode.world;
+
+import battlecode.common.MapLocation;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class RadiusOffsetsTest {
+
+    /**
+     * Enumerates locations the slow way, in x-then-y order.
+     */
+    private static List<MapLocation> bruteForce(MapLocation origin, int width, int height,
+                                                MapLocation center, int radiusSquared) {
+        List<MapLocation> locations = new ArrayList<>();
+        for (int x = origin.x; x < origin.x + width; x++)
+            for (int y = origin.y; y < origin.y + height; y++)
+                if (center.distanceSquaredTo(new MapLocation(x, y)) <= radiusSquared)
+                    locations.add(new MapLocation(x, y));
+        return locations;
+    }
+
+    @Test
+    public void testMatchesBruteForce() {
+        MapLocation origin = new MapLocation(10000, 20000);
+        int width = 23, height = 31;
+        int[] radii = {-1, 0, 1, 2, 5, 10, 13, 20, 21, 34, 53, 54, 200, Integer.MAX_VALUE};
+        for (int radiusSquared : radii) {
+            for (int cx = -3; cx < width + 3; cx += 2) {
+                for (int cy = -3; cy < height + 3; cy += 3) {
+                    MapLocation center = new MapLocation(origin.x + cx, origin.y + cy);
+                    List<MapLocation> expected = bruteForce(origin, width, height, center, radiusSquared);
+
+                    List<MapLocation> actual = new ArrayList<>();
+                    RadiusOffsets.forEachLocation(origin, width, height, center, radiusSquared, (x, y, index) -> {
+                        assertEquals(x - origin.x + (y - origin.y) * width, index);
+                        actual.add(new MapLocation(x, y));
+                        return true;
+                    });
+
+                    assertEquals(expected, actual);
+                    assertEquals(expected.size(),
+                            RadiusOffsets.countLocations(origin, width, height, center, radiusSquared));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testStopsWhenAsked() {
+        int[] visited = new int[1];
+        RadiusOffsets.forEachLocation(new MapLocation(0, 0), 10, 10, new MapLocation(5, 5), 20, (x, y, index) -> {
+            visited[0]++;
+            return visited[0] < 3;
+        });
+        assertEquals(3, visited[0]);
+    }
+}
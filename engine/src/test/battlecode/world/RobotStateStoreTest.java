@@ -0,0 +1,31 @@
+package battlecode.world;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class RobotStateStoreTest {
+
+    @Test
+    public void testSlotsAreRecycledOnlyBetweenRounds() {
+        RobotStateStore store = new RobotStateStore(2);
+        Set<Integer> slots = new HashSet<>();
+        for (int i = 0; i < 10; i++)
+            assertTrue(slots.add(store.allocate()));
+
+        store.health[3] = 100;
+        store.release(3);
+        // Still readable for the rest of the round, and not handed out again
+        assertEquals(100, store.health[3]);
+        assertEquals(10, store.allocate());
+
+        store.processBeginningOfRound();
+        int slot = store.allocate();
+        assertEquals(3, slot);
+        assertEquals(0, store.health[slot]);
+        assertEquals("", store.indicatorString[0]);
+    }
+}